@@ -0,0 +1,66 @@
+package com.twistdroach.sixty502;
+
+/**
+ * ByteWordBenchmark.java
+ * Microbenchmarks for the Byte and Word register types.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class ByteWordBenchmark
+{
+    private Byte theByte = new Byte( 0x5a );
+    private Byte lowByte = new Byte( 0x34 );
+    private Byte highByte = new Byte( 0x12 );
+    private int val = 0;
+    private int bit = 0;
+
+    @Benchmark
+    public Byte byteSetVal()
+    {
+        return theByte.setVal( val++ & 0xff );
+    }
+
+    @Benchmark
+    public boolean byteGetBit()
+    {
+        return theByte.getBit( bit++ & 7 );
+    }
+
+    @Benchmark
+    public Byte byteSetBit()
+    {
+        theByte.setBit( bit & 7, ( bit++ & 8 ) != 0 );
+        return theByte;
+    }
+
+    @Benchmark
+    public Word wordFromInt()
+    {
+        return new Word( val++ & 0xffff );
+    }
+
+    @Benchmark
+    public Word wordFromBytes()
+    {
+        return new Word( lowByte, highByte );
+    }
+}
@@ -0,0 +1,110 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MemoryBenchmark.java
+ * Microbenchmarks for Memory, through both the Byte/Word accessors and
+ * the primitive read and write the processors use, on the heap and off.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class MemoryBenchmark
+{
+    private Memory memory;
+    private Memory direct;
+    private Word wordAddr;
+    private Byte zeroPageAddr;
+    private int addr;
+
+    @Setup
+    public void setup()
+    {
+        memory = new Memory();
+        for ( int i = 0; i < 0x10000; ++i )
+        {
+            memory.write( i, i * 31 );
+        }
+        direct = new BufferMemory();
+        wordAddr = new Word( 0x1234 );
+        zeroPageAddr = new Byte( 0x42 );
+    }
+
+    @Benchmark
+    public Byte getByteInt()
+    {
+        return memory.getByte( addr++ );
+    }
+
+    @Benchmark
+    public Byte getByteWord()
+    {
+        return memory.getByte( wordAddr );
+    }
+
+    @Benchmark
+    public Word getWordWord()
+    {
+        return memory.getWord( wordAddr );
+    }
+
+    @Benchmark
+    public Word getWordZeroPage()
+    {
+        return memory.getWord( zeroPageAddr );
+    }
+
+    @Benchmark
+    public int read()
+    {
+        return memory.read( addr++ );
+    }
+
+    @Benchmark
+    public int readWord()
+    {
+        return memory.readWord( addr++ );
+    }
+
+    @Benchmark
+    public void write()
+    {
+        memory.write( addr, addr++ );
+    }
+
+    @Benchmark
+    public int readDirect()
+    {
+        return direct.read( addr++ );
+    }
+
+    @Benchmark
+    public void writeDirect()
+    {
+        direct.write( addr, addr++ );
+    }
+
+    @Benchmark
+    public Memory construct()
+    {
+        return new Memory();
+    }
+}
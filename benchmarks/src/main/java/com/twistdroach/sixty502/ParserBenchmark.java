@@ -0,0 +1,72 @@
+package com.twistdroach.sixty502;
+
+/**
+ * ParserBenchmark.java
+ * Microbenchmarks for parsing: a whole program, and classifying single
+ * operands the way each instruction is classified at load time.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ParserBenchmark
+{
+    @State( Scope.Thread )
+    public static class Source
+    {
+        @Param( { "simpletest.asm", "arith.asm" } )
+        public String program;
+
+        Vector<String> lines;
+
+        @Setup
+        public void setup()
+        {
+            lines = Programs.lines( program );
+        }
+    }
+
+    @State( Scope.Thread )
+    public static class Operand
+    {
+        @Param( { "#$22", "$0200", "($40)" } )
+        public String operand;
+    }
+
+    @Benchmark
+    public Vector<Instruction> getInstructions( Source source )
+    {
+        return Parser.getInstructions( source.lines );
+    }
+
+    @Benchmark
+    public AddressingMode getAddressingMode( Operand operand )
+    {
+        return Parser.getAddressingMode( operand.operand, null );
+    }
+
+    @Benchmark
+    public int getOperandValue( Operand operand )
+    {
+        return Parser.getOperandValue( operand.operand );
+    }
+}
@@ -0,0 +1,69 @@
+package com.twistdroach.sixty502;
+
+/**
+ * ProgramBenchmark.java
+ * End to end benchmarks: whole programs run headless on a fresh Machine,
+ * from zeroed registers and memory to the end of the program. Building
+ * the machine is part of the cost; arithmeticLoopReused leaves it out by
+ * running the same machine again from the start.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ProgramBenchmark
+{
+    private Program simpleTest;
+    private Program arith;
+    private Machine reused;
+
+    @Setup
+    public void setup()
+    {
+        simpleTest = Programs.load( "simpletest.asm" );
+        arith = Programs.load( "arith.asm" );
+        reused = new Machine( arith );
+    }
+
+    @Benchmark
+    public CpuState simpleTest()
+    {
+        Machine machine = new Machine( simpleTest );
+        machine.run();
+        return machine.getState();
+    }
+
+    @Benchmark
+    public CpuState arithmeticLoop()
+    {
+        Machine machine = new Machine( arith );
+        machine.run();
+        return machine.getState();
+    }
+
+    @Benchmark
+    public CpuState arithmeticLoopReused()
+    {
+        reused.getState().setPC( 0 );
+        reused.run();
+        return reused.getState();
+    }
+}
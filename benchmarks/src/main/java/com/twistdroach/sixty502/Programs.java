@@ -0,0 +1,75 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Programs.java
+ * Loads the asm programs bundled with the benchmarks. Program only reads
+ * files, so each is copied out of the jar to a temporary file first.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Vector;
+
+final class Programs
+{
+    private Programs()
+    {
+    }
+
+    /**
+     * Parses a bundled program.
+     *
+     * @param resource Name of the asm file, e.g. "simpletest.asm".
+     */
+    static Program load( String resource )
+    {
+        try
+        {
+            Path file = Files.createTempFile( "sixty502", ".asm" );
+            try ( InputStream in = open( resource ) )
+            {
+                Files.copy( in, file, StandardCopyOption.REPLACE_EXISTING );
+            }
+            Program program = new Program( file.toString() );
+            Files.delete( file );
+            return program;
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( "Could not load " + resource, ex );
+        }
+    }
+
+    /**
+     * Returns the lines of a bundled program, as Parser takes them.
+     *
+     * @param resource Name of the asm file, e.g. "simpletest.asm".
+     */
+    static Vector<String> lines( String resource )
+    {
+        try ( InputStream in = open( resource ) )
+        {
+            String text = new String( in.readAllBytes(), StandardCharsets.UTF_8 );
+            return new Vector<String>( Arrays.asList( text.split( "\\r?\\n" ) ) );
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( "Could not load " + resource, ex );
+        }
+    }
+
+    private static InputStream open( String resource ) throws IOException
+    {
+        InputStream in = Programs.class.getResourceAsStream( "/" + resource );
+        if ( in == null )
+            throw new IOException( resource + " is not bundled" );
+        return in;
+    }
+}
@@ -0,0 +1,10 @@
+; Tight arithmetic loop for benchmarking: 256 passes of add, subtract,
+; shift and exclusive or, counted in X.
+ldx #0
+clc	; Loop starts here ( instruction 1 )
+adc #3
+sbc #1
+asl
+eor #$5a
+inx
+bne #1	; Until X wraps to 0
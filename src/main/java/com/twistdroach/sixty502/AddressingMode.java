@@ -0,0 +1,27 @@
+package com.twistdroach.sixty502;
+
+/**
+ * AddressingMode.java
+ * Enumerates the ways an instruction's operand can reference its data.
+ * Modes are classified once when a program is parsed so the processor
+ * only has to do integer math to find the effective address.
+ *
+ * @author Christopher Erickson
+ */
+
+public enum AddressingMode
+{
+	IMPLIED,            // No operand
+	ACCUMULATOR,        // A
+	IMMEDIATE,          // #$nn
+	ZERO_PAGE,          // $nn
+	ZERO_PAGE_X,        // $nn, x
+	ZERO_PAGE_Y,        // $nn, y
+	ABSOLUTE,           // $nnnn
+	ABSOLUTE_X,         // $nnnn, x
+	ABSOLUTE_Y,         // $nnnn, y
+	INDIRECT,           // ($nnnn)
+	INDEXED_INDIRECT,   // ($nn, x)
+	INDIRECT_INDEXED,   // ($nn), y
+	RELATIVE            // Signed branch displacement, binary code only
+}
@@ -0,0 +1,122 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Alu.java
+ * Precomputed flag and arithmetic tables, so CpuState can do ADC and SBC
+ * in either mode with a single array lookup and no branches.
+ *
+ * The ADC and SBC tables are indexed by carry << 16 | A << 8 | operand,
+ * one 64K half per carry in. Each entry packs everything the instruction
+ * changes:
+ *
+ *   bits 0-7    result
+ *   bit  8      carry out
+ *   bits 9-17   lazy nz value, see CpuState
+ *   bit  18     V
+ *
+ * Decimal mode follows the NMOS 6502, including its documented quirks:
+ * after ADC, Z comes from the binary sum while N and V come from the
+ * result before the high digit is corrected; after SBC, every flag comes
+ * from the binary difference. Invalid BCD operands give the same results
+ * as real hardware.
+ *
+ * @author Christopher Erickson
+ */
+
+public class Alu
+{
+    /* Bit layout of a table entry */
+    static final int CARRY_SHIFT = 8;
+    static final int NZ_SHIFT = 9;
+    static final int V_SHIFT = 18;
+
+    /* N and Z bits of P, indexed by the lazy nz value */
+    static final int[] NZ = new int[512];
+    /* Binary mode, SBC takes the operand as is rather than inverted */
+    static final int[] ADC_BINARY = new int[0x20000];
+    static final int[] SBC_BINARY = new int[0x20000];
+    /* Decimal mode */
+    static final int[] ADC_DECIMAL = new int[0x20000];
+    static final int[] SBC_DECIMAL = new int[0x20000];
+    /* Indexed by the D flag */
+    static final int[][] ADC = { ADC_BINARY, ADC_DECIMAL };
+    static final int[][] SBC = { SBC_BINARY, SBC_DECIMAL };
+
+    static
+    {
+        for ( int nz = 0; nz < NZ.length; ++nz )
+        {
+            NZ[nz] = ( ( nz & 0x180 ) != 0 ? CpuState.N : 0 ) | ( ( nz & 0xff ) == 0 ? CpuState.Z : 0 );
+        }
+        for ( int i = 0; i < 0x20000; ++i )
+        {
+            int c = i >> 16;
+            int a = ( i >> 8 ) & 0xff;
+            int m = i & 0xff;
+            ADC_BINARY[i] = binaryAdd( a, m, c );
+            SBC_BINARY[i] = binaryAdd( a, m ^ 0xff, c );
+            ADC_DECIMAL[i] = decimalAdd( a, m, c );
+            SBC_DECIMAL[i] = decimalSubtract( a, m, c );
+        }
+    }
+
+    /**
+     * Stop java from creating instances of a static class
+     */
+    private Alu()
+    {
+    }
+
+    private static int binaryAdd( int a, int m, int c )
+    {
+        int sum = a + m + c;
+        // Overflow when both inputs share a sign the result doesn't
+        boolean v = ( ~( a ^ m ) & ( a ^ sum ) & 0x80 ) != 0;
+        return pack( sum & 0xff, sum >> 8, sum & 0xff, v );
+    }
+
+    private static int decimalAdd( int a, int m, int c )
+    {
+        int low = ( a & 0x0f ) + ( m & 0x0f ) + c;
+        if ( low >= 0x0a )
+            low = ( ( low + 0x06 ) & 0x0f ) + 0x10;
+        int sum = ( a & 0xf0 ) + ( m & 0xf0 ) + low;
+        // N and V see the sum before the high digit is corrected
+        int signed = (byte) ( a & 0xf0 ) + (byte) ( m & 0xf0 ) + low;
+        boolean n = ( signed & 0x80 ) != 0;
+        boolean v = signed < -128 || signed > 127;
+        boolean z = ( ( a + m + c ) & 0xff ) == 0;
+        if ( sum >= 0xa0 )
+            sum += 0x60;
+        return pack( sum & 0xff, sum >= 0x100 ? 1 : 0, encodeNZ( n, z ), v );
+    }
+
+    private static int decimalSubtract( int a, int m, int c )
+    {
+        int low = ( a & 0x0f ) - ( m & 0x0f ) + c - 1;
+        if ( low < 0 )
+            low = ( ( low - 0x06 ) & 0x0f ) - 0x10;
+        int diff = ( a & 0xf0 ) - ( m & 0xf0 ) + low;
+        if ( diff < 0 )
+            diff -= 0x60;
+        // Flags are the same as in binary mode
+        int flags = binaryAdd( a, m ^ 0xff, c );
+        return ( flags & ~0xff ) | ( diff & 0xff );
+    }
+
+    /**
+     * Builds a lazy nz value that gives the flags asked for, the same way
+     * CpuState.setP() does.
+     */
+    private static int encodeNZ( boolean n, boolean z )
+    {
+        if ( z )
+            return n ? 0x100 : 0;
+        return n ? 0x80 : 1;
+    }
+
+    private static int pack( int result, int carry, int nz, boolean v )
+    {
+        return result | ( carry << CARRY_SHIFT ) | ( nz << NZ_SHIFT ) | ( v ? 1 << V_SHIFT : 0 );
+    }
+}
@@ -0,0 +1,259 @@
+package com.twistdroach.sixty502;
+
+/**
+ * BatchRunner.java
+ * Runs many programs at once, each in its own Machine, on a work-stealing
+ * ForkJoinPool sized to the number of cores. Runs share nothing but the
+ * parsed Program, so throughput scales with the cores available.
+ *
+ * Usage:
+ *   BatchRunner [-j threads] [-limit n] [-jmx] file.asm ...
+ *   BatchRunner [-j threads] [-limit n] [-jmx] -seeds count [-seed s] file.asm
+ *
+ * The first form runs each file once from zeroed memory. The second runs
+ * one program count times, each from its own random registers and memory.
+ * With -jmx, each machine is registered over JMX while it runs.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class BatchRunner
+{
+    /* Default cap on instructions per run, so runaway programs still end */
+    public static final long DEFAULT_LIMIT = 100000000L;
+
+    private ForkJoinPool pool;
+    private long limit;
+    private boolean monitored;
+
+    /**
+     * Creates a runner using every core.
+     */
+    public BatchRunner()
+    {
+        this( Runtime.getRuntime().availableProcessors(), DEFAULT_LIMIT );
+    }
+
+    /**
+     * Creates a runner.
+     *
+     * @param parallelism Number of runs to execute at once.
+     * @param instructionLimit Most instructions a single run may execute.
+     */
+    public BatchRunner( int parallelism, long instructionLimit )
+    {
+        pool = new ForkJoinPool( parallelism );
+        limit = instructionLimit;
+    }
+
+    /**
+     * Runs each file once, from zeroed registers and memory.
+     *
+     * @param files Locations of the asm files.
+     * @return One result per file, in the same order.
+     * @throws CancellationException If the calling thread is interrupted
+     *         while waiting; runs not yet started are cancelled.
+     */
+    public List<RunResult> runFiles( List<String> files )
+    {
+        List<Callable<RunResult>> runs = new ArrayList<Callable<RunResult>>();
+        for ( int i = 0; i < files.size(); ++i )
+        {
+            final String file = files.get( i );
+            final int index = i;
+            runs.add( new Callable<RunResult>()
+            {
+                public RunResult call()
+                {
+                    return execute( file, index, new Machine( file ) );
+                }
+            } );
+        }
+        return invokeAll( runs );
+    }
+
+    /**
+     * Runs one program many times, each from its own random A, X, Y and memory.
+     * Run i is seeded with seed + i, so any single run can be reproduced.
+     *
+     * @param program The program, shared by every run.
+     * @param count Number of runs.
+     * @param seed Seed of the first run.
+     * @return One result per run, in seed order.
+     * @throws CancellationException If the calling thread is interrupted
+     *         while waiting; runs not yet started are cancelled.
+     */
+    public List<RunResult> runSeeds( final Program program, int count, long seed )
+    {
+        List<Callable<RunResult>> runs = new ArrayList<Callable<RunResult>>();
+        for ( int i = 0; i < count; ++i )
+        {
+            final long runSeed = seed + i;
+            final int index = i;
+            runs.add( new Callable<RunResult>()
+            {
+                public RunResult call()
+                {
+                    Machine machine = new Machine( program );
+                    randomize( machine, runSeed );
+                    return execute( "seed " + runSeed, index, machine );
+                }
+            } );
+        }
+        return invokeAll( runs );
+    }
+
+    /**
+     * Sets whether machines are registered over JMX while they run, see
+     * MachineMonitor. Each is registered under its run's name and its
+     * index in the batch, e.g. "test.asm #2", as a file may be listed
+     * more than once. Off by default.
+     */
+    public void setMonitored( boolean on )
+    {
+        monitored = on;
+    }
+
+    /**
+     * Stops the pool's threads once queued runs are done.
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    private RunResult execute( String name, int index, Machine machine )
+    {
+        MachineMonitor monitor = monitored ? MachineMonitor.register( machine, name + " #" + index ) : null;
+        long before = machine.getState().getInstructions();
+        long start = System.nanoTime();
+        StopReason reason;
+        try
+        {
+            reason = machine.run( limit );
+        }
+        finally
+        {
+            if ( monitor != null )
+                monitor.unregister();
+        }
+        long nanos = System.nanoTime() - start;
+        return new RunResult( name, machine, reason, machine.getState().getInstructions() - before, nanos );
+    }
+
+    private static void randomize( Machine machine, long seed )
+    {
+        SplittableRandom random = new SplittableRandom( seed );
+        Memory memory = machine.getMemory();
+        for ( int addr = 0; addr < 0x10000; ++addr )
+        {
+            memory.write( addr, random.nextInt( 256 ) );
+        }
+        CpuState state = machine.getState();
+        state.setA( random.nextInt( 256 ) );
+        state.setX( random.nextInt( 256 ) );
+        state.setY( random.nextInt( 256 ) );
+    }
+
+    private List<RunResult> invokeAll( List<Callable<RunResult>> runs )
+    {
+        List<RunResult> results = new ArrayList<RunResult>();
+        List<Future<RunResult>> futures = null;
+        try
+        {
+            futures = pool.invokeAll( runs );
+            for ( Future<RunResult> result : futures )
+            {
+                results.add( result.get() );
+            }
+        }
+        catch ( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            if ( futures != null )
+            {
+                for ( Future<RunResult> result : futures )
+                {
+                    result.cancel( true );
+                }
+            }
+            // A partial list would pass for a complete batch
+            CancellationException cancelled = new CancellationException( "Interrupted after "
+                    + results.size() + " of " + runs.size() + " runs" );
+            cancelled.initCause( ex );
+            throw cancelled;
+        }
+        catch ( ExecutionException ex )
+        {
+            throw new RuntimeException( ex.getCause() );
+        }
+        return results;
+    }
+
+    /**
+     * Runs a batch from the command line and prints one line per run,
+     * then the totals.
+     *
+     * @param args See the class comment.
+     */
+    public static void main( String[] args )
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long instructionLimit = DEFAULT_LIMIT;
+        int seeds = 0;
+        long seed = 0;
+        boolean jmx = false;
+        List<String> files = new ArrayList<String>();
+        for ( int i = 0; i < args.length; ++i )
+        {
+            if ( args[i].equals( "-j" ) && i + 1 < args.length )
+                threads = Integer.parseInt( args[++i] );
+            else if ( args[i].equals( "-limit" ) && i + 1 < args.length )
+                instructionLimit = Long.parseLong( args[++i] );
+            else if ( args[i].equals( "-seeds" ) && i + 1 < args.length )
+                seeds = Integer.parseInt( args[++i] );
+            else if ( args[i].equals( "-seed" ) && i + 1 < args.length )
+                seed = Long.parseLong( args[++i] );
+            else if ( args[i].equals( "-jmx" ) )
+                jmx = true;
+            else
+                files.add( args[i] );
+        }
+        if ( files.isEmpty() || ( seeds > 0 && files.size() != 1 ) )
+        {
+            System.out.println( "Usage: BatchRunner [-j threads] [-limit n] [-jmx] file.asm ..." );
+            System.out.println( "       BatchRunner [-j threads] [-limit n] [-jmx] -seeds count [-seed s] file.asm" );
+            return;
+        }
+
+        BatchRunner runner = new BatchRunner( threads, instructionLimit );
+        runner.setMonitored( jmx );
+        long start = System.nanoTime();
+        List<RunResult> results;
+        if ( seeds > 0 )
+            results = runner.runSeeds( new Program( files.get( 0 ) ), seeds, seed );
+        else
+            results = runner.runFiles( files );
+        long wall = System.nanoTime() - start;
+        runner.shutdown();
+
+        long total = 0;
+        for ( RunResult result : results )
+        {
+            System.out.println( result );
+            total += result.getInstructions();
+        }
+        System.out.println( results.size() + " runs, " + total + " instructions, "
+                + String.format( "%.1f ms, %.2f M instructions/s on %d threads",
+                        wall / 1e6, total * 1e3 / wall, threads ) );
+    }
+}
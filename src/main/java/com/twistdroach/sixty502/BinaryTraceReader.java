@@ -0,0 +1,259 @@
+package com.twistdroach.sixty502;
+
+/**
+ * BinaryTraceReader.java
+ * Reads back a trace written by BinaryTraceSink, one record at a time,
+ * and renders it in the text format of FileTraceSink on demand.
+ *
+ * Usage:
+ *   BinaryTraceReader trace.bin [file.asm]
+ *
+ * Given the program that was traced, instructions are shown as written in
+ * its source. Without it they are rebuilt from the opcode, addressing
+ * mode and operand value in the record.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class BinaryTraceReader
+{
+    /* Records read from the file at a time */
+    private static final int BATCH = 1 << 12;
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final AddressingMode[] MODES = AddressingMode.values();
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long dropped;
+    /* The current record */
+    private int index, pc, value, a, x, y, sp, p;
+    private long cycles;
+    private Opcode opcode;
+    private AddressingMode mode;
+
+    /**
+     * Opens a trace and reads its header.
+     *
+     * @param fileName Location of the trace file.
+     */
+    public BinaryTraceReader( String fileName )
+    {
+        try
+        {
+            channel = FileChannel.open( Paths.get( fileName ), StandardOpenOption.READ );
+            ByteBuffer header = ByteBuffer.allocate( BinaryTraceSink.HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            while ( header.hasRemaining() && channel.read( header ) >= 0 )
+            {
+            }
+            header.flip();
+            if ( header.remaining() < BinaryTraceSink.HEADER_SIZE || header.getLong( 0 ) != BinaryTraceSink.MAGIC )
+                throw new IllegalStateException( fileName + " is not a binary trace" );
+            if ( header.getShort( 8 ) != BinaryTraceSink.VERSION || header.getShort( 10 ) != BinaryTraceSink.RECORD_SIZE )
+                throw new IllegalStateException( fileName + " is an unsupported trace version" );
+            dropped = header.getLong( BinaryTraceSink.DROPPED_OFFSET );
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( "Could not read trace file " + fileName, ex );
+        }
+        buffer = ByteBuffer.allocate( BATCH * BinaryTraceSink.RECORD_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        buffer.flip();
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return False at the end of the trace.
+     */
+    public boolean next()
+    {
+        if ( buffer.remaining() < BinaryTraceSink.RECORD_SIZE && !fill() )
+            return false;
+
+        index = buffer.getInt();
+        pc = buffer.getInt();
+        cycles = buffer.getLong();
+        value = buffer.getInt();
+        int op = buffer.get() & 0xff;
+        int md = buffer.get() & 0xff;
+        opcode = op < OPCODES.length ? OPCODES[op] : null;
+        mode = md < MODES.length ? MODES[md] : null;
+        a = buffer.get() & 0xff;
+        x = buffer.get() & 0xff;
+        y = buffer.get() & 0xff;
+        sp = buffer.get() & 0xff;
+        p = buffer.get() & 0xff;
+        buffer.position( buffer.position() + 5 );
+        return true;
+    }
+
+    /**
+     * Reads the next batch of records, keeping any partial record.
+     *
+     * @return False if no whole record is left.
+     */
+    private boolean fill()
+    {
+        try
+        {
+            buffer.compact();
+            while ( buffer.hasRemaining() && channel.read( buffer ) >= 0 )
+            {
+            }
+            buffer.flip();
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( ex );
+        }
+        return buffer.remaining() >= BinaryTraceSink.RECORD_SIZE;
+    }
+
+    /**
+     * Writes every remaining record in the FileTraceSink text format.
+     *
+     * @param out Where to write the text.
+     * @param program The program that was traced, or null if unknown.
+     */
+    public void render( Writer out, Program program ) throws IOException
+    {
+        while ( next() )
+        {
+            String inst;
+            if ( program != null && index >= 0 && index < program.numInstructions() )
+                inst = FileTraceSink.describe( program.getInstruction( index ) );
+            else
+                inst = describe();
+            FileTraceSink.write( out, inst, p, a, x, y, pc );
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the current record's instruction rebuilt from the record alone.
+     */
+    private String describe()
+    {
+        String name = ( opcode == null ) ? "???" : opcode.name().toLowerCase();
+        if ( mode == null || mode == AddressingMode.IMPLIED || mode == AddressingMode.ACCUMULATOR )
+            return name;
+        return name + " $" + Integer.toHexString( value ) + " " + mode.name().toLowerCase();
+    }
+
+    public void close()
+    {
+        try
+        {
+            channel.close();
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    /**
+     * Returns the number of records the writer had to drop.
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * Returns the index within the program of the current record's instruction.
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Returns the PC after the current record's instruction.
+     */
+    public int getPC()
+    {
+        return pc;
+    }
+
+    /**
+     * Returns the opcode of the current record, or null if it didn't resolve.
+     */
+    public Opcode getOpcode()
+    {
+        return opcode;
+    }
+
+    /**
+     * Returns the addressing mode of the current record, or null if it didn't resolve.
+     */
+    public AddressingMode getMode()
+    {
+        return mode;
+    }
+
+    public int getValue()
+    {
+        return value;
+    }
+
+    public int getA()
+    {
+        return a;
+    }
+
+    public int getX()
+    {
+        return x;
+    }
+
+    public int getY()
+    {
+        return y;
+    }
+
+    public int getSP()
+    {
+        return sp;
+    }
+
+    public int getP()
+    {
+        return p;
+    }
+
+    public long getCycles()
+    {
+        return cycles;
+    }
+
+    /**
+     * Prints a binary trace as text.
+     *
+     * @param args See the class comment.
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        if ( args.length < 1 || args.length > 2 )
+        {
+            System.out.println( "Usage: BinaryTraceReader trace.bin [file.asm]" );
+            return;
+        }
+        BinaryTraceReader reader = new BinaryTraceReader( args[0] );
+        Program program = ( args.length == 2 ) ? new Program( args[1] ) : null;
+        reader.render( new BufferedWriter( new OutputStreamWriter( System.out ), 1 << 16 ), program );
+        reader.close();
+        if ( reader.getDropped() > 0 )
+            System.out.println( reader.getDropped() + " records were dropped while tracing" );
+    }
+}
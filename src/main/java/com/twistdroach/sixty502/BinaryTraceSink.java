@@ -0,0 +1,233 @@
+package com.twistdroach.sixty502;
+
+/**
+ * BinaryTraceSink.java
+ * Writes a fixed-width binary record per instruction, for traces too long
+ * to keep as text. Records go into a single-producer, single-consumer ring
+ * buffer; a background thread drains it to the file through a FileChannel,
+ * as many records per write as are waiting.
+ *
+ * The emulator thread never blocks on I/O. If the writer falls so far
+ * behind that the ring is full, records are dropped and counted instead,
+ * and the count is stored in the file header when the sink is closed.
+ *
+ * File layout, little-endian:
+ *   Header ( 24 bytes ): magic "6502TRAC", short version, short record
+ *     size, int reserved, long records dropped.
+ *   Records ( 32 bytes ): int instruction index, int PC after it, long
+ *     cycles, int operand value, byte opcode, byte addressing mode,
+ *     bytes A, X, Y, SP, P, and 5 reserved bytes. Opcode and mode are
+ *     ordinals of Opcode and AddressingMode, or 0xff if the instruction
+ *     didn't resolve.
+ *
+ * BinaryTraceReader reads the file back.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class BinaryTraceSink implements TraceSink
+{
+    public static final long MAGIC = 0x4341525432303536L;   // "6502TRAC", little-endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int RECORD_SIZE = 32;
+    /* Offset of the dropped count within the header */
+    static final int DROPPED_OFFSET = 16;
+    /* Default ring size in records ( 8 MB ) */
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+    /* How long the writer sleeps when the ring is empty */
+    private static final long IDLE_NANOS = 1000000L;
+
+    private FileChannel channel;
+    private ByteBuffer ring;
+    private int mask;
+    /* Records written by the emulator thread, published to the writer */
+    private AtomicLong head = new AtomicLong();
+    /* Records drained by the writer, published to the emulator thread */
+    private AtomicLong tail = new AtomicLong();
+    /* Emulator thread only */
+    private long produced;
+    private long cachedTail;
+    private long dropped;
+
+    private Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * Creates a sink with the default ring size.
+     *
+     * @param fileName Location of the trace file, replaced if it exists.
+     */
+    public BinaryTraceSink( String fileName )
+    {
+        this( fileName, DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Creates a sink.
+     *
+     * @param fileName Location of the trace file, replaced if it exists.
+     * @param capacity Ring size in records, a power of two.
+     */
+    public BinaryTraceSink( String fileName, int capacity )
+    {
+        if ( capacity <= 0 || Integer.bitCount( capacity ) != 1 )
+            throw new IllegalArgumentException( "Capacity must be a power of two: " + capacity );
+        ring = ByteBuffer.allocateDirect( capacity * RECORD_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        mask = capacity - 1;
+        try
+        {
+            channel = FileChannel.open( Paths.get( fileName ), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            header.putLong( MAGIC ).putShort( (short) VERSION ).putShort( (short) RECORD_SIZE ).putInt( 0 ).putLong( 0 );
+            header.flip();
+            while ( header.hasRemaining() )
+                channel.write( header );
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( "Could not open trace file " + fileName, ex );
+        }
+
+        writer = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                drain();
+            }
+        }, "trace-writer " + fileName );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    public void trace( int index, Instruction inst, CpuState state )
+    {
+        long next = produced;
+        if ( next - cachedTail > mask )
+        {
+            cachedTail = tail.get();
+            if ( next - cachedTail > mask )
+            {
+                dropped++;
+                return;
+            }
+        }
+
+        int at = (int) ( next & mask ) * RECORD_SIZE;
+        Opcode opcode = inst.getOpcodeId();
+        AddressingMode mode = inst.getMode();
+        ring.putInt( at, index );
+        ring.putInt( at + 4, state.pc );
+        ring.putLong( at + 8, state.cycles );
+        ring.putInt( at + 16, inst.getValue() );
+        ring.put( at + 20, (byte) ( opcode == null ? 0xff : opcode.ordinal() ) );
+        ring.put( at + 21, (byte) ( mode == null ? 0xff : mode.ordinal() ) );
+        ring.put( at + 22, (byte) state.a );
+        ring.put( at + 23, (byte) state.x );
+        ring.put( at + 24, (byte) state.y );
+        ring.put( at + 25, (byte) state.sp );
+        ring.put( at + 26, (byte) state.getP() );
+        ring.putInt( at + 27, 0 );
+        ring.put( at + 31, (byte) 0 );
+        produced = next + 1;
+        head.lazySet( produced );
+    }
+
+    /**
+     * Returns the number of records dropped because the ring was full.
+     * Only meaningful on the emulator thread or after close().
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * Waits for the writer to drain the ring, records the dropped count
+     * in the header and closes the file.
+     */
+    public void close()
+    {
+        if ( closed )
+            return;
+        closed = true;
+        LockSupport.unpark( writer );
+        boolean interrupted = false;
+        while ( writer.isAlive() )
+        {
+            try
+            {
+                writer.join();
+            }
+            catch ( InterruptedException ex )
+            {
+                interrupted = true;
+            }
+        }
+        try
+        {
+            ByteBuffer count = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN ).putLong( 0, dropped );
+            channel.write( count, DROPPED_OFFSET );
+            channel.close();
+        }
+        catch ( IOException ex )
+        {
+            if ( failure == null )
+                failure = ex;
+        }
+        if ( interrupted )
+            Thread.currentThread().interrupt();
+        if ( failure != null )
+            throw new IllegalStateException( "Could not write trace", failure );
+    }
+
+    /**
+     * Writer thread: writes out whatever is in the ring until closed and empty.
+     */
+    private void drain()
+    {
+        ByteBuffer view = ring.duplicate();
+        int capacity = mask + 1;
+        long drained = 0;
+        try
+        {
+            while ( true )
+            {
+                long available = head.get();
+                if ( available == drained )
+                {
+                    if ( closed && head.get() == drained )
+                        return;
+                    LockSupport.parkNanos( IDLE_NANOS );
+                    continue;
+                }
+
+                // Everything waiting up to the end of the ring in one write
+                int from = (int) ( drained & mask );
+                int count = (int) Math.min( available - drained, capacity - from );
+                view.limit( ( from + count ) * RECORD_SIZE );
+                view.position( from * RECORD_SIZE );
+                while ( view.hasRemaining() )
+                    channel.write( view );
+                drained += count;
+                tail.lazySet( drained );
+            }
+        }
+        catch ( IOException ex )
+        {
+            // Stop draining; the ring fills and further records are dropped
+            failure = ex;
+        }
+    }
+}
@@ -0,0 +1,904 @@
+package com.twistdroach.sixty502;
+
+/**
+ * BlockCompiler.java
+ * Translates a basic block of 6502 machine code into a hidden JVM class.
+ *
+ * A block runs from its start address up to and including the first
+ * branch, JMP, JSR, RTS or RTI. Loads, ALU operations, compares, shifts,
+ * increments, transfers, flag instructions and branches are translated
+ * into field loads and stores on the CpuState, with their operands baked
+ * in as constants, so HotSpot sees the whole block as straight-line code
+ * and can keep registers in machine registers between instructions.
+ * Reads come straight out of Memory's fast table, falling back to
+ * Memory.read() for devices and watched pages. Stores go through
+ * Cpu.write() so the Recompiler hears about them, and the stack, JSR,
+ * RTS, RTI and indirect addressing call the matching Cpu methods.
+ *
+ * After every instruction that writes memory the block checks
+ * Cpu.isCodeWritten() and returns early if it has overwritten compiled
+ * code, so self-modifying code is never run stale. Base cycles are added
+ * in one go at each exit; page crossing and branch penalties are added
+ * as they happen.
+ *
+ * The class file is written by hand; nothing here needs a bytecode library.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class BlockCompiler
+{
+	/* Longest block we will translate, in instructions */
+	public static final int MAX_INSTRUCTIONS = 64;
+	/* Class names */
+	private static final String CPU = "com/twistdroach/sixty502/Cpu";
+	private static final String STATE = "com/twistdroach/sixty502/CpuState";
+	private static final String MEMORY = "com/twistdroach/sixty502/Memory";
+	private static final String SUPER = "com/twistdroach/sixty502/CompiledBlock";
+	private static final String NAME = "com/twistdroach/sixty502/CompiledBlock$Generated";
+	/* Locals of execute(): this, the Cpu, then what the prologue loads */
+	private static final int LOCAL_CPU = 1;
+	private static final int LOCAL_STATE = 2;
+	private static final int LOCAL_MEMORY = 3;
+	private static final int LOCAL_ADDR = 4;    // Effective address
+	private static final int LOCAL_VAL = 5;     // Operand or result
+	private static final int LOCAL_PAGE = 6;    // Fast table entry being read
+	private static final int MAX_LOCALS = 7;
+	private static final int MAX_STACK = 8;
+	/* JVM opcodes */
+	private static final int ACONST_NULL = 0x01;
+	private static final int ICONST_0 = 0x03;
+	private static final int ICONST_1 = 0x04;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD = 0x19;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int IALOAD = 0x2e;
+	private static final int AALOAD = 0x32;
+	private static final int BALOAD = 0x33;
+	private static final int ISTORE = 0x36;
+	private static final int ASTORE = 0x3a;
+	private static final int DUP = 0x59;
+	private static final int IADD = 0x60;
+	private static final int LADD = 0x61;
+	private static final int ISUB = 0x64;
+	private static final int ISHR = 0x7a;
+	private static final int IUSHR = 0x7c;
+	private static final int IAND = 0x7e;
+	private static final int IOR = 0x80;
+	private static final int IXOR = 0x82;
+	private static final int I2L = 0x85;
+	private static final int IFEQ = 0x99;
+	private static final int IFNE = 0x9a;
+	private static final int IF_ICMPEQ = 0x9f;
+	private static final int GOTO = 0xa7;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int IFNULL = 0xc6;
+
+	private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+	private final Memory theMemory;
+
+	/* Per-class state, reset by compile() */
+	private ByteArrayOutputStream pool;
+	private Map<String, Integer> poolIndex;
+	private int poolCount;
+	private ByteArrayOutputStream code;
+	private List<Integer> branchTargets;
+
+	BlockCompiler( Memory memory )
+	{
+		theMemory = memory;
+	}
+
+    /**
+     * Translates the block starting at an address.
+     *
+     * @param start Address of the block's first instruction.
+     * @return The compiled block, or null if the first instruction can't be compiled.
+     */
+	CompiledBlock compile( int start )
+	{
+		pool = new ByteArrayOutputStream();
+		poolIndex = new HashMap<String, Integer>();
+		poolCount = 1;
+		code = new ByteArrayOutputStream();
+		branchTargets = new ArrayList<Integer>();
+		emitPrologue();
+
+		int addr = start;
+		int count = 0;
+		int cycles = 0;
+		boolean terminated = false;
+		while ( count < MAX_INSTRUCTIONS && !terminated )
+		{
+			int opcode = theMemory.peek( addr );
+			Opcode op = OpcodeTable.getOpcode( opcode );
+			// BRK and unofficial opcodes are left to the interpreter
+			if ( op == null || op == Opcode.BRK )
+			{
+				break;
+			}
+			AddressingMode mode = OpcodeTable.getMode( opcode );
+			int next = addr + OpcodeTable.getLength( mode );
+			if ( next > 0xffff )
+			{
+				break; // Don't wrap around the address space
+			}
+			count++;
+			cycles += OpcodeTable.getCycles( opcode );
+			terminated = endsBlock( op, mode );
+
+			if ( terminated )
+			{
+				// Control flow needs the PC past the instruction, as the interpreter leaves it
+				emitSetPC( next );
+			}
+			emitInstruction( op, mode, addr, next, OpcodeTable.hasPagePenalty( opcode ) );
+			if ( !terminated && writesMemory( op, mode ) )
+			{
+				emitCodeWrittenCheck( next, count, cycles );
+			}
+			addr = next;
+		}
+		if ( count == 0 )
+		{
+			return null;
+		}
+		if ( !terminated )
+		{
+			emitSetPC( addr );
+		}
+		emitAddCycles( cycles );
+		pushInt( count );
+		code.write( IRETURN );
+
+		try
+		{
+			MethodHandles.Lookup hidden = lookup.defineHiddenClass( toClassFile(), true );
+			CompiledBlock block = (CompiledBlock) hidden.findConstructor( hidden.lookupClass(),
+					MethodType.methodType( void.class ) ).invoke();
+			block.start = start;
+			block.end = addr;
+			return block;
+		}
+		catch ( Throwable ex )
+		{
+			throw new IllegalStateException( "Could not compile block at $" + Integer.toHexString( start ), ex );
+		}
+	}
+
+    /**
+     * Returns true if an instruction transfers control, which ends a block.
+     */
+	static boolean endsBlock( Opcode op, AddressingMode mode )
+	{
+		return mode == AddressingMode.RELATIVE || op == Opcode.JMP || op == Opcode.JSR
+				|| op == Opcode.RTS || op == Opcode.RTI || op == Opcode.BRK;
+	}
+
+    /**
+     * Returns true if an instruction can store to memory.
+     */
+	private static boolean writesMemory( Opcode op, AddressingMode mode )
+	{
+		switch ( op )
+		{
+		case STA: case STX: case STY: case INC: case DEC: case PHA: case PHP:
+			return true;
+		case ASL: case LSR: case ROL: case ROR:
+			return mode != AddressingMode.ACCUMULATOR;
+		default:
+			return false;
+		}
+	}
+
+    /**
+     * state = cpu.getState(); memory = cpu.getMemory(), and the scratch
+     * locals initialised so every branch target has the same frame.
+     */
+	private void emitPrologue()
+	{
+		code.write( ALOAD_1 );
+		invoke( CPU, "getState", "()L" + STATE + ";" );
+		local( ASTORE, LOCAL_STATE );
+		code.write( ALOAD_1 );
+		invoke( CPU, "getMemory", "()L" + MEMORY + ";" );
+		local( ASTORE, LOCAL_MEMORY );
+		code.write( ICONST_0 );
+		local( ISTORE, LOCAL_ADDR );
+		code.write( ICONST_0 );
+		local( ISTORE, LOCAL_VAL );
+		code.write( ACONST_NULL );
+		local( ASTORE, LOCAL_PAGE );
+	}
+
+	private void emitInstruction( Opcode op, AddressingMode mode, int addr, int next, boolean penalty )
+	{
+		switch ( op )
+		{
+		case LDA: case LDX: case LDY:
+			emitOperand( mode, addr, penalty );
+			emitPutState( register( op ), LOCAL_VAL );
+			emitSetNZ();
+			break;
+		case AND: case ORA: case EOR:
+			emitOperand( mode, addr, penalty );
+			emitGetState( "a" );
+			local( ILOAD, LOCAL_VAL );
+			code.write( op == Opcode.AND ? IAND : op == Opcode.ORA ? IOR : IXOR );
+			local( ISTORE, LOCAL_VAL );
+			emitPutState( "a", LOCAL_VAL );
+			emitSetNZ();
+			break;
+		case ADC: case SBC: case BIT:
+			// Table lookups and V, left to CpuState's ALU helpers
+			emitOperand( mode, addr, penalty );
+			local( ALOAD, LOCAL_STATE );
+			local( ILOAD, LOCAL_VAL );
+			invoke( STATE, op.name().toLowerCase(), "(I)V" );
+			break;
+		case CMP: case CPX: case CPY:
+			// carry = reg >= val, nz = ( reg - val ) & 0xff
+			emitOperand( mode, addr, penalty );
+			emitGetState( register( op ) );
+			local( ILOAD, LOCAL_VAL );
+			code.write( ISUB );
+			local( ISTORE, LOCAL_VAL );
+			local( ALOAD, LOCAL_STATE );
+			local( ILOAD, LOCAL_VAL );
+			pushInt( 31 );
+			code.write( IUSHR );
+			code.write( ICONST_1 );
+			code.write( IXOR );
+			field( PUTFIELD, "carry", "I" );
+			local( ALOAD, LOCAL_STATE );
+			local( ILOAD, LOCAL_VAL );
+			pushInt( 0xff );
+			code.write( IAND );
+			field( PUTFIELD, "nz", "I" );
+			break;
+		case STA: case STX: case STY:
+			emitAddress( mode, addr, penalty );
+			local( ISTORE, LOCAL_ADDR );
+			code.write( ALOAD_1 );
+			local( ILOAD, LOCAL_ADDR );
+			emitGetState( register( op ) );
+			invoke( CPU, "write", "(II)V" );
+			break;
+		case INC: case DEC:
+			emitOperand( mode, addr, penalty );
+			local( ILOAD, LOCAL_VAL );
+			code.write( ICONST_1 );
+			code.write( op == Opcode.INC ? IADD : ISUB );
+			pushInt( 0xff );
+			code.write( IAND );
+			local( ISTORE, LOCAL_VAL );
+			emitSetNZ();
+			emitWrite();
+			break;
+		case ASL: case LSR: case ROL: case ROR:
+			if ( mode == AddressingMode.ACCUMULATOR )
+			{
+				local( ALOAD, LOCAL_STATE );
+				local( ALOAD, LOCAL_STATE );
+				emitGetState( "a" );
+				invoke( STATE, op.name().toLowerCase(), "(I)I" );
+				field( PUTFIELD, "a", "I" );
+			}
+			else
+			{
+				emitOperand( mode, addr, penalty );
+				local( ALOAD, LOCAL_STATE );
+				local( ILOAD, LOCAL_VAL );
+				invoke( STATE, op.name().toLowerCase(), "(I)I" );
+				local( ISTORE, LOCAL_VAL );
+				emitWrite();
+			}
+			break;
+		case INX: case INY: case DEX: case DEY:
+			emitGetState( register( op ) );
+			code.write( ICONST_1 );
+			code.write( op == Opcode.INX || op == Opcode.INY ? IADD : ISUB );
+			pushInt( 0xff );
+			code.write( IAND );
+			local( ISTORE, LOCAL_VAL );
+			emitPutState( register( op ), LOCAL_VAL );
+			emitSetNZ();
+			break;
+		case TAX: case TAY: case TSX: case TXA: case TYA:
+			emitGetState( op == Opcode.TSX ? "sp" : op == Opcode.TXA ? "x" : op == Opcode.TYA ? "y" : "a" );
+			local( ISTORE, LOCAL_VAL );
+			emitPutState( register( op ), LOCAL_VAL );
+			emitSetNZ();
+			break;
+		case TXS:
+			emitGetState( "x" );
+			local( ISTORE, LOCAL_VAL );
+			emitPutState( "sp", LOCAL_VAL );
+			break;
+		case CLC: case SEC:
+			local( ALOAD, LOCAL_STATE );
+			code.write( op == Opcode.SEC ? ICONST_1 : ICONST_0 );
+			field( PUTFIELD, "carry", "I" );
+			break;
+		case CLD: case CLI: case CLV: case SED: case SEI:
+			local( ALOAD, LOCAL_STATE );
+			emitGetState( "p" );
+			if ( op == Opcode.SED || op == Opcode.SEI )
+			{
+				pushInt( op == Opcode.SED ? CpuState.D : CpuState.I );
+				code.write( IOR );
+			}
+			else
+			{
+				pushInt( ~( op == Opcode.CLD ? CpuState.D : op == Opcode.CLI ? CpuState.I : CpuState.V ) );
+				code.write( IAND );
+			}
+			field( PUTFIELD, "p", "I" );
+			break;
+		case NOP:
+			break;
+		case BCC: case BCS: case BEQ: case BNE: case BMI: case BPL: case BVC: case BVS:
+			emitBranch( op, next, ( next + (byte) theMemory.peek( addr + 1 ) ) & 0xffff );
+			break;
+		case JMP:
+			local( ALOAD, LOCAL_STATE );
+			emitAddress( mode, addr, penalty );
+			field( PUTFIELD, "pc", "I" );
+			break;
+		case JSR:
+			code.write( ALOAD_1 );
+			pushInt( operandWord( addr ) );
+			invoke( CPU, "jsr", "(I)V" );
+			break;
+		default:
+			// PHA, PHP, PLA, PLP, RTS and RTI: the stack lives in Cpu
+			code.write( ALOAD_1 );
+			invoke( CPU, op.name().toLowerCase(), "()V" );
+			break;
+		}
+	}
+
+    /**
+     * The CpuState field an instruction loads, stores, compares or changes.
+     */
+	private static String register( Opcode op )
+	{
+		switch ( op )
+		{
+		case LDX: case STX: case CPX: case INX: case DEX: case TAX: case TSX:
+			return "x";
+		case LDY: case STY: case CPY: case INY: case DEY: case TAY:
+			return "y";
+		default:
+			return "a";
+		}
+	}
+
+	private int operandWord( int addr )
+	{
+		return theMemory.peek( addr + 1 ) | ( theMemory.peek( addr + 2 ) << 8 );
+	}
+
+    /**
+     * val = the operand; addr = its address unless it is immediate.
+     */
+	private void emitOperand( AddressingMode mode, int addr, boolean penalty )
+	{
+		if ( mode == AddressingMode.IMMEDIATE )
+		{
+			pushInt( theMemory.peek( addr + 1 ) );
+			local( ISTORE, LOCAL_VAL );
+			return;
+		}
+		emitAddress( mode, addr, penalty );
+		local( ISTORE, LOCAL_ADDR );
+		emitRead();
+	}
+
+    /**
+     * Pushes the effective address. Only called with an empty stack, since
+     * the page crossing check branches.
+     */
+	private void emitAddress( AddressingMode mode, int addr, boolean penalty )
+	{
+		switch ( mode )
+		{
+		case ZERO_PAGE:
+			pushInt( theMemory.peek( addr + 1 ) );
+			break;
+		case ABSOLUTE:
+			pushInt( operandWord( addr ) );
+			break;
+		case ZERO_PAGE_X:
+		case ZERO_PAGE_Y:
+			emitGetState( mode == AddressingMode.ZERO_PAGE_X ? "x" : "y" );
+			pushInt( theMemory.peek( addr + 1 ) );
+			code.write( IADD );
+			pushInt( 0xff );
+			code.write( IAND );
+			break;
+		case ABSOLUTE_X:
+		case ABSOLUTE_Y:
+			int base = operandWord( addr );
+			emitGetState( mode == AddressingMode.ABSOLUTE_X ? "x" : "y" );
+			pushInt( base );
+			code.write( IADD );
+			pushInt( 0xffff );
+			code.write( IAND );
+			if ( penalty )
+			{
+				// cycles++ if the index carried into the next page
+				local( ISTORE, LOCAL_ADDR );
+				local( ILOAD, LOCAL_ADDR );
+				pushInt( 0xff00 );
+				code.write( IAND );
+				pushInt( base & 0xff00 );
+				int samePage = branch( IF_ICMPEQ );
+				emitAddCycles( 1 );
+				land( samePage );
+				local( ILOAD, LOCAL_ADDR );
+			}
+			break;
+		case INDIRECT:
+			emitAddress( "indirect", operandWord( addr ) );
+			break;
+		case INDEXED_INDIRECT:
+			emitAddress( "indexedIndirect", theMemory.peek( addr + 1 ) );
+			break;
+		default:
+			emitAddress( penalty ? "indirectIndexedRead" : "indirectIndexed", theMemory.peek( addr + 1 ) );
+			break;
+		}
+	}
+
+    /**
+     * cpu.mode( base ), leaving the effective address on the stack.
+     */
+	private void emitAddress( String helper, int base )
+	{
+		code.write( ALOAD_1 );
+		pushInt( base );
+		invoke( CPU, helper, "(I)I" );
+	}
+
+    /**
+     * val = memory.read( addr ), inlined for pages in the fast table:
+     *
+     * page = memory.readPages[addr >> 8];
+     * if ( page != null ) val = page[memory.readOffsets[addr >> 8] | addr & 0xff] & 0xff;
+     * else val = memory.read( addr );
+     */
+	private void emitRead()
+	{
+		local( ALOAD, LOCAL_MEMORY );
+		memoryField( "readPages", "[[B" );
+		local( ILOAD, LOCAL_ADDR );
+		pushInt( 8 );
+		code.write( ISHR );
+		code.write( AALOAD );
+		code.write( DUP );
+		local( ASTORE, LOCAL_PAGE );
+		int slow = branch( IFNULL );
+		local( ALOAD, LOCAL_PAGE );
+		local( ALOAD, LOCAL_MEMORY );
+		memoryField( "readOffsets", "[I" );
+		local( ILOAD, LOCAL_ADDR );
+		pushInt( 8 );
+		code.write( ISHR );
+		code.write( IALOAD );
+		local( ILOAD, LOCAL_ADDR );
+		pushInt( 0xff );
+		code.write( IAND );
+		code.write( IOR );
+		code.write( BALOAD );
+		pushInt( 0xff );
+		code.write( IAND );
+		local( ISTORE, LOCAL_VAL );
+		int done = branch( GOTO );
+		land( slow );
+		local( ALOAD, LOCAL_MEMORY );
+		local( ILOAD, LOCAL_ADDR );
+		invoke( MEMORY, "read", "(I)I" );
+		local( ISTORE, LOCAL_VAL );
+		land( done );
+	}
+
+    /**
+     * cpu.write( addr, val ), which tells the Recompiler.
+     */
+	private void emitWrite()
+	{
+		code.write( ALOAD_1 );
+		local( ILOAD, LOCAL_ADDR );
+		local( ILOAD, LOCAL_VAL );
+		invoke( CPU, "write", "(II)V" );
+	}
+
+    /**
+     * state.nz = val
+     */
+	private void emitSetNZ()
+	{
+		emitPutState( "nz", LOCAL_VAL );
+	}
+
+    /**
+     * if ( condition ) { state.cycles += penalty; state.pc = target; }
+     * The PC already holds the next instruction.
+     */
+	private void emitBranch( Opcode op, int next, int target )
+	{
+		int notTaken;
+		switch ( op )
+		{
+		case BCC: case BCS:
+			emitGetState( "carry" );
+			notTaken = branch( op == Opcode.BCC ? IFNE : IFEQ );
+			break;
+		case BEQ: case BNE:
+			emitGetState( "nz" );
+			pushInt( 0xff );
+			code.write( IAND );
+			notTaken = branch( op == Opcode.BEQ ? IFNE : IFEQ );
+			break;
+		case BMI: case BPL:
+			emitGetState( "nz" );
+			pushInt( 0x180 );
+			code.write( IAND );
+			notTaken = branch( op == Opcode.BMI ? IFEQ : IFNE );
+			break;
+		default:
+			emitGetState( "p" );
+			pushInt( CpuState.V );
+			code.write( IAND );
+			notTaken = branch( op == Opcode.BVS ? IFEQ : IFNE );
+			break;
+		}
+		// One extra cycle, two if the target is on another page
+		emitAddCycles( ( ( next ^ target ) & 0xff00 ) != 0 ? 2 : 1 );
+		emitSetPC( target );
+		land( notTaken );
+	}
+
+    /**
+     * state.cycles += cycles
+     */
+	private void emitAddCycles( int cycles )
+	{
+		local( ALOAD, LOCAL_STATE );
+		code.write( DUP );
+		field( GETFIELD, "cycles", "J" );
+		pushInt( cycles );
+		code.write( I2L );
+		code.write( LADD );
+		field( PUTFIELD, "cycles", "J" );
+	}
+
+    /**
+     * state.pc = addr
+     */
+	private void emitSetPC( int addr )
+	{
+		local( ALOAD, LOCAL_STATE );
+		pushInt( addr );
+		field( PUTFIELD, "pc", "I" );
+	}
+
+	private void emitGetState( String name )
+	{
+		local( ALOAD, LOCAL_STATE );
+		field( GETFIELD, name, "I" );
+	}
+
+	private void emitPutState( String name, int from )
+	{
+		local( ALOAD, LOCAL_STATE );
+		local( ILOAD, from );
+		field( PUTFIELD, name, "I" );
+	}
+
+    /**
+     * if ( cpu.isCodeWritten() ) { state.pc = next; state.cycles += cycles; return count; }
+     */
+	private void emitCodeWrittenCheck( int next, int count, int cycles )
+	{
+		code.write( ALOAD_1 );
+		invoke( CPU, "isCodeWritten", "()Z" );
+		int notWritten = branch( IFEQ );
+		emitSetPC( next );
+		emitAddCycles( cycles );
+		pushInt( count );
+		code.write( IRETURN );
+		land( notWritten );
+	}
+
+    /**
+     * Writes a branch instruction to be pointed at its target by land().
+     *
+     * @return Where the branch is in the code.
+     */
+	private int branch( int opcode )
+	{
+		int at = code.size();
+		code.write( opcode );
+		code.write( 0 );
+		code.write( 0 );
+		return at;
+	}
+
+    /**
+     * Points a branch at the next instruction written, and gives that
+     * instruction a stack map frame.
+     */
+	private void land( int branch )
+	{
+		int target = code.size();
+		byte[] bytes = code.toByteArray();
+		int offset = target - branch;
+		bytes[branch + 1] = (byte) ( offset >> 8 );
+		bytes[branch + 2] = (byte) offset;
+		code.reset();
+		code.write( bytes, 0, bytes.length );
+		if ( branchTargets.isEmpty() || branchTargets.get( branchTargets.size() - 1 ) != target )
+		{
+			branchTargets.add( target );
+		}
+	}
+
+	private void local( int opcode, int index )
+	{
+		code.write( opcode );
+		code.write( index );
+	}
+
+	private void pushInt( int val )
+	{
+		if ( val >= -1 && val <= 5 )
+		{
+			code.write( ICONST_0 + val );
+		}
+		else if ( val >= -128 && val <= 127 )
+		{
+			code.write( BIPUSH );
+			code.write( val );
+		}
+		else if ( val >= -32768 && val <= 32767 )
+		{
+			code.write( SIPUSH );
+			code.write( val >> 8 );
+			code.write( val );
+		}
+		else
+		{
+			writeShort( code, LDC_W, constant( "I" + val, 3, val ) );
+		}
+	}
+
+	private void invoke( String owner, String name, String descriptor )
+	{
+		writeShort( code, INVOKEVIRTUAL, methodRef( owner, name, descriptor ) );
+	}
+
+	private void field( int opcode, String name, String descriptor )
+	{
+		writeShort( code, opcode, fieldRef( STATE, name, descriptor ) );
+	}
+
+	private void memoryField( String name, String descriptor )
+	{
+		writeShort( code, GETFIELD, fieldRef( MEMORY, name, descriptor ) );
+	}
+
+	private static void writeShort( ByteArrayOutputStream out, int opcode, int val )
+	{
+		out.write( opcode );
+		out.write( val >> 8 );
+		out.write( val );
+	}
+
+	/* CONSTANT POOL */
+
+	private int utf8( String s )
+	{
+		Integer index = poolIndex.get( "U" + s );
+		if ( index != null )
+		{
+			return index;
+		}
+		try
+		{
+			DataOutputStream out = new DataOutputStream( pool );
+			out.writeByte( 1 );
+			out.writeUTF( s );
+		}
+		catch ( IOException ex )
+		{
+			throw new IllegalStateException( ex );
+		}
+		poolIndex.put( "U" + s, poolCount );
+		return poolCount++;
+	}
+
+	private int classRef( String name )
+	{
+		int nameIndex = utf8( name );
+		Integer index = poolIndex.get( "C" + name );
+		if ( index != null )
+		{
+			return index;
+		}
+		writeShort( pool, 7, nameIndex );
+		poolIndex.put( "C" + name, poolCount );
+		return poolCount++;
+	}
+
+	private int methodRef( String owner, String name, String descriptor )
+	{
+		int cls = classRef( owner );
+		int nameAndType = constant( "N" + name + descriptor, 12, ( utf8( name ) << 16 ) | utf8( descriptor ) );
+		return constant( "M" + owner + "." + name + descriptor, 10, ( cls << 16 ) | nameAndType );
+	}
+
+	private int fieldRef( String owner, String name, String descriptor )
+	{
+		int cls = classRef( owner );
+		int nameAndType = constant( "N" + name + descriptor, 12, ( utf8( name ) << 16 ) | utf8( descriptor ) );
+		return constant( "F" + owner + "." + name + descriptor, 9, ( cls << 16 ) | nameAndType );
+	}
+
+    /**
+     * Adds a 4-byte constant pool entry: an Integer, or a pair of u2 indices.
+     */
+	private int constant( String key, int tag, int val )
+	{
+		Integer index = poolIndex.get( key );
+		if ( index != null )
+		{
+			return index;
+		}
+		pool.write( tag );
+		pool.write( val >> 24 );
+		pool.write( val >> 16 );
+		pool.write( val >> 8 );
+		pool.write( val );
+		poolIndex.put( key, poolCount );
+		return poolCount++;
+	}
+
+	/* CLASS FILE */
+
+	private byte[] toClassFile() throws IOException
+	{
+		// Everything the pool needs has to be added before it is written out
+		int thisClass = classRef( NAME );
+		int superClass = classRef( SUPER );
+		int init = utf8( "<init>" );
+		int initType = utf8( "()V" );
+		int superInit = methodRef( SUPER, "<init>", "()V" );
+		int execute = utf8( "execute" );
+		int executeType = utf8( "(L" + CPU + ";)I" );
+		int codeAttr = utf8( "Code" );
+		int frames = branchTargets.isEmpty() ? 0 : utf8( "StackMapTable" );
+		int cpuClass = classRef( CPU );
+		int stateClass = classRef( STATE );
+		int memoryClass = classRef( MEMORY );
+		int pageClass = classRef( "[B" );
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( bytes );
+		out.writeInt( 0xcafebabe );
+		out.writeShort( 0 );
+		out.writeShort( 52 );          // Java 8 class file
+		out.writeShort( poolCount );
+		pool.writeTo( out );
+		out.writeShort( 0x0030 );      // ACC_FINAL | ACC_SUPER
+		out.writeShort( thisClass );
+		out.writeShort( superClass );
+		out.writeShort( 0 );           // Interfaces
+		out.writeShort( 0 );           // Fields
+		out.writeShort( 2 );           // Methods
+
+		// <init>: super();
+		ByteArrayOutputStream initCode = new ByteArrayOutputStream();
+		initCode.write( ALOAD_0 );
+		writeShort( initCode, INVOKESPECIAL, superInit );
+		initCode.write( RETURN );
+		writeMethod( out, init, initType, codeAttr, 1, 1, initCode.toByteArray(), 0, null );
+
+		// int execute( Cpu cpu )
+		byte[] stackMap = null;
+		if ( !branchTargets.isEmpty() )
+		{
+			// Every branch target comes after the prologue and has the same
+			// frame: ( unused, cpu, state, memory, addr, val, page ), empty stack
+			ByteArrayOutputStream map = new ByteArrayOutputStream();
+			DataOutputStream mapOut = new DataOutputStream( map );
+			mapOut.writeShort( branchTargets.size() );
+			int previous = -1;
+			for ( int target : branchTargets )
+			{
+				int delta = target - previous - 1;
+				if ( previous < 0 )
+				{
+					mapOut.writeByte( 255 );   // full_frame
+					mapOut.writeShort( delta );
+					mapOut.writeShort( MAX_LOCALS );
+					mapOut.writeByte( 0 );     // Top: this is never used again
+					writeObjectType( mapOut, cpuClass );
+					writeObjectType( mapOut, stateClass );
+					writeObjectType( mapOut, memoryClass );
+					mapOut.writeByte( 1 );     // Integer
+					mapOut.writeByte( 1 );
+					writeObjectType( mapOut, pageClass );
+					mapOut.writeShort( 0 );    // Stack
+				}
+				else
+				{
+					mapOut.writeByte( 251 );   // same_frame_extended
+					mapOut.writeShort( delta );
+				}
+				previous = target;
+			}
+			stackMap = map.toByteArray();
+		}
+		writeMethod( out, execute, executeType, codeAttr, MAX_STACK, MAX_LOCALS, code.toByteArray(), frames,
+				stackMap );
+
+		out.writeShort( 0 );           // Attributes
+		return bytes.toByteArray();
+	}
+
+	private static void writeObjectType( DataOutputStream out, int classIndex ) throws IOException
+	{
+		out.writeByte( 7 );            // Object_variable_info
+		out.writeShort( classIndex );
+	}
+
+	private static void writeMethod( DataOutputStream out, int name, int descriptor, int codeAttr,
+			int maxStack, int maxLocals, byte[] body, int framesAttr, byte[] frames ) throws IOException
+	{
+		out.writeShort( 0x0001 );      // ACC_PUBLIC
+		out.writeShort( name );
+		out.writeShort( descriptor );
+		out.writeShort( 1 );           // Code attribute
+
+		int framesLength = frames == null ? 0 : 6 + frames.length;
+		out.writeShort( codeAttr );
+		out.writeInt( 12 + body.length + framesLength );
+		out.writeShort( maxStack );
+		out.writeShort( maxLocals );
+		out.writeInt( body.length );
+		out.write( body );
+		out.writeShort( 0 );           // Exception table
+		if ( frames == null )
+		{
+			out.writeShort( 0 );
+		}
+		else
+		{
+			out.writeShort( 1 );
+			out.writeShort( framesAttr );
+			out.writeInt( frames.length );
+			out.write( frames );
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.twistdroach.sixty502;
+
+/**
+ * BufferMemory.java
+ * Memory kept in a ByteBuffer rather than on the Java heap. A direct
+ * buffer puts the 64 KB off heap, where the garbage collector never
+ * scans or moves it and native code can share it.
+ *
+ * The buffer is mapped into the page table as a device, so the page
+ * table works as it does for Memory, at the cost of a call per access.
+ * A buffer can't share pages, so snapshots copy all 64 KB.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.nio.ByteBuffer;
+
+public class BufferMemory extends Memory
+{
+    private ByteBuffer theBuffer;
+    /* Serves RAM pages out of the buffer */
+    private MemoryDevice ram = new MemoryDevice()
+    {
+        public int read( int addr )
+        {
+            return theBuffer.get( addr ) & 0xff;
+        }
+
+        public void write( int addr, int val )
+        {
+            theBuffer.put( addr, (byte) val );
+        }
+    };
+
+    /**
+     * Creates 64 KB of zeroed memory off heap.
+     */
+    public BufferMemory()
+    {
+        this( ByteBuffer.allocateDirect( SIZE ) );
+    }
+
+    /**
+     * Creates memory on an existing buffer. Reads and writes go straight
+     * through, so the buffer and the memory always agree.
+     *
+     * @param buffer The buffer, at least 64 KB. Address 0 is at index 0
+     *               regardless of the buffer's position.
+     */
+    public BufferMemory( ByteBuffer buffer )
+    {
+        super( false );
+        if ( buffer.capacity() < SIZE )
+        {
+            throw new IllegalArgumentException( "Buffer holds " + buffer.capacity() + " bytes, memory needs " + SIZE );
+        }
+        theBuffer = buffer;
+        mapRam( 0, 256 );
+    }
+
+    /**
+     * Maps pages back to the buffer at the same addresses.
+     */
+    @Override
+    public void mapRam( int page, int count )
+    {
+        mapDevice( page, count, ram );
+    }
+
+    /**
+     * Copies the buffer into a snapshot.
+     */
+    @Override
+    public MemorySnapshot snapshot()
+    {
+        byte[][] pages = new byte[256][256];
+        for ( int page = 0; page < 256; ++page )
+        {
+            theBuffer.get( page << 8, pages[ page ] );
+        }
+        return new MemorySnapshot( pages );
+    }
+
+    /**
+     * Copies a snapshot back into the buffer.
+     */
+    @Override
+    public void restore( MemorySnapshot snapshot )
+    {
+        byte[][] pages = snapshot.getPages();
+        for ( int page = 0; page < 256; ++page )
+        {
+            theBuffer.put( page << 8, pages[ page ] );
+            remapped( page );
+        }
+    }
+
+    /**
+     * Copies an image into the buffer, which can't share its pages.
+     */
+    @Override
+    public void load( int page, RomImage image )
+    {
+        checkPages( page, image.getPageCount() );
+        for ( int i = 0; i < image.getPageCount(); ++i )
+        {
+            theBuffer.put( ( page + i ) << 8, image.getPage( i ) );
+            replaced( page + i );
+        }
+    }
+
+    @Override
+    public int getDirtyPageCount()
+    {
+        return 0;
+    }
+
+    /**
+     * Returns the buffer the memory lives in.
+     */
+    public ByteBuffer getBuffer()
+    {
+        return theBuffer;
+    }
+}
@@ -0,0 +1,138 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Cartridge.java
+ * A NES cartridge loaded from an iNES image: the PRG ROM the CPU runs,
+ * the CHR ROM for the PPU, and the number of the mapper that switches
+ * PRG banks into the CPU's address space. The PRG ROM is a RomImage,
+ * held once however many machines the cartridge is inserted into.
+ *
+ * Usage:
+ *   Cartridge game.nes
+ *
+ * prints what the header says.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class Cartridge
+{
+    public static final int HEADER_SIZE = 16;
+    public static final int TRAINER_SIZE = 512;
+    public static final int PRG_BANK_SIZE = 0x4000;
+    public static final int CHR_BANK_SIZE = 0x2000;
+    /* "NES" and an MS-DOS end of file */
+    private static final byte[] MAGIC = { 'N', 'E', 'S', 0x1a };
+
+    private RomImage prg;
+    private byte[] chr;
+    private int mapperNumber;
+    private boolean battery;
+
+    /**
+     * Reads an iNES image.
+     *
+     * @param image The whole file.
+     * @throws IllegalArgumentException If it isn't an iNES image or is cut short.
+     */
+    public Cartridge( byte[] image )
+    {
+        if ( image.length < HEADER_SIZE || !Arrays.equals( Arrays.copyOf( image, 4 ), MAGIC ) )
+        {
+            throw new IllegalArgumentException( "Not an iNES image" );
+        }
+        int prgSize = ( image[4] & 0xff ) * PRG_BANK_SIZE;
+        int chrSize = ( image[5] & 0xff ) * CHR_BANK_SIZE;
+        mapperNumber = ( image[7] & 0xf0 ) | ( ( image[6] & 0xf0 ) >> 4 );
+        battery = ( image[6] & 0x02 ) != 0;
+        // A trainer is copied to $7000 by some copiers, nothing here needs it
+        int start = HEADER_SIZE + ( ( image[6] & 0x04 ) != 0 ? TRAINER_SIZE : 0 );
+        if ( prgSize == 0 || image.length < start + prgSize + chrSize )
+        {
+            throw new IllegalArgumentException( "iNES image holds " + image.length + " bytes, header says "
+                    + ( start + prgSize + chrSize ) );
+        }
+        prg = new RomImage( image, start, prgSize );
+        chr = Arrays.copyOfRange( image, start + prgSize, start + prgSize + chrSize );
+    }
+
+    /**
+     * Reads an iNES file.
+     *
+     * @param fileName Location of the file.
+     */
+    public static Cartridge load( String fileName ) throws IOException
+    {
+        return new Cartridge( Files.readAllBytes( Paths.get( fileName ) ) );
+    }
+
+    /**
+     * Sets memory up as a NES with this cartridge in it: the 2 KB of RAM
+     * at $0000 is mirrored up to $1FFF, and a new mapper switches PRG ROM
+     * into $8000-$FFFF. $6000-$7FFF stays RAM, for boards with PRG RAM.
+     * Reset the Cpu afterwards to start the game.
+     *
+     * @param memory The machine's memory.
+     * @return The mapper, which belongs to this machine alone.
+     */
+    public Mapper insert( Memory memory )
+    {
+        for ( int page = 0x08; page < 0x20; page += 0x08 )
+        {
+            memory.mirror( page, 0x08, 0x00 );
+        }
+        Mapper mapper = Mapper.create( this );
+        mapper.attach( memory );
+        return mapper;
+    }
+
+    /**
+     * Returns the PRG ROM, shared by every machine the cartridge is in.
+     */
+    public RomImage getPrg()
+    {
+        return prg;
+    }
+
+    public int getPrgSize()
+    {
+        return prg.getSize();
+    }
+
+    public int getChrSize()
+    {
+        return chr.length;
+    }
+
+    public int getMapperNumber()
+    {
+        return mapperNumber;
+    }
+
+    /**
+     * Returns true if the board's PRG RAM is kept by a battery.
+     */
+    public boolean hasBattery()
+    {
+        return battery;
+    }
+
+    public static void main( String[] args ) throws IOException
+    {
+        if ( args.length < 1 )
+        {
+            System.out.println( "Usage: Cartridge game.nes" );
+            return;
+        }
+        Cartridge cartridge = load( args[0] );
+        System.out.println( "Mapper " + cartridge.getMapperNumber()
+                + ", PRG " + cartridge.getPrgSize() / 1024 + " KB"
+                + ", CHR " + cartridge.getChrSize() / 1024 + " KB"
+                + ( cartridge.hasBattery() ? ", battery" : "" ) );
+    }
+}
@@ -0,0 +1,212 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Clock.java
+ * Drives a Machine by its cycle counter, either paced to a real clock
+ * rate ( throttled ) or as fast as the host allows ( turbo ).
+ *
+ * Throttled runs execute a slice of cycles, then park until the wall
+ * clock catches up with the emulated one. Deadlines are worked out from
+ * the start of the run rather than from the last sleep, so oversleeping
+ * in one slice is made up in the next instead of adding up as drift.
+ *
+ * Usage:
+ *   Clock [-turbo] [-hz rate] [-cycles n] [-ram image] [-state states.sav] file.asm
+ *
+ * With -ram, memory is mapped onto the image file, so it starts out with
+ * what the last run left there and keeps what this one writes.
+ *
+ * With -state, the run resumes from the newest state in a save-state file,
+ * if there is one, and appends the state it ends in to the file.
+ *
+ * The machine is registered over JMX while it runs, see MachineMonitor.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.LockSupport;
+
+public class Clock
+{
+    /* Clock rates of the NES' 2A03 */
+    public static final double NTSC_HZ = 1789773.0;
+    public static final double PAL_HZ = 1662607.0;
+    /* Emulated time run between sleeps */
+    private static final long SLICE_NANOS = 1000000L;
+    /* Falling further behind than this drops the lost time instead of racing to catch up */
+    private static final long MAX_LAG_NANOS = 50000000L;
+
+    private Machine theMachine;
+    private double hz;
+    /* Last run, for getEffectiveMHz */
+    private long lastCycles;
+    private long lastNanos;
+    private StopReason lastReason;
+
+    /**
+     * Creates an NTSC clock.
+     *
+     * @param machine The machine to drive.
+     */
+    public Clock( Machine machine )
+    {
+        this( machine, NTSC_HZ );
+    }
+
+    /**
+     * Creates a clock.
+     *
+     * @param machine The machine to drive.
+     * @param clockHz Target clock rate in cycles per second.
+     */
+    public Clock( Machine machine, double clockHz )
+    {
+        theMachine = machine;
+        hz = clockHz;
+    }
+
+    /**
+     * Runs at the target clock rate until the program stops or a number of cycles have run.
+     *
+     * @param cycles Number of cycles to run for.
+     * @return Number of cycles executed.
+     */
+    public long runThrottled( long cycles )
+    {
+        CpuState state = theMachine.getState();
+        long slice = Math.max( 1, (long) ( hz * SLICE_NANOS / 1e9 ) );
+        long startCycles = state.getCycles();
+        long start = System.nanoTime();
+        long baseCycles = startCycles;
+        long baseNanos = start;
+        StopReason reason = StopReason.BUDGET_EXHAUSTED;
+        while ( reason == StopReason.BUDGET_EXHAUSTED && state.getCycles() - startCycles < cycles )
+        {
+            reason = theMachine.runCycles( Math.min( slice, cycles - ( state.getCycles() - startCycles ) ) );
+
+            // When the wall clock should reach the cycles run so far
+            long due = baseNanos + (long) ( ( state.getCycles() - baseCycles ) * 1e9 / hz );
+            long now = System.nanoTime();
+            if ( due > now )
+            {
+                LockSupport.parkNanos( due - now );
+            }
+            else if ( now - due > MAX_LAG_NANOS )
+            {
+                // Stalled ( e.g. by GC or a slow host ), start a new timeline from here
+                baseCycles = state.getCycles();
+                baseNanos = now;
+            }
+        }
+        return record( state.getCycles() - startCycles, System.nanoTime() - start, reason );
+    }
+
+    /**
+     * Runs flat out until the program stops or a number of cycles have run.
+     *
+     * @param cycles Number of cycles to run for.
+     * @return Number of cycles executed.
+     */
+    public long runTurbo( long cycles )
+    {
+        CpuState state = theMachine.getState();
+        long startCycles = state.getCycles();
+        long start = System.nanoTime();
+        StopReason reason = theMachine.runCycles( cycles );
+        return record( state.getCycles() - startCycles, System.nanoTime() - start, reason );
+    }
+
+    private long record( long cycles, long nanos, StopReason reason )
+    {
+        lastCycles = cycles;
+        lastNanos = nanos;
+        lastReason = reason;
+        return cycles;
+    }
+
+    /**
+     * Returns why the last run stopped.
+     */
+    public StopReason getStopReason()
+    {
+        return lastReason;
+    }
+
+    /**
+     * Returns the clock rate the last run actually achieved.
+     *
+     * @return Cycles per microsecond of wall time.
+     */
+    public double getEffectiveMHz()
+    {
+        return lastNanos == 0 ? 0 : lastCycles * 1e3 / lastNanos;
+    }
+
+    public double getHz()
+    {
+        return hz;
+    }
+
+    /**
+     * Runs a program throttled ( NTSC by default ) or in turbo mode and
+     * prints the effective clock rate.
+     *
+     * @param args See the class comment.
+     * @throws IOException If the RAM image or save states can't be read or written.
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        boolean turbo = false;
+        double clockHz = NTSC_HZ;
+        long cycles = Long.MAX_VALUE;
+        String file = null;
+        String ram = null;
+        String states = null;
+        for ( int i = 0; i < args.length; ++i )
+        {
+            if ( args[i].equals( "-turbo" ) )
+                turbo = true;
+            else if ( args[i].equals( "-hz" ) && i + 1 < args.length )
+                clockHz = Double.parseDouble( args[++i] );
+            else if ( args[i].equals( "-cycles" ) && i + 1 < args.length )
+                cycles = Long.parseLong( args[++i] );
+            else if ( args[i].equals( "-ram" ) && i + 1 < args.length )
+                ram = args[++i];
+            else if ( args[i].equals( "-state" ) && i + 1 < args.length )
+                states = args[++i];
+            else
+                file = args[i];
+        }
+        if ( file == null )
+        {
+            System.out.println( "Usage: Clock [-turbo] [-hz rate] [-cycles n] [-ram image] [-state states.sav] file.asm" );
+            return;
+        }
+
+        Memory memory = ram == null ? new Memory() : new MappedMemory( Paths.get( ram ) );
+        Machine machine = new Machine( new Program( file ), memory );
+        if ( states != null && Files.exists( Paths.get( states ) ) )
+        {
+            MachineSnapshot latest = new SaveStateReader( states ).getLatest();
+            if ( latest != null )
+                machine.restore( latest );
+        }
+        MachineMonitor monitor = MachineMonitor.register( machine, file );
+        Clock clock = new Clock( machine, clockHz );
+        long ran = turbo ? clock.runTurbo( cycles ) : clock.runThrottled( cycles );
+        monitor.unregister();
+        if ( memory instanceof MappedMemory )
+            ( (MappedMemory) memory ).force();
+        if ( states != null )
+        {
+            SaveStateWriter writer = new SaveStateWriter( states, true );
+            writer.append( machine.snapshot() );
+            writer.close();
+        }
+        System.out.println( "Ran " + ran + " cycles in " + String.format( "%.1f ms, effective %.3f MHz",
+                clock.lastNanos / 1e6, clock.getEffectiveMHz() ) + ", stopped by " + clock.getStopReason() );
+    }
+}
@@ -0,0 +1,34 @@
+package com.twistdroach.sixty502;
+
+/**
+ * CompiledBlock.java
+ * A basic block of 6502 code translated to JVM bytecode by BlockCompiler.
+ * Generated subclasses work on the CpuState's fields directly with the
+ * operands baked in as constants, so HotSpot compiles the whole block as
+ * one method.
+ *
+ * @author Christopher Erickson
+ */
+
+abstract class CompiledBlock
+{
+	/* Address range of the 6502 code this block was translated from */
+	int start;
+	int end;
+
+    /**
+     * Runs the block. Leaves the PC at the next instruction to execute.
+     *
+     * @param cpu The processor whose state the block operates on.
+     * @return Number of 6502 instructions executed.
+     */
+	abstract int execute( Cpu cpu );
+
+    /**
+     * Returns true if the block was translated from the given address.
+     */
+	boolean covers( int addr )
+	{
+		return addr >= start && addr < end;
+	}
+}
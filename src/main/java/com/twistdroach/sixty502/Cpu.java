@@ -0,0 +1,894 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Cpu.java
+ * Executes assembled 6502 machine code straight out of Memory.
+ * Unlike Processor, which steps through the lines of a parsed Program,
+ * the PC here is a real 16-bit address, so ROM images and assembled
+ * binaries run unchanged.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class Cpu
+{
+    /* Status bit masks */
+    private static final int V = CpuState.V;
+    private static final int U = CpuState.U;
+    private static final int B = CpuState.B;
+    private static final int D = CpuState.D;
+    private static final int I = CpuState.I;
+    /* Interrupt vectors */
+    public static final int NMI_VECTOR = 0xfffa;
+    public static final int RESET_VECTOR = 0xfffc;
+    public static final int IRQ_VECTOR = 0xfffe;
+    /* Stack location */
+    private static final int STACK = 0x0100;
+    /* Registers */
+    private CpuState state;
+    /* Memory */
+    private Memory theMemory;
+    /* Translator for hot code, if any */
+    private Recompiler recompiler;
+    private boolean codeWritten;
+    /* Unofficial opcodes run as NOPs */
+    private long unofficialCount;
+
+    /**
+     * Creates a processor that executes code out of the given memory.
+     *
+     * @param memory The address space to fetch from and operate on.
+     */
+    public Cpu( Memory memory )
+    {
+        this( memory, new CpuState() );
+        state.sp = 0xfd;
+        state.setP( U | I );
+    }
+
+    /**
+     * Creates a processor that runs on existing register state.
+     *
+     * @param memory The address space to fetch from and operate on.
+     * @param cpuState The registers to operate on.
+     */
+    public Cpu( Memory memory, CpuState cpuState )
+    {
+        theMemory = memory;
+        state = cpuState;
+        // Cpus created before a recording enables throughput aren't sampled
+        if ( RecorderState.throughput )
+            ThroughputEvent.register( state );
+    }
+
+    /**
+     * Loads a binary image and runs it until it hits a BRK.
+     * Hot code is compiled to bytecode as it runs.
+     *
+     * @param args Image file, then optionally the load address in hex ( default $0600 ).
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        if ( args.length < 1 )
+        {
+            System.out.println( "Usage: Cpu <image> [origin]" );
+            return;
+        }
+        int origin = args.length > 1 ? Parser.getOperandValue( args[1] ) : 0x0600;
+
+        Memory memory = new Memory();
+        memory.load( origin, Files.readAllBytes( Paths.get( args[0] ) ) );
+
+        Cpu cpu = new Cpu( memory );
+        Recompiler jit = new Recompiler( cpu );
+        cpu.setPC( origin );
+        long count = 0;
+        while ( memory.read( cpu.getPC() ) != 0x00 )
+        {
+            count += jit.execute();
+        }
+        System.out.println( "Executed " + count + " instructions" );
+        if ( cpu.getUnofficialCount() > 0 )
+        {
+            System.out.println( "Ran " + cpu.getUnofficialCount() + " unofficial opcodes as NOPs" );
+        }
+        cpu.printAllRegisters();
+    }
+
+    /**
+     * Resets the processor and jumps through the reset vector.
+     */
+    public void reset()
+    {
+        int from = state.pc;
+        state.sp = ( state.sp - 3 ) & 0xff;
+        state.p |= I;
+        state.pc = theMemory.readWord( RESET_VECTOR );
+        state.cycles += 7;
+        InterruptEvent.emit( "RESET", from, state.pc, state );
+    }
+
+    /**
+     * Requests a maskable interrupt. Ignored while the I flag is set.
+     */
+    public void irq()
+    {
+        if ( ( state.p & I ) == 0 )
+        {
+            state.cycles += 7;
+            interrupt( IRQ_VECTOR, false );
+        }
+    }
+
+    /**
+     * Requests a non-maskable interrupt.
+     */
+    public void nmi()
+    {
+        state.cycles += 7;
+        interrupt( NMI_VECTOR, false );
+    }
+
+    /**
+     * Fetches, decodes and executes the instruction at the PC.
+     */
+    public void step()
+    {
+        int opcode = theMemory.fetch( state.pc );
+        state.pc = ( state.pc + 1 ) & 0xffff;
+
+        Opcode op = OpcodeTable.getOpcode( opcode );
+        if ( op == null )
+        {
+            // Treat anything unofficial as a one byte, two cycle NOP
+            state.cycles += 2;
+            state.instructions++;
+            unofficialCount++;
+            return;
+        }
+        state.cycles += OpcodeTable.getCycles( opcode );
+        state.instructions++;
+        AddressingMode mode = OpcodeTable.getMode( opcode );
+        int addr = getAddress( mode, OpcodeTable.hasPagePenalty( opcode ) );
+
+        switch ( op )
+        {
+        case ADC: adc( addr ); break;
+        case AND: and( addr ); break;
+        case ASL: asl( addr ); break;
+        case BCC: bcc( addr ); break;
+        case BCS: bcs( addr ); break;
+        case BEQ: beq( addr ); break;
+        case BIT: bit( addr ); break;
+        case BMI: bmi( addr ); break;
+        case BNE: bne( addr ); break;
+        case BPL: bpl( addr ); break;
+        case BRK: brk(); break;
+        case BVC: bvc( addr ); break;
+        case BVS: bvs( addr ); break;
+        case CLC: clc(); break;
+        case CLD: cld(); break;
+        case CLI: cli(); break;
+        case CLV: clv(); break;
+        case CMP: cmp( addr ); break;
+        case CPX: cpx( addr ); break;
+        case CPY: cpy( addr ); break;
+        case DEC: dec( addr ); break;
+        case DEX: dex(); break;
+        case DEY: dey(); break;
+        case EOR: eor( addr ); break;
+        case INC: inc( addr ); break;
+        case INX: inx(); break;
+        case INY: iny(); break;
+        case JMP: jmp( addr ); break;
+        case JSR: jsr( addr ); break;
+        case LDA: lda( addr ); break;
+        case LDX: ldx( addr ); break;
+        case LDY: ldy( addr ); break;
+        case LSR: lsr( addr ); break;
+        case NOP: nop(); break;
+        case ORA: ora( addr ); break;
+        case PHA: pha(); break;
+        case PHP: php(); break;
+        case PLA: pla(); break;
+        case PLP: plp(); break;
+        case ROL: rol( addr ); break;
+        case ROR: ror( addr ); break;
+        case RTI: rti(); break;
+        case RTS: rts(); break;
+        case SBC: sbc( addr ); break;
+        case SEC: sec(); break;
+        case SED: sed(); break;
+        case SEI: sei(); break;
+        case STA: sta( addr ); break;
+        case STX: stx( addr ); break;
+        case STY: sty( addr ); break;
+        case TAX: tax(); break;
+        case TAY: tay(); break;
+        case TSX: tsx(); break;
+        case TXA: txa(); break;
+        case TXS: txs(); break;
+        case TYA: tya(); break;
+        }
+    }
+
+    /**
+     * Works out the effective address of the current instruction's operand
+     * and advances the PC past it.
+     *
+     * @param mode Addressing mode of the current instruction.
+     * @param penalty True if crossing a page costs the instruction a cycle.
+     * @return The effective address, or -1 for implied and accumulator modes.
+     */
+    private int getAddress( AddressingMode mode, boolean penalty )
+    {
+        int addr;
+        switch ( mode )
+        {
+        case IMMEDIATE:
+            addr = state.pc;
+            state.pc = ( state.pc + 1 ) & 0xffff;
+            return addr;
+        case ZERO_PAGE:
+            return fetch();
+        case ZERO_PAGE_X:
+            return zeroPageX( fetch() );
+        case ZERO_PAGE_Y:
+            return zeroPageY( fetch() );
+        case ABSOLUTE:
+            return fetchWord();
+        case ABSOLUTE_X:
+            return penalty ? absoluteXRead( fetchWord() ) : absoluteX( fetchWord() );
+        case ABSOLUTE_Y:
+            return penalty ? absoluteYRead( fetchWord() ) : absoluteY( fetchWord() );
+        case INDIRECT:
+            return indirect( fetchWord() );
+        case INDEXED_INDIRECT:
+            return indexedIndirect( fetch() );
+        case INDIRECT_INDEXED:
+            return penalty ? indirectIndexedRead( fetch() ) : indirectIndexed( fetch() );
+        case RELATIVE:
+            addr = (byte) fetch();
+            return ( state.pc + addr ) & 0xffff;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the byte at the PC and advances past it.
+     */
+    private int fetch()
+    {
+        int val = theMemory.read( state.pc );
+        state.pc = ( state.pc + 1 ) & 0xffff;
+        return val;
+    }
+
+    /**
+     * Reads the little-endian Word at the PC and advances past it.
+     */
+    private int fetchWord()
+    {
+        int low = fetch();
+        return ( fetch() << 8 ) | low;
+    }
+
+    /* ADDRESSING MODES */
+    /* Shared with compiled blocks, which resolve the constant part of the operand ahead of time */
+
+    int zeroPageX( int base )
+    {
+        return ( base + state.x ) & 0xff;
+    }
+
+    int zeroPageY( int base )
+    {
+        return ( base + state.y ) & 0xff;
+    }
+
+    int absoluteX( int base )
+    {
+        return ( base + state.x ) & 0xffff;
+    }
+
+    int absoluteY( int base )
+    {
+        return ( base + state.y ) & 0xffff;
+    }
+
+    /* Reads take an extra cycle when indexing crosses a page */
+
+    int absoluteXRead( int base )
+    {
+        return pageCrossed( base, absoluteX( base ) );
+    }
+
+    int absoluteYRead( int base )
+    {
+        return pageCrossed( base, absoluteY( base ) );
+    }
+
+    int indirectIndexedRead( int pointer )
+    {
+        int addr = indirectIndexed( pointer );
+        return pageCrossed( ( addr - state.y ) & 0xffff, addr );
+    }
+
+    private int pageCrossed( int base, int addr )
+    {
+        if ( ( ( base ^ addr ) & 0xff00 ) != 0 )
+            state.cycles++;
+        return addr;
+    }
+
+    /**
+     * JMP ( $nnnn ). The high byte doesn't carry into the next page.
+     */
+    int indirect( int pointer )
+    {
+        return theMemory.readWordInPage( pointer );
+    }
+
+    /**
+     * ( $nn, x )
+     */
+    int indexedIndirect( int base )
+    {
+        return theMemory.readZeroPageWord( base + state.x );
+    }
+
+    /**
+     * ( $nn ), y
+     */
+    int indirectIndexed( int pointer )
+    {
+        int addr = theMemory.readZeroPageWord( pointer );
+        return ( addr + state.y ) & 0xffff;
+    }
+
+    /* OPCODE IMPLEMENTATION */
+    /* Each takes the effective address worked out by getAddress ( -1 means the accumulator ). */
+    /* The PC already points at the next instruction. */
+
+    /**
+     * Add with Carry, in decimal mode if D is set
+     */
+    void adc( int addr )
+    {
+        state.adc( theMemory.read( addr ) );
+    }
+
+    /**
+     * Bitwise AND
+     */
+    void and( int addr )
+    {
+        state.setNZ( state.a &= theMemory.read( addr ) );
+    }
+
+    /**
+     * Arithmetic Shift Left
+     */
+    void asl( int addr )
+    {
+        writeOperand( addr, state.asl( readOperand( addr ) ) );
+    }
+
+    /**
+     * Branch on Carry Clear
+     */
+    void bcc( int target )
+    {
+        if ( state.carry == 0 )
+            branch( target );
+    }
+
+    /**
+     * Branch on Carry Set
+     */
+    void bcs( int target )
+    {
+        if ( state.carry != 0 )
+            branch( target );
+    }
+
+    /**
+     * Branch on Equal
+     */
+    void beq( int target )
+    {
+        if ( ( state.nz & 0xff ) == 0 )
+            branch( target );
+    }
+
+    /**
+     * Test Bits
+     */
+    void bit( int addr )
+    {
+        state.bit( theMemory.read( addr ) );
+    }
+
+    /**
+     * Branch on Minus
+     */
+    void bmi( int target )
+    {
+        if ( ( state.nz & 0x180 ) != 0 )
+            branch( target );
+    }
+
+    /**
+     * Branch on Not Equal
+     */
+    void bne( int target )
+    {
+        if ( ( state.nz & 0xff ) != 0 )
+            branch( target );
+    }
+
+    /**
+     * Branch on Plus
+     */
+    void bpl( int target )
+    {
+        if ( ( state.nz & 0x180 ) == 0 )
+            branch( target );
+    }
+
+    /**
+     * Break. Skips the padding byte and interrupts through the IRQ vector.
+     */
+    void brk()
+    {
+        state.pc = ( state.pc + 1 ) & 0xffff;
+        interrupt( IRQ_VECTOR, true );
+    }
+
+    /**
+     * Branch on Overflow Clear
+     */
+    void bvc( int target )
+    {
+        if ( ( state.p & V ) == 0 )
+            branch( target );
+    }
+
+    /**
+     * Branch on Overflow Set
+     */
+    void bvs( int target )
+    {
+        if ( ( state.p & V ) != 0 )
+            branch( target );
+    }
+
+    void clc()
+    {
+        state.carry = 0;
+    }
+
+    void cld()
+    {
+        state.p &= ~D;
+    }
+
+    void cli()
+    {
+        state.p &= ~I;
+    }
+
+    void clv()
+    {
+        state.p &= ~V;
+    }
+
+    void cmp( int addr )
+    {
+        state.compare( state.a, theMemory.read( addr ) );
+    }
+
+    void cpx( int addr )
+    {
+        state.compare( state.x, theMemory.read( addr ) );
+    }
+
+    void cpy( int addr )
+    {
+        state.compare( state.y, theMemory.read( addr ) );
+    }
+
+    void dec( int addr )
+    {
+        write( addr, state.setNZ( ( theMemory.read( addr ) - 1 ) & 0xff ) );
+    }
+
+    void dex()
+    {
+        state.setNZ( state.x = ( state.x - 1 ) & 0xff );
+    }
+
+    void dey()
+    {
+        state.setNZ( state.y = ( state.y - 1 ) & 0xff );
+    }
+
+    void eor( int addr )
+    {
+        state.setNZ( state.a ^= theMemory.read( addr ) );
+    }
+
+    void inc( int addr )
+    {
+        write( addr, state.setNZ( ( theMemory.read( addr ) + 1 ) & 0xff ) );
+    }
+
+    void inx()
+    {
+        state.setNZ( state.x = ( state.x + 1 ) & 0xff );
+    }
+
+    void iny()
+    {
+        state.setNZ( state.y = ( state.y + 1 ) & 0xff );
+    }
+
+    void jmp( int addr )
+    {
+        state.pc = addr;
+    }
+
+    /**
+     * Jump to Subroutine. Pushes the address of the last byte of the JSR.
+     */
+    void jsr( int addr )
+    {
+        pushWord( state.pc - 1 );
+        state.pc = addr;
+    }
+
+    void lda( int addr )
+    {
+        state.setNZ( state.a = theMemory.read( addr ) );
+    }
+
+    void ldx( int addr )
+    {
+        state.setNZ( state.x = theMemory.read( addr ) );
+    }
+
+    void ldy( int addr )
+    {
+        state.setNZ( state.y = theMemory.read( addr ) );
+    }
+
+    /**
+     * Logical Shift Right
+     */
+    void lsr( int addr )
+    {
+        writeOperand( addr, state.lsr( readOperand( addr ) ) );
+    }
+
+    void nop()
+    {
+        // No opcode! Do nothing :)
+    }
+
+    void ora( int addr )
+    {
+        state.setNZ( state.a |= theMemory.read( addr ) );
+    }
+
+    void pha()
+    {
+        push( state.a );
+    }
+
+    /**
+     * Push Processor Status. The pushed copy always has B set.
+     */
+    void php()
+    {
+        push( state.getP() | B | U );
+    }
+
+    void pla()
+    {
+        state.setNZ( state.a = pull() );
+    }
+
+    void plp()
+    {
+        state.setP( ( pull() & ~B ) | U );
+    }
+
+    /**
+     * Rotate Left
+     */
+    void rol( int addr )
+    {
+        writeOperand( addr, state.rol( readOperand( addr ) ) );
+    }
+
+    /**
+     * Rotate Right
+     */
+    void ror( int addr )
+    {
+        writeOperand( addr, state.ror( readOperand( addr ) ) );
+    }
+
+    /**
+     * Return from Interrupt
+     */
+    void rti()
+    {
+        state.setP( ( pull() & ~B ) | U );
+        state.pc = pullWord();
+    }
+
+    /**
+     * Return from Subroutine
+     */
+    void rts()
+    {
+        state.pc = ( pullWord() + 1 ) & 0xffff;
+    }
+
+    /**
+     * Subtract with Carry, in decimal mode if D is set
+     */
+    void sbc( int addr )
+    {
+        state.sbc( theMemory.read( addr ) );
+    }
+
+    void sec()
+    {
+        state.carry = 1;
+    }
+
+    void sed()
+    {
+        state.p |= D;
+    }
+
+    void sei()
+    {
+        state.p |= I;
+    }
+
+    void sta( int addr )
+    {
+        write( addr, state.a );
+    }
+
+    void stx( int addr )
+    {
+        write( addr, state.x );
+    }
+
+    void sty( int addr )
+    {
+        write( addr, state.y );
+    }
+
+    void tax()
+    {
+        state.setNZ( state.x = state.a );
+    }
+
+    void tay()
+    {
+        state.setNZ( state.y = state.a );
+    }
+
+    void tsx()
+    {
+        state.setNZ( state.x = state.sp );
+    }
+
+    void txa()
+    {
+        state.setNZ( state.a = state.x );
+    }
+
+    void txs()
+    {
+        state.sp = state.x;
+    }
+
+    void tya()
+    {
+        state.setNZ( state.a = state.y );
+    }
+
+    /* HELPERS */
+
+    /**
+     * Reads the operand of a shift, which is either the accumulator or memory.
+     */
+    private int readOperand( int addr )
+    {
+        return addr < 0 ? state.a : theMemory.read( addr );
+    }
+
+    /**
+     * Writes the result of a shift back where its operand came from.
+     */
+    private void writeOperand( int addr, int val )
+    {
+        if ( addr < 0 )
+            state.a = val;
+        else
+            write( addr, val );
+    }
+
+    /**
+     * Writes a byte to memory, dropping any compiled code it overwrites.
+     */
+    void write( int addr, int val )
+    {
+        theMemory.write( addr, val );
+        if ( recompiler != null )
+        {
+            recompiler.written( addr );
+        }
+    }
+
+    /**
+     * Takes a branch: one extra cycle, two if the target is on another page.
+     */
+    private void branch( int target )
+    {
+        state.cycles += ( ( state.pc ^ target ) & 0xff00 ) != 0 ? 2 : 1;
+        state.pc = target;
+    }
+
+    /**
+     * Pushes the PC and status register, then jumps through a vector.
+     *
+     * @param vector Address of the interrupt vector.
+     * @param brk True if caused by a BRK instruction.
+     */
+    private void interrupt( int vector, boolean brk )
+    {
+        int from = state.pc;
+        pushWord( state.pc );
+        int status = state.getP();
+        push( brk ? ( status | B | U ) : ( ( status & ~B ) | U ) );
+        state.p |= I;
+        state.pc = theMemory.readWord( vector );
+        if ( vector == NMI_VECTOR )
+            InterruptEvent.emit( "NMI", from, state.pc, state );
+        else
+            InterruptEvent.emit( brk ? "BRK" : "IRQ", from, state.pc, state );
+    }
+
+    private void push( int val )
+    {
+        write( STACK | state.sp, val );
+        state.sp = ( state.sp - 1 ) & 0xff;
+    }
+
+    private int pull()
+    {
+        state.sp = ( state.sp + 1 ) & 0xff;
+        return theMemory.read( STACK | state.sp );
+    }
+
+    private void pushWord( int val )
+    {
+        push( ( val >> 8 ) & 0xff );
+        push( val & 0xff );
+    }
+
+    private int pullWord()
+    {
+        int low = pull();
+        return ( pull() << 8 ) | low;
+    }
+
+    /**
+     * Print the value of all registers, used for debugging.
+     */
+    public void printAllRegisters()
+    {
+        System.out.println( "-------------------------------------------------" );
+        System.out.println( "Status: " + CpuState.toBin( state.getP() ) + " " + CpuState.toHex( state.getP(), 2 ) );
+        System.out.println( "A:      " + CpuState.toBin( state.a ) + " " + CpuState.toHex( state.a, 2 ) );
+        System.out.println( "X:      " + CpuState.toBin( state.x ) + " " + CpuState.toHex( state.x, 2 ) );
+        System.out.println( "Y:      " + CpuState.toBin( state.y ) + " " + CpuState.toHex( state.y, 2 ) );
+        System.out.println( "SP:     " + CpuState.toHex( state.sp, 2 ) );
+        System.out.println( "PC:     " + CpuState.toHex( state.pc, 4 ) );
+        System.out.println( "-------------------------------------------------" );
+    }
+
+    public int getA()
+    {
+        return state.a;
+    }
+
+    public int getX()
+    {
+        return state.x;
+    }
+
+    public int getY()
+    {
+        return state.y;
+    }
+
+    public int getSP()
+    {
+        return state.sp;
+    }
+
+    public int getP()
+    {
+        return state.getP();
+    }
+
+    public int getPC()
+    {
+        return state.pc;
+    }
+
+    public CpuState getState()
+    {
+        return state;
+    }
+
+    public Memory getMemory()
+    {
+        return theMemory;
+    }
+
+    /**
+     * Returns the number of unofficial opcodes executed, each run as a one
+     * byte NOP. Anything but zero usually means the PC ran into data.
+     */
+    public long getUnofficialCount()
+    {
+        return unofficialCount;
+    }
+
+    /**
+     * Attaches the recompiler that must hear about writes to compiled code.
+     */
+    void setRecompiler( Recompiler jit )
+    {
+        recompiler = jit;
+    }
+
+    /**
+     * Returns true if compiled code has been overwritten since the flag was
+     * last cleared. Compiled blocks check this after every store and bail out
+     * to the next instruction, so self-modifying code takes effect at once.
+     */
+    boolean isCodeWritten()
+    {
+        return codeWritten;
+    }
+
+    void setCodeWritten( boolean written )
+    {
+        codeWritten = written;
+    }
+
+    /**
+     * Moves the PC, e.g. to the load address of a binary.
+     *
+     * @param addr The new PC, wrapped to 16 bits.
+     */
+    public void setPC( int addr )
+    {
+        state.pc = addr & 0xffff;
+    }
+}
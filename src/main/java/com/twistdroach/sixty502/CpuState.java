@@ -0,0 +1,326 @@
+package com.twistdroach.sixty502;
+
+/**
+ * CpuState.java
+ * The 6502 registers as primitive ints, shared by Processor and Cpu.
+ * Nothing here allocates, so an execute loop built on it doesn't either.
+ *
+ * N, Z and C are evaluated lazily: instructions only record their last
+ * result and carry out, and the flags are built when P is actually read.
+ * The ALU helpers are shared so both engines compute flags the same way;
+ * ADC and SBC look their results up in the Alu tables, in binary or
+ * decimal mode as D selects.
+ *
+ * @author Christopher Erickson
+ */
+
+public class CpuState
+{
+    /* Status bit masks */
+    static final int N = 1 << Processor.P_N;
+    static final int V = 1 << Processor.P_V;
+    static final int U = 1 << Processor.P_1;
+    static final int B = 1 << Processor.P_B;
+    static final int D = 1 << Processor.P_D;
+    static final int I = 1 << Processor.P_I;
+    static final int Z = 1 << Processor.P_Z;
+    static final int C = 1 << Processor.P_C;
+    /* Registers */
+    int a;          // Accumulator
+    int x;          // Index register
+    int y;          // Index register
+    int sp;         // Stack pointer
+    int pc;         // Program counter
+    int p;          // Status register, except for N, Z and C
+    /* Lazy flags */
+    int nz;         // Last result. N is bit 7 ( or bit 8 ), Z is set if the low byte is zero
+    int carry;      // C, as 0 or 1
+    /* Timing */
+    long cycles;    // Cycles executed since power on
+    long instructions; // Instructions executed since power on
+    /* D, or 0 on CPUs without decimal mode */
+    int decimalMask = D;
+
+    /**
+     * Creates a state with every register zeroed.
+     */
+    public CpuState()
+    {
+        setP( 0 );
+    }
+
+    /**
+     * Returns the status register, building N, Z and C from the last result.
+     *
+     * @return N|V|1|B|D|I|Z|C
+     */
+    public int getP()
+    {
+        return ( p & ~( N | Z | C ) ) | Alu.NZ[nz & 0x1ff] | carry;
+    }
+
+    /**
+     * Replaces the status register.
+     *
+     * @param val New value of P.
+     */
+    public void setP( int val )
+    {
+        p = val & 0xff;
+        carry = val & C;
+        // Bit 8 lets N and Z both be set, which no 8-bit result can do
+        if ( ( val & Z ) != 0 )
+            nz = ( val & N ) != 0 ? 0x100 : 0;
+        else
+            nz = ( val & N ) != 0 ? 0x80 : 1;
+    }
+
+    /**
+     * Returns a single flag.
+     *
+     * @param bit Bit position of the flag within P.
+     * @return True if the flag is set.
+     */
+    public boolean getFlag( int bit )
+    {
+        return ( getP() & ( 1 << bit ) ) != 0;
+    }
+
+    /**
+     * Sets or clears a single flag.
+     *
+     * @param bit Bit position of the flag within P.
+     * @param val If true, sets the flag. If false, clears it.
+     */
+    public void setFlag( int bit, boolean val )
+    {
+        if ( val )
+            setP( getP() | ( 1 << bit ) );
+        else
+            setP( getP() & ~( 1 << bit ) );
+    }
+
+    /**
+     * Makes this state a copy of another, registers, flags and counters alike.
+     *
+     * @param other The state to copy.
+     */
+    public void copyFrom( CpuState other )
+    {
+        a = other.a;
+        x = other.x;
+        y = other.y;
+        sp = other.sp;
+        pc = other.pc;
+        p = other.p;
+        nz = other.nz;
+        carry = other.carry;
+        cycles = other.cycles;
+        instructions = other.instructions;
+        decimalMask = other.decimalMask;
+    }
+
+    /* ALU */
+
+    /**
+     * Records a result for the N and Z flags.
+     *
+     * @param val An unsigned 8-bit result.
+     * @return val, unchanged.
+     */
+    int setNZ( int val )
+    {
+        nz = val;
+        return val;
+    }
+
+    /**
+     * Adds a value and the carry to the accumulator, in decimal mode if D is set.
+     */
+    void adc( int val )
+    {
+        apply( Alu.ADC[( p & decimalMask ) >> Processor.P_D][( carry << 16 ) | ( a << 8 ) | val] );
+    }
+
+    /**
+     * Subtracts a value and the borrow from the accumulator, in decimal mode if D is set.
+     */
+    void sbc( int val )
+    {
+        apply( Alu.SBC[( p & decimalMask ) >> Processor.P_D][( carry << 16 ) | ( a << 8 ) | val] );
+    }
+
+    /**
+     * Unpacks an Alu table entry into A, C, V and the lazy N and Z.
+     */
+    private void apply( int entry )
+    {
+        a = entry & 0xff;
+        carry = ( entry >> Alu.CARRY_SHIFT ) & 1;
+        nz = ( entry >> Alu.NZ_SHIFT ) & 0x1ff;
+        p = ( p & ~V ) | ( ( entry >> ( Alu.V_SHIFT - Processor.P_V ) ) & V );
+    }
+
+    /**
+     * Sets N, Z and C the way CMP, CPX and CPY do.
+     */
+    void compare( int reg, int val )
+    {
+        int diff = reg - val;
+        carry = diff >= 0 ? 1 : 0;
+        nz = diff & 0xff;
+    }
+
+    /**
+     * Test Bits. N and V come from the value, Z from the value AND the accumulator.
+     */
+    void bit( int val )
+    {
+        p = ( p & ~V ) | ( val & V );
+        nz = ( ( a & val ) == 0 ? 0 : 1 ) | ( ( val & N ) << 1 );
+    }
+
+    int asl( int val )
+    {
+        carry = val >> 7;
+        return nz = ( val << 1 ) & 0xff;
+    }
+
+    int lsr( int val )
+    {
+        carry = val & 1;
+        return nz = val >> 1;
+    }
+
+    int rol( int val )
+    {
+        int result = ( ( val << 1 ) | carry ) & 0xff;
+        carry = val >> 7;
+        return nz = result;
+    }
+
+    int ror( int val )
+    {
+        int result = ( val >> 1 ) | ( carry << 7 );
+        carry = val & 1;
+        return nz = result;
+    }
+
+    /* ACCESSORS */
+
+    /**
+     * Turns decimal mode on or off. The NES' 2A03 has no decimal mode, so
+     * for it D can be set and cleared but ADC and SBC always work in binary.
+     *
+     * @param on False to ignore D. True by default.
+     */
+    public void setDecimalEnabled( boolean on )
+    {
+        decimalMask = on ? D : 0;
+    }
+
+    public boolean isDecimalEnabled()
+    {
+        return decimalMask != 0;
+    }
+
+    public int getA()
+    {
+        return a;
+    }
+
+    public void setA( int val )
+    {
+        a = val & 0xff;
+    }
+
+    public int getX()
+    {
+        return x;
+    }
+
+    public void setX( int val )
+    {
+        x = val & 0xff;
+    }
+
+    public int getY()
+    {
+        return y;
+    }
+
+    public void setY( int val )
+    {
+        y = val & 0xff;
+    }
+
+    public int getSP()
+    {
+        return sp;
+    }
+
+    public void setSP( int val )
+    {
+        sp = val & 0xff;
+    }
+
+    public int getPC()
+    {
+        return pc;
+    }
+
+    public void setPC( int val )
+    {
+        pc = val & 0xffff;
+    }
+
+    /**
+     * Returns the number of cycles executed so far.
+     */
+    public long getCycles()
+    {
+        return cycles;
+    }
+
+    public void setCycles( long val )
+    {
+        cycles = val;
+    }
+
+    /**
+     * Returns the number of instructions executed so far.
+     */
+    public long getInstructions()
+    {
+        return instructions;
+    }
+
+    public void setInstructions( long val )
+    {
+        instructions = val;
+    }
+
+    /* FORMATTING */
+
+    /**
+     * Formats a byte as binary, e.g. %00101010.
+     */
+    static String toBin( int val )
+    {
+        String bin = Integer.toBinaryString( val & 0xff );
+        while ( bin.length() < 8 )
+            bin = "0" + bin;
+        return "%" + bin;
+    }
+
+    /**
+     * Formats a value as zero-padded hex, e.g. $002a.
+     */
+    static String toHex( int val, int digits )
+    {
+        String hex = Integer.toHexString( val );
+        while ( hex.length() < digits )
+            hex = "0" + hex;
+        return "$" + hex;
+    }
+}
@@ -0,0 +1,108 @@
+package com.twistdroach.sixty502;
+
+/**
+ * FileTraceSink.java
+ * Writes every instruction and the registers after it as text, through a
+ * buffer, so a trace costs a few string appends per instruction rather
+ * than a console flush per line.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+
+public class FileTraceSink implements TraceSink
+{
+    /* Characters buffered between writes to the file */
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String LINE = "-------------------------------------------------";
+
+    private Writer out;
+    private boolean closeOut;
+
+    /**
+     * Creates a sink that writes to a file, replacing it if it exists.
+     *
+     * @param fileName Location of the trace file.
+     */
+    public FileTraceSink( String fileName )
+    {
+        try
+        {
+            out = new BufferedWriter( new FileWriter( fileName ), BUFFER_SIZE );
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( "Could not open trace file " + fileName, ex );
+        }
+        closeOut = true;
+    }
+
+    /**
+     * Creates a sink that writes to a stream, such as System.out. Closing
+     * the sink flushes it but leaves the stream open.
+     *
+     * @param stream The stream to write to.
+     */
+    public FileTraceSink( PrintStream stream )
+    {
+        out = new BufferedWriter( new OutputStreamWriter( stream ), BUFFER_SIZE );
+        closeOut = false;
+    }
+
+    public void trace( int index, Instruction inst, CpuState state )
+    {
+        try
+        {
+            write( out, describe( inst ), state.getP(), state.a, state.x, state.y, state.pc );
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    public void close()
+    {
+        try
+        {
+            if ( closeOut )
+                out.close();
+            else
+                out.flush();
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    /**
+     * Returns an instruction as the trace shows it: opcode, operand and offset.
+     */
+    static String describe( Instruction inst )
+    {
+        return inst.getOpcode() + " " + inst.getOperand() + " " + inst.getOffset();
+    }
+
+    /**
+     * Writes one instruction and the registers after it, in the format
+     * Processor has always printed its trace in.
+     */
+    static void write( Writer out, String inst, int p, int a, int x, int y, int pc ) throws IOException
+    {
+        out.write( "Instruction: " + inst + "\n" );
+        out.write( LINE + "\n" );
+        out.write( "Status: " + CpuState.toBin( p ) + " " + CpuState.toHex( p, 2 ) + "\n" );
+        out.write( "A:      " + CpuState.toBin( a ) + " " + CpuState.toHex( a, 2 ) + "\n" );
+        out.write( "X:      " + CpuState.toBin( x ) + " " + CpuState.toHex( x, 2 ) + "\n" );
+        out.write( "Y:      " + CpuState.toBin( y ) + " " + CpuState.toHex( y, 2 ) + "\n" );
+        out.write( "PC:     " + CpuState.toHex( pc, 4 ) + "\n" );
+        out.write( LINE + "\n" );
+    }
+}
@@ -12,8 +12,13 @@ public class Instruction
 	/* Class Variables */
 	private String label;
 	private String opcode;
+	private Opcode opcodeId;
 	private String operand;
 	private String offset;
+	private AddressingMode mode;
+	private int value;
+	private int cycles;
+	private boolean pagePenalty;
 	private String comment;
 	
     /**
@@ -24,8 +29,13 @@ public class Instruction
 	{
 		label = "";
 		opcode = "";
+		opcodeId = null;
 		operand = "";
 		offset = "";
+		mode = AddressingMode.IMPLIED;
+		value = -1;
+		cycles = 0;
+		pagePenalty = false;
 		comment = "";
 	}
 	
@@ -43,8 +53,19 @@ public class Instruction
 	{
 		label = inLabel;
 		opcode = inOpcode;
+		opcodeId = Opcode.lookup( inOpcode );
 		operand = inOperand;
+		offset = inOffset;
 		comment = inComment;
+		
+		// Resolve the operand once, so executing it is integer math only
+		mode = Parser.getAddressingMode( inOperand, inOffset );
+		value = Parser.getOperandValue( inOperand );
+		if ( opcodeId != null && mode != null )
+		{
+			cycles = OpcodeTable.getCycles( opcodeId, mode );
+			pagePenalty = OpcodeTable.hasPagePenalty( opcodeId, mode );
+		}
 	}
 	
 	public String getLabel()
@@ -57,6 +78,16 @@ public class Instruction
 		return opcode;
 	}
 	
+    /**
+     * Returns the opcode resolved when the instruction was parsed.
+     * 
+     * @return The Opcode, or null if the mnemonic is not supported.
+     */
+	public Opcode getOpcodeId()
+	{
+		return opcodeId;
+	}
+	
 	public String getOperand()
 	{
 		return operand;
@@ -67,6 +98,46 @@ public class Instruction
 		return offset;
 	}
 	
+    /**
+     * Returns the addressing mode classified when the instruction was parsed.
+     * 
+     * @return The AddressingMode, or null if the operand could not be resolved.
+     */
+	public AddressingMode getMode()
+	{
+		return mode;
+	}
+	
+    /**
+     * Returns the numeric value of the operand: an immediate value,
+     * an address, or the base of an indexed or indirect address.
+     * 
+     * @return The operand's value, or -1 if there is none.
+     */
+	public int getValue()
+	{
+		return value;
+	}
+	
+    /**
+     * Returns the number of cycles the instruction takes, not counting
+     * page crossings or taken branches.
+     * 
+     * @return Base cycle count, or 0 if the instruction could not be resolved.
+     */
+	public int getCycles()
+	{
+		return cycles;
+	}
+	
+    /**
+     * Returns true if the instruction takes an extra cycle when indexing crosses a page.
+     */
+	public boolean hasPagePenalty()
+	{
+		return pagePenalty;
+	}
+	
 	public String getComment()
 	{
 		return comment;
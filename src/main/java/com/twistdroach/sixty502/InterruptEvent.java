@@ -0,0 +1,63 @@
+package com.twistdroach.sixty502;
+
+/**
+ * InterruptEvent.java
+ * Flight Recorder event for a BRK, IRQ, NMI or reset. Off by default, see
+ * RunEvent.
+ *
+ * @author Christopher Erickson
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name( "sixty502.Interrupt" )
+@Label( "Emulator Interrupt" )
+@Category( "Emulator" )
+@Description( "A BRK, IRQ, NMI or reset taken by the processor" )
+@Enabled( false )
+@StackTrace( false )
+public class InterruptEvent extends Event
+{
+    @Label( "Kind" )
+    String kind;
+
+    @Label( "PC" )
+    @Description( "PC when the interrupt was taken" )
+    int pc;
+
+    @Label( "Handler" )
+    @Description( "Address jumped to, or -1 if the processor doesn't vector" )
+    int handler;
+
+    @Label( "Cycles" )
+    long cycles;
+
+    /**
+     * Commits an event if the recording wants it.
+     *
+     * @param kind "BRK", "IRQ", "NMI" or "RESET".
+     * @param pc PC when the interrupt was taken.
+     * @param handler Address jumped to, or -1.
+     * @param state The registers after taking it.
+     */
+    static void emit( String kind, int pc, int handler, CpuState state )
+    {
+        if ( !RecorderState.interrupts )
+            return;
+        InterruptEvent event = new InterruptEvent();
+        if ( event.shouldCommit() )
+        {
+            event.kind = kind;
+            event.pc = pc;
+            event.handler = handler;
+            event.cycles = state.cycles;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Machine.java
+ * One complete emulated machine: registers, memory, program and the
+ * processor that runs it. Machines share nothing mutable, so any number
+ * of them can run side by side, each on its own thread. A single Machine
+ * is not thread-safe and should only be used by one thread at a time.
+ *
+ * @author Christopher Erickson
+ */
+
+public class Machine
+{
+    private CpuState state;
+    private Memory theMemory;
+    private Program theProgram;
+    private Processor theProcessor;
+
+    /**
+     * Creates a machine with zeroed registers and memory.
+     *
+     * @param program The program to run. Programs are never modified, so
+     *                one can be shared by many machines.
+     */
+    public Machine( Program program )
+    {
+        this( program, new Memory() );
+    }
+
+    /**
+     * Creates a machine with zeroed registers on existing memory, e.g. a
+     * MappedMemory that persists between runs.
+     *
+     * @param program The program to run.
+     * @param memory The machine's memory, not to be shared with another machine.
+     */
+    public Machine( Program program, Memory memory )
+    {
+        state = new CpuState();
+        theMemory = memory;
+        theProgram = program;
+        theProcessor = new Processor( state, theMemory );
+        theProcessor.load( theProgram );
+    }
+
+    /**
+     * Creates a machine and reads its program from an asm file.
+     *
+     * @param programName Location of the file to be read.
+     */
+    public Machine( String programName )
+    {
+        this( new Program( programName ) );
+    }
+
+    /**
+     * Runs the program from the current PC until the PC leaves it or
+     * hits a BRK or breakpoint.
+     *
+     * @return Why the run stopped.
+     */
+    public StopReason run()
+    {
+        return theProcessor.run();
+    }
+
+    /**
+     * Runs up to a number of instructions. Call again to resume.
+     *
+     * @param budget Most instructions to execute.
+     * @return Why the run stopped.
+     */
+    public StopReason run( long budget )
+    {
+        return theProcessor.run( budget );
+    }
+
+    /**
+     * Runs up to a number of cycles. Call again to resume.
+     *
+     * @param budget Number of cycles to run for.
+     * @return Why the run stopped.
+     */
+    public StopReason runCycles( long budget )
+    {
+        return theProcessor.runCycles( budget );
+    }
+
+    /**
+     * Executes a single instruction.
+     *
+     * @return Why the step stopped, see Processor.step().
+     */
+    public StopReason step()
+    {
+        return theProcessor.step();
+    }
+
+    /**
+     * Pauses the machine, see Processor.pause(). Safe to call from any thread.
+     */
+    public void pause()
+    {
+        theProcessor.pause();
+    }
+
+    /**
+     * Lets a paused machine continue. Safe to call from any thread.
+     */
+    public void resume()
+    {
+        theProcessor.resume();
+    }
+
+    /**
+     * Returns true while a run of this machine is parked by a pause.
+     */
+    public boolean isPaused()
+    {
+        return theProcessor.isPaused();
+    }
+
+    /**
+     * Returns true while a run of this machine is in progress, parked or not.
+     */
+    public boolean isRunning()
+    {
+        return theProcessor.isRunning();
+    }
+
+    /**
+     * Returns true if the PC has left the program.
+     */
+    public boolean isFinished()
+    {
+        return theProcessor.isFinished();
+    }
+
+    /**
+     * Sets where executed instructions are traced to, see Processor.setTraceSink().
+     *
+     * @param sink The sink, or null to turn tracing off.
+     */
+    public void setTraceSink( TraceSink sink )
+    {
+        theProcessor.setTraceSink( sink );
+    }
+
+    /**
+     * Saves the registers and RAM. RAM is shared copy-on-write with the
+     * machine, so this costs about as much as the pages written since
+     * the last snapshot or restore. Call it from the thread running the
+     * machine, or while it is paused.
+     *
+     * @return The snapshot, which can be restored any number of times.
+     */
+    public MachineSnapshot snapshot()
+    {
+        return new MachineSnapshot( state, theMemory.snapshot() );
+    }
+
+    /**
+     * Puts the registers and RAM back the way a snapshot found them. Only
+     * the pages that differ are touched. The snapshot should come from a
+     * machine running the same program.
+     *
+     * @param snapshot The snapshot to go back to.
+     */
+    public void restore( MachineSnapshot snapshot )
+    {
+        state.copyFrom( snapshot.getState() );
+        theMemory.restore( snapshot.getMemory() );
+    }
+
+    /**
+     * Watches a range of addresses and stops the run in progress, with
+     * WATCHPOINT, after any instruction that accesses them. The
+     * watchpoint remembers the last access, e.g. to find what corrupted
+     * a buffer. Execute watchpoints don't apply, as the program isn't run
+     * out of memory; use breakpoints instead.
+     *
+     * @param start First address watched.
+     * @param end Last address watched, inclusive.
+     * @param kinds Memory.WATCH_READ and / or Memory.WATCH_WRITE.
+     * @return The watchpoint, to pass to getMemory().unwatch() when done.
+     */
+    public Watchpoint watch( int start, int end, int kinds )
+    {
+        return theMemory.watch( start, end, kinds, new WatchListener()
+        {
+            public void hit( Watchpoint watchpoint, int addr, int val, int kind )
+            {
+                theProcessor.requestStop();
+            }
+        } );
+    }
+
+    public CpuState getState()
+    {
+        return state;
+    }
+
+    public Memory getMemory()
+    {
+        return theMemory;
+    }
+
+    public Program getProgram()
+    {
+        return theProgram;
+    }
+
+    public Processor getProcessor()
+    {
+        return theProcessor;
+    }
+}
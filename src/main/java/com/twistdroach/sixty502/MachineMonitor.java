@@ -0,0 +1,274 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MachineMonitor.java
+ * Exposes a Machine over JMX: its counters and registers, per-page memory
+ * access counts, and operations to pause, resume and snapshot it.
+ *
+ * Attributes are sampled from the machine's registers without
+ * synchronization, so the run loop does nothing extra to publish them and
+ * a value read while the machine runs may lag slightly. Snapshots and
+ * changes to page counting pause the machine first, so they see and make
+ * consistent state; if a run doesn't park in time they fail rather than
+ * race it.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class MachineMonitor implements MachineMonitorMXBean
+{
+    public static final String DOMAIN = "com.twistdroach.sixty502";
+    /* How long to wait for a running machine to park before giving up */
+    private static final long PAUSE_WAIT_NANOS = 100000000L;
+    /* Shortest interval the effective clock rate is measured over */
+    private static final long MIN_RATE_NANOS = 100000000L;
+
+    private Machine theMachine;
+    private String name;
+    private ObjectName objectName;
+    /* Last clock rate measurement */
+    private long rateCycles;
+    private long rateNanos;
+    private double rateMHz;
+
+    /**
+     * Creates a monitor without registering it.
+     *
+     * @param machine The machine to expose.
+     * @param machineName Name to show the machine under.
+     */
+    public MachineMonitor( Machine machine, String machineName )
+    {
+        theMachine = machine;
+        name = machineName;
+        rateCycles = machine.getState().getCycles();
+        rateNanos = System.nanoTime();
+    }
+
+    /**
+     * Creates a monitor and registers it with the platform MBean server as
+     * com.twistdroach.sixty502:type=Machine,name="machineName".
+     *
+     * @param machine The machine to expose.
+     * @param machineName Name to register the machine under, unique in the JVM.
+     * @return The monitor, for unregister().
+     */
+    public static MachineMonitor register( Machine machine, String machineName )
+    {
+        MachineMonitor monitor = new MachineMonitor( machine, machineName );
+        try
+        {
+            monitor.objectName = new ObjectName( DOMAIN + ":type=Machine,name=" + ObjectName.quote( machineName ) );
+            ManagementFactory.getPlatformMBeanServer().registerMBean( monitor, monitor.objectName );
+        }
+        catch ( JMException ex )
+        {
+            throw new IllegalStateException( "Could not register machine " + machineName, ex );
+        }
+        return monitor;
+    }
+
+    /**
+     * Removes the monitor from the platform MBean server.
+     */
+    public void unregister()
+    {
+        if ( objectName == null )
+            return;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+        }
+        catch ( JMException ex )
+        {
+            throw new IllegalStateException( "Could not unregister machine " + name, ex );
+        }
+        objectName = null;
+    }
+
+    public ObjectName getObjectName()
+    {
+        return objectName;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getInstructions()
+    {
+        return theMachine.getState().instructions;
+    }
+
+    public long getCycles()
+    {
+        return theMachine.getState().cycles;
+    }
+
+    public synchronized double getEffectiveMHz()
+    {
+        long cycles = theMachine.getState().cycles;
+        long now = System.nanoTime();
+        if ( now - rateNanos >= MIN_RATE_NANOS )
+        {
+            rateMHz = ( cycles - rateCycles ) * 1e3 / ( now - rateNanos );
+            rateCycles = cycles;
+            rateNanos = now;
+        }
+        return rateMHz;
+    }
+
+    public int getPC()
+    {
+        return theMachine.getState().pc;
+    }
+
+    public int getA()
+    {
+        return theMachine.getState().a;
+    }
+
+    public int getX()
+    {
+        return theMachine.getState().x;
+    }
+
+    public int getY()
+    {
+        return theMachine.getState().y;
+    }
+
+    public int getSP()
+    {
+        return theMachine.getState().sp;
+    }
+
+    public int getP()
+    {
+        return theMachine.getState().getP();
+    }
+
+    public boolean isPaused()
+    {
+        return theMachine.isPaused();
+    }
+
+    public boolean isPageCounting()
+    {
+        return theMachine.getMemory().isCounting();
+    }
+
+    public synchronized void setPageCounting( boolean on )
+    {
+        boolean wasPaused = theMachine.getProcessor().isPauseRequested();
+        theMachine.pause();
+        try
+        {
+            int runs;
+            do
+            {
+                runs = awaitPause();
+                theMachine.getMemory().setCounting( on );
+            }
+            while ( !theMachine.getProcessor().isRunCount( runs ) );
+        }
+        finally
+        {
+            if ( !wasPaused )
+                theMachine.resume();
+        }
+    }
+
+    public long[] getPageReads()
+    {
+        return theMachine.getMemory().getPageReads();
+    }
+
+    public long[] getPageWrites()
+    {
+        return theMachine.getMemory().getPageWrites();
+    }
+
+    public void pause()
+    {
+        theMachine.pause();
+    }
+
+    public void resume()
+    {
+        theMachine.resume();
+    }
+
+    public synchronized String snapshot()
+    {
+        boolean wasPaused = theMachine.getProcessor().isPauseRequested();
+        theMachine.pause();
+        try
+        {
+            int runs;
+            String snapshot;
+            do
+            {
+                runs = awaitPause();
+                snapshot = describe();
+            }
+            while ( !theMachine.getProcessor().isRunCount( runs ) );
+            return snapshot;
+        }
+        finally
+        {
+            if ( !wasPaused )
+                theMachine.resume();
+        }
+    }
+
+    private String describe()
+    {
+        CpuState state = theMachine.getState();
+        return name
+                + " A=" + CpuState.toHex( state.a, 2 )
+                + " X=" + CpuState.toHex( state.x, 2 )
+                + " Y=" + CpuState.toHex( state.y, 2 )
+                + " SP=" + CpuState.toHex( state.sp, 2 )
+                + " P=" + CpuState.toHex( state.getP(), 2 )
+                + " PC=" + CpuState.toHex( state.pc, 4 )
+                + " mem=" + String.format( "%016x", RunResult.digest( theMachine.getMemory() ) )
+                + " instructions=" + state.instructions
+                + " cycles=" + state.cycles;
+    }
+
+    /**
+     * Waits briefly for a run in progress to park, once a pause has been
+     * asked for. A machine that isn't running is used as it is, but a run
+     * started on another thread just as the pause was asked for may not
+     * have seen it yet. Callers check isRunCount() when done, and start
+     * over if a run slipped in; it parks or ends soon after.
+     *
+     * @return The processor's run count, for isRunCount().
+     * @throws IllegalStateException If a run doesn't park in time.
+     */
+    private int awaitPause()
+    {
+        Processor processor = theMachine.getProcessor();
+        long deadline = System.nanoTime() + PAUSE_WAIT_NANOS;
+        while ( true )
+        {
+            int runs = processor.getRunCount();
+            if ( ( runs & 1 ) == 0 || processor.isPaused() )
+                return runs;
+            if ( System.nanoTime() >= deadline )
+            {
+                throw new IllegalStateException( "Machine " + name + " didn't pause within "
+                        + PAUSE_WAIT_NANOS / 1000000 + " ms" );
+            }
+            LockSupport.parkNanos( 1000000L );
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MachineMonitorMXBean.java
+ * Management interface of a Machine, see MachineMonitor.
+ *
+ * @author Christopher Erickson
+ */
+
+public interface MachineMonitorMXBean
+{
+    String getName();
+
+    long getInstructions();
+
+    long getCycles();
+
+    /**
+     * Returns the clock rate since the last time it was asked for.
+     */
+    double getEffectiveMHz();
+
+    int getPC();
+
+    int getA();
+
+    int getX();
+
+    int getY();
+
+    int getSP();
+
+    int getP();
+
+    boolean isPaused();
+
+    boolean isPageCounting();
+
+    /**
+     * Turns counting of memory reads and writes per page on or off.
+     * Fails with an IllegalStateException if the machine can't be paused.
+     */
+    void setPageCounting( boolean on );
+
+    long[] getPageReads();
+
+    long[] getPageWrites();
+
+    void pause();
+
+    void resume();
+
+    /**
+     * Returns the registers, counters and a digest of memory, captured
+     * while the machine is paused. Fails with an IllegalStateException if
+     * a run doesn't park in time.
+     */
+    String snapshot();
+}
@@ -0,0 +1,39 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MachineSnapshot.java
+ * A saved machine: its registers and a copy-on-write snapshot of its RAM.
+ * See Machine.snapshot().
+ *
+ * @author Christopher Erickson
+ */
+
+public class MachineSnapshot
+{
+    private CpuState state;
+    private MemorySnapshot memory;
+
+    /**
+     * @param cpuState Registers to capture. They are copied.
+     * @param memorySnapshot RAM to capture.
+     */
+    MachineSnapshot( CpuState cpuState, MemorySnapshot memorySnapshot )
+    {
+        state = new CpuState();
+        state.copyFrom( cpuState );
+        memory = memorySnapshot;
+    }
+
+    /**
+     * Returns the saved registers. Don't modify them.
+     */
+    public CpuState getState()
+    {
+        return state;
+    }
+
+    public MemorySnapshot getMemory()
+    {
+        return memory;
+    }
+}
@@ -0,0 +1,62 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MappedMemory.java
+ * Memory mapped onto the first 64 KB of a file. Whatever the file holds
+ * is the initial RAM image, with no load step, and every write lands in
+ * the file through the page cache, so the image outlives the process.
+ * Other processes mapping the same file see changes as they happen and
+ * can poke values in while the emulator runs.
+ *
+ * Writes reach the page cache at once but the disk only when the OS gets
+ * round to it; call force() to be sure they survive a crash of the host.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MappedMemory extends BufferMemory
+{
+    private Path theFile;
+
+    /**
+     * Maps a file, creating it if it doesn't exist. A file shorter than
+     * 64 KB is extended with zeroes; anything past 64 KB is left alone.
+     *
+     * @param file Location of the RAM image.
+     * @throws IOException If the file can't be opened or mapped.
+     */
+    public MappedMemory( Path file ) throws IOException
+    {
+        super( map( file ) );
+        theFile = file;
+    }
+
+    private static MappedByteBuffer map( Path file ) throws IOException
+    {
+        // The mapping stays valid after the channel is closed
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+        {
+            return channel.map( FileChannel.MapMode.READ_WRITE, 0, SIZE );
+        }
+    }
+
+    /**
+     * Blocks until every write so far has reached the disk.
+     */
+    public void force()
+    {
+        ( (MappedByteBuffer) getBuffer() ).force();
+    }
+
+    public Path getFile()
+    {
+        return theFile;
+    }
+}
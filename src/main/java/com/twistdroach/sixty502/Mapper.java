@@ -0,0 +1,102 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Mapper.java
+ * The bank switching hardware on a NES cartridge. PRG ROM banks are
+ * mapped into $8000-$FFFF with Memory.map(), so reads come straight out
+ * of the ROM on the fast path and switching a bank only rewrites the
+ * page table entries of its pages; nothing is copied. Writes to those
+ * pages are handed to the mapper, which is how games program it.
+ *
+ * Bank registers aren't part of a MachineSnapshot, so restoring one
+ * leaves the banks as they are.
+ *
+ * @author Christopher Erickson
+ */
+
+public abstract class Mapper implements MemoryDevice
+{
+    private RomImage prg;
+    private Memory theMemory;
+
+    protected Mapper( Cartridge cartridge )
+    {
+        prg = cartridge.getPrg();
+    }
+
+    /**
+     * Creates the mapper a cartridge asks for.
+     *
+     * @throws IllegalArgumentException If the mapper isn't supported.
+     */
+    public static Mapper create( Cartridge cartridge )
+    {
+        switch ( cartridge.getMapperNumber() )
+        {
+            case 0:
+                return new NromMapper( cartridge );
+            case 1:
+                return new Mmc1Mapper( cartridge );
+            case 2:
+                return new UxromMapper( cartridge );
+            case 4:
+                return new Mmc3Mapper( cartridge );
+            default:
+                throw new IllegalArgumentException( "Unsupported mapper " + cartridge.getMapperNumber() );
+        }
+    }
+
+    /**
+     * Maps the power-on banks into memory, which the mapper then controls.
+     */
+    public void attach( Memory memory )
+    {
+        theMemory = memory;
+        reset();
+    }
+
+    /**
+     * Puts the registers and banks back as they are at power on.
+     */
+    public abstract void reset();
+
+    /**
+     * Maps a bank of PRG ROM.
+     *
+     * @param addr Where it goes, a multiple of 256.
+     * @param size Size of the banks, a multiple of 256.
+     * @param bank Which bank, wrapped to the size of the ROM; -1 is the last.
+     */
+    protected void mapPrg( int addr, int size, int bank )
+    {
+        if ( size > prg.getSize() )
+        {
+            // Bigger than the ROM, which repeats to fill it
+            mapPrg( addr, size / 2, bank * 2 );
+            mapPrg( addr + size / 2, size / 2, bank * 2 + 1 );
+            return;
+        }
+        int pages = size >> 8;
+        int first = Math.floorMod( bank, prg.getPageCount() / pages ) * pages;
+        for ( int i = 0; i < pages; ++i )
+        {
+            theMemory.map( ( addr >> 8 ) + i, 1, prg.getPage( first + i ), 0, this );
+        }
+    }
+
+    /**
+     * Never called for PRG ROM, which is read out of the ROM.
+     */
+    public int read( int addr )
+    {
+        return theMemory.peek( addr );
+    }
+
+    /**
+     * Writes a mapper register.
+     *
+     * @param addr The address written, $8000-$FFFF.
+     * @param val The value written ( 0 <= val <= 255 ).
+     */
+    public abstract void write( int addr, int val );
+}
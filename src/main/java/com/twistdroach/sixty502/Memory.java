@@ -2,46 +2,905 @@ package com.twistdroach.sixty502;
 
 /**
  * Memory.java
- * Singleton class that emulates word-addressable NES memory.
+ * Emulates word-addressable NES memory. Each Machine owns its own
+ * instance, so any number of them can run side by side.
+ *
+ * The 64 KB of RAM live in 256 page-sized byte arrays, so reads and writes
+ * allocate nothing. BufferMemory keeps them in a ByteBuffer instead, e.g.
+ * off heap.
+ *
+ * Every access goes through a page table with an entry for each 256-byte
+ * page. A page either points into a byte array ( RAM, or ROM whose writes
+ * are dropped ) and is read or written in place, or is handed to a
+ * MemoryDevice. Mirrors are pages pointing at the same bytes or device,
+ * so no access ever tests for ROM or mirroring, and programs that only
+ * use RAM never reach a device. Banked ROM is read in place with writes
+ * going to a device, its Mapper, and a bank switch just repoints pages.
+ *
+ * RAM pages are copy-on-write. snapshot() shares them with the snapshot
+ * and write-protects them; the first write to a protected page copies it.
+ * Taking or restoring a snapshot therefore only costs the pages written
+ * since the last one, rather than 64 KB.
+ *
+ * Watchpoints work the same way: a watched page has no entry in the fast
+ * table for the kind of access watched, so only its accesses take the
+ * slow path that checks them. Accesses to every other page cost the same
+ * with watchpoints set as without.
  *
  * @author Christopher Erickson
  */
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class Memory
 {
-    /* The single instance */
-	private static Memory instance = null;
-    private Byte[] theMemory;
+    /* Size of the address space */
+    public static final int SIZE = 0x10000;
+    /* Kinds of access a watchpoint can watch */
+    public static final int WATCH_READ = 1;
+    public static final int WATCH_WRITE = 2;
+    public static final int WATCH_EXECUTE = 4;
+
+    /* All zeroes, shared copy-on-write by every new Memory */
+    private static final byte[] ZERO_PAGE = new byte[256];
+
+    /* RAM pages, null if the memory has no RAM of its own */
+    private byte[][] ram;
+    /* Pages of RAM written since the last snapshot or restore, which are
+       the only ones this memory owns; the rest are shared and protected */
+    private boolean[] owned = new boolean[256];
+    private int[] dirty = new int[256];
+    private int dirtyCount;
+    /* Page table. Array and page-aligned offset each page reads from and
+       writes to, or null where the page's device takes the access. For
+       device pages the offset is the address the device sees */
+    private byte[][] readMap = new byte[256][];
+    int[] readOffsets = new int[256];
+    private byte[][] writeMap = new byte[256][];
+    private int[] writeOffsets = new int[256];
+    /* Fast tables: the page table, less pages watched for the access.
+       Compiled blocks read straight out of readPages */
+    byte[][] readPages = new byte[256][];
+    private byte[][] writePages = new byte[256][];
+    private byte[][] fetchPages = new byte[256][];
+    private MemoryDevice[] devices = new MemoryDevice[256];
+    /* RAM page each page maps, or -1 */
+    private int[] ramPages = new int[256];
+    /* True once a RAM page is mapped anywhere but its own address */
+    private boolean ramMirrored;
+    /* Pages whose writes land on the same bytes as each page's, itself
+       included: mirrors of the same RAM page or device addresses. Null
+       for a page nothing else shares. Rebuilt when stale, which only
+       mapping RAM or devices or mirroring makes it, not a bank switch */
+    private int[][] aliases = new int[256][];
+    private boolean aliasesStale;
+    /* Where writes to ROM go */
+    private byte[] discard = new byte[256];
+    /* Watchpoints overlapping each page, and the kinds they watch. Lists
+       are replaced rather than changed, so listeners may unwatch */
+    private List<List<Watchpoint>> watches = new ArrayList<List<Watchpoint>>();
+    private int[] watchKinds = new int[256];
+    /* Changes whenever a watchpoint is added or removed */
+    private int watchGeneration;
+    /* Change whenever what a page reads changes other than by a write,
+       e.g. a bank switch, so cached translations of it can be dropped */
+    private int[] pageGenerations = new int[256];
+    private int mapGeneration;
+    /* Accesses per 256-byte page, null unless counting. While counting
+       the fast tables are empty, so every access takes the slow path */
+    long[] pageReads;
+    long[] pageWrites;
     
     /**
-     * Stop java from using its default constructor
+     * Creates 64 KB of zeroed RAM.
      */
-    protected Memory()
+    public Memory()
     {
-    	theMemory = new Byte[65536];   // 64 KB of mem
-    	for ( int i = 0; i < theMemory.length; ++i )
-    	{
-    		theMemory[i] = new Byte();
-    	}
+        this( true );
+    }
+
+    /**
+     * For subclasses that keep the bytes somewhere else. Without RAM of its
+     * own, every page must be mapped before it is accessed.
+     */
+    Memory( boolean hasRam )
+    {
+        Arrays.fill( ramPages, -1 );
+        for ( int page = 0; page < 256; ++page )
+        {
+            watches.add( null );
+        }
+        if ( hasRam )
+        {
+            ram = new byte[256][];
+            Arrays.fill( ram, ZERO_PAGE );
+            mapRam( 0, 256 );
+        }
     }
     
     /**
-     * For use in accessing the singleton
+     * Reads an unsigned byte from memory.
+     * 
+     * @param addr Address to read, wrapped to 16 bits.
+     * @return The value stored at addr ( 0 <= value <= 255 ).
      */
-    public static Memory getInstance()
+    public int read( int addr )
     {
-    	if ( instance == null )
-    	{
-    		instance = new Memory();
-    	}
-    	return instance;
+        int page = ( addr >> 8 ) & 0xff;
+        byte[] bytes = readPages[ page ];
+        if ( bytes != null )
+        {
+            return bytes[ readOffsets[ page ] | ( addr & 0xff ) ] & 0xff;
+        }
+        return readSlow( page, addr, WATCH_READ );
     }
-
+    
+    /**
+     * Reads the opcode of an instruction about to execute. The same as
+     * read(), except that it triggers execute watchpoints rather than read ones.
+     * 
+     * @param addr Address to read, wrapped to 16 bits.
+     * @return The value stored at addr ( 0 <= value <= 255 ).
+     */
+    public int fetch( int addr )
+    {
+        int page = ( addr >> 8 ) & 0xff;
+        byte[] bytes = fetchPages[ page ];
+        if ( bytes != null )
+        {
+            return bytes[ readOffsets[ page ] | ( addr & 0xff ) ] & 0xff;
+        }
+        return readSlow( page, addr, WATCH_EXECUTE );
+    }
+    
+    /**
+     * Reads from a device, a watched page or while counting.
+     */
+    private int readSlow( int page, int addr, int kind )
+    {
+        long[] counts = pageReads;
+        if ( counts != null )
+            counts[ page ]++;
+        byte[] bytes = readMap[ page ];
+        int val;
+        if ( bytes != null )
+            val = bytes[ readOffsets[ page ] | ( addr & 0xff ) ] & 0xff;
+        else
+            val = devices[ page ].read( readOffsets[ page ] | ( addr & 0xff ) );
+        if ( ( watchKinds[ page ] & kind ) != 0 )
+            hit( page, addr & 0xffff, val, kind );
+        return val;
+    }
+    
+    /**
+     * Reads a little-endian word. The high byte comes from the next
+     * address, wrapping from $ffff to $0000.
+     * 
+     * @param addr Address of the low byte.
+     * @return The word ( 0 <= value <= 65535 ).
+     */
+    public int readWord( int addr )
+    {
+        return read( addr ) | ( read( addr + 1 ) << 8 );
+    }
+    
+    /**
+     * Reads a little-endian word out of the zero page, as the ( $nn, x )
+     * and ( $nn ), y modes do: a pointer at $ff takes its high byte from $00.
+     * 
+     * @param addr Address of the low byte, wrapped to 8 bits.
+     * @return The word ( 0 <= value <= 65535 ).
+     */
+    public int readZeroPageWord( int addr )
+    {
+        return read( addr & 0xff ) | ( read( ( addr + 1 ) & 0xff ) << 8 );
+    }
+    
+    /**
+     * Reads a little-endian word without carrying into the next page, as
+     * JMP ( $nnnn ) does: a pointer at $xxff takes its high byte from $xx00.
+     * 
+     * @param addr Address of the low byte.
+     * @return The word ( 0 <= value <= 65535 ).
+     */
+    public int readWordInPage( int addr )
+    {
+        return read( addr ) | ( read( ( addr & 0xff00 ) | ( ( addr + 1 ) & 0xff ) ) << 8 );
+    }
+    
+    /**
+     * Reads an unsigned byte without counting the access, for debuggers
+     * and digests.
+     * 
+     * @param addr Address to read, wrapped to 16 bits.
+     * @return The value stored at addr ( 0 <= value <= 255 ).
+     */
+    public int peek( int addr )
+    {
+        int page = ( addr >> 8 ) & 0xff;
+        byte[] bytes = readMap[ page ];
+        if ( bytes != null )
+        {
+            return bytes[ readOffsets[ page ] | ( addr & 0xff ) ] & 0xff;
+        }
+        return devices[ page ].peek( readOffsets[ page ] | ( addr & 0xff ) );
+    }
+    
+    /**
+     * Writes a byte to memory.
+     * 
+     * @param addr Address to write, wrapped to 16 bits.
+     * @param val Value to store; only the low 8 bits are kept.
+     */
+    public void write( int addr, int val )
+    {
+        int page = ( addr >> 8 ) & 0xff;
+        byte[] bytes = writePages[ page ];
+        if ( bytes != null )
+        {
+            bytes[ writeOffsets[ page ] | ( addr & 0xff ) ] = (byte) val;
+        }
+        else
+        {
+            writeSlow( page, addr, val );
+        }
+    }
+    
+    /**
+     * Writes to a device, a watched page, a shared RAM page or while counting.
+     */
+    private void writeSlow( int page, int addr, int val )
+    {
+        long[] counts = pageWrites;
+        if ( counts != null )
+            counts[ page ]++;
+        if ( ( watchKinds[ page ] & WATCH_WRITE ) != 0 )
+            hit( page, addr & 0xffff, val & 0xff, WATCH_WRITE );
+        byte[] bytes = writeMap[ page ];
+        if ( bytes != null )
+            bytes[ writeOffsets[ page ] | ( addr & 0xff ) ] = (byte) val;
+        else if ( devices[ page ] != null )
+            devices[ page ].write( writeOffsets[ page ] | ( addr & 0xff ), val & 0xff );
+        else
+            copyOnWrite( ramPages[ page ] )[ addr & 0xff ] = (byte) val;
+    }
+    
+    /**
+     * Gives this memory its own copy of a shared RAM page.
+     * 
+     * @return The copy.
+     */
+    private byte[] copyOnWrite( int r )
+    {
+        ram[ r ] = ram[ r ].clone();
+        owned[ r ] = true;
+        dirty[ dirtyCount++ ] = r;
+        remapRam( r );
+        return ram[ r ];
+    }
+    
+    /**
+     * Gives up this memory's copy of RAM page r, which is about to be
+     * replaced by a shared one, and takes it off the dirty list.
+     */
+    private void disown( int r )
+    {
+        owned[ r ] = false;
+        for ( int i = 0; i < dirtyCount; ++i )
+        {
+            if ( dirty[ i ] == r )
+            {
+                dirty[ i ] = dirty[ --dirtyCount ];
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Points every page mapping RAM page r at its current array, writable
+     * only if owned.
+     */
+    private void remapRam( int r )
+    {
+        byte[] write = owned[ r ] ? ram[ r ] : null;
+        if ( !ramMirrored )
+        {
+            if ( ramPages[ r ] == r )
+            {
+                readMap[ r ] = ram[ r ];
+                writeMap[ r ] = write;
+                refresh( r );
+            }
+            return;
+        }
+        for ( int page = 0; page < 256; ++page )
+        {
+            if ( ramPages[ page ] == r )
+            {
+                readMap[ page ] = ram[ r ];
+                writeMap[ page ] = write;
+                refresh( page );
+            }
+        }
+    }
+    
+    /**
+     * Marks every page mapping RAM page r as remapped, its contents having
+     * been replaced other than by a write.
+     */
+    private void ramReplaced( int r )
+    {
+        if ( !ramMirrored )
+        {
+            if ( ramPages[ r ] == r )
+                remapped( r );
+            return;
+        }
+        for ( int page = 0; page < 256; ++page )
+        {
+            if ( ramPages[ page ] == r )
+                remapped( page );
+        }
+    }
+    
+    /* SNAPSHOTS */
+    
+    /**
+     * Captures the contents of RAM. The snapshot shares every page with
+     * this memory, so only the pages written since the last snapshot or
+     * restore need protecting.
+     * 
+     * ROM, devices and the page table aren't part of a snapshot.
+     * 
+     * @return The snapshot, which never changes and can be restored into
+     *         any Memory, any number of times.
+     */
+    public MemorySnapshot snapshot()
+    {
+        for ( int i = 0; i < dirtyCount; ++i )
+        {
+            owned[ dirty[ i ] ] = false;
+            remapRam( dirty[ i ] );
+        }
+        dirtyCount = 0;
+        return new MemorySnapshot( ram.clone() );
+    }
+    
+    /**
+     * Puts RAM back to a snapshot. Only pages that differ from it are
+     * touched, so restoring right after a short run is cheap.
+     * 
+     * @param snapshot A snapshot of this or another memory.
+     */
+    public void restore( MemorySnapshot snapshot )
+    {
+        byte[][] pages = snapshot.getPages();
+        for ( int r = 0; r < 256; ++r )
+        {
+            if ( ram[ r ] != pages[ r ] )
+            {
+                ram[ r ] = pages[ r ];
+                owned[ r ] = false;
+                remapRam( r );
+                ramReplaced( r );
+            }
+        }
+        dirtyCount = 0;
+    }
+    
+    /**
+     * Returns the number of RAM pages written since the last snapshot or restore.
+     */
+    public int getDirtyPageCount()
+    {
+        return dirtyCount;
+    }
+    
+    /* PAGE TABLE */
+    /* Pages are numbered by the high byte of their addresses. Changing the */
+    /* table isn't thread-safe; do it from the thread running the machine. */
+    
+    /**
+     * Maps pages back to the machine's own RAM at the same addresses,
+     * undoing any other mapping.
+     * 
+     * @param page First page.
+     * @param count Number of pages.
+     */
+    public void mapRam( int page, int count )
+    {
+        checkPages( page, count );
+        for ( int i = 0; i < count; ++i )
+        {
+            ramPages[ page + i ] = page + i;
+            readOffsets[ page + i ] = 0;
+            writeOffsets[ page + i ] = 0;
+            devices[ page + i ] = null;
+            remapRam( page + i );
+            remapped( page + i );
+        }
+        aliasesStale = true;
+        updateAliases();
+    }
+    
+    /**
+     * Maps pages onto a ROM image. Reads come straight from the image and
+     * writes are dropped, so the image is never modified and can be shared
+     * by any number of machines.
+     * 
+     * @param page First page.
+     * @param image The ROM, mapped from its first byte. Its length must be
+     *              a multiple of 256.
+     */
+    public void mapRom( int page, byte[] image )
+    {
+        map( page, image.length >> 8, image, 0, false );
+    }
+    
+    /**
+     * Maps pages onto a shared ROM image, read in place with writes dropped.
+     * 
+     * @param page First page.
+     * @param image The ROM, mapped from its first page.
+     */
+    public void mapRom( int page, RomImage image )
+    {
+        checkPages( page, image.getPageCount() );
+        for ( int i = 0; i < image.getPageCount(); ++i )
+        {
+            map( page + i, 1, image.getPage( i ), 0, false );
+        }
+    }
+    
+    /**
+     * Maps pages onto part of a byte array, e.g. a bank of a larger ROM.
+     * 
+     * @param page First page.
+     * @param count Number of pages.
+     * @param bytes The array.
+     * @param offset Index in bytes of the first page, a multiple of 256.
+     * @param writable True to write to the array, false to drop writes.
+     */
+    public void map( int page, int count, byte[] bytes, int offset, boolean writable )
+    {
+        checkMap( page, count, bytes, offset );
+        for ( int i = 0; i < count; ++i )
+        {
+            mapRead( page + i, bytes, offset + ( i << 8 ) );
+            writeMap[ page + i ] = writable ? bytes : discard;
+            writeOffsets[ page + i ] = writable ? offset + ( i << 8 ) : 0;
+            devices[ page + i ] = null;
+            refresh( page + i );
+        }
+        updateAliases();
+    }
+    
+    /**
+     * Maps pages onto part of a byte array for reading, and hands writes
+     * to a device instead, e.g. a mapper that switches banks when its
+     * ROM is written. Remapping pages to other banks only changes page
+     * table entries, whatever the size of the bank.
+     * 
+     * @param page First page.
+     * @param count Number of pages.
+     * @param bytes The array, never written.
+     * @param offset Index in bytes of the first page, a multiple of 256.
+     * @param writes Device receiving writes to the pages at their own addresses.
+     */
+    public void map( int page, int count, byte[] bytes, int offset, MemoryDevice writes )
+    {
+        checkMap( page, count, bytes, offset );
+        for ( int i = 0; i < count; ++i )
+        {
+            mapRead( page + i, bytes, offset + ( i << 8 ) );
+            writeMap[ page + i ] = null;
+            writeOffsets[ page + i ] = ( page + i ) << 8;
+            devices[ page + i ] = writes;
+            refresh( page + i );
+        }
+        updateAliases();
+    }
+    
+    private void mapRead( int page, byte[] bytes, int offset )
+    {
+        if ( ramPages[ page ] >= 0 || readMap[ page ] == null )
+        {
+            // Was RAM or a device, which may have had aliases
+            aliasesStale = true;
+        }
+        if ( readMap[ page ] != bytes || readOffsets[ page ] != offset )
+        {
+            readMap[ page ] = bytes;
+            readOffsets[ page ] = offset;
+            remapped( page );
+        }
+        ramPages[ page ] = -1;
+    }
+    
+    private static void checkMap( int page, int count, byte[] bytes, int offset )
+    {
+        checkPages( page, count );
+        if ( ( offset & 0xff ) != 0 || offset < 0 || offset + ( count << 8 ) > bytes.length )
+        {
+            throw new IllegalArgumentException( "Can't map " + count + " pages at offset " + offset
+                    + " of " + bytes.length + " bytes" );
+        }
+    }
+    
+    /**
+     * Hands every access to pages over to a device.
+     * 
+     * @param page First page.
+     * @param count Number of pages.
+     * @param device The device.
+     */
+    public void mapDevice( int page, int count, MemoryDevice device )
+    {
+        checkPages( page, count );
+        for ( int i = 0; i < count; ++i )
+        {
+            readMap[ page + i ] = null;
+            readOffsets[ page + i ] = ( page + i ) << 8;
+            writeMap[ page + i ] = null;
+            writeOffsets[ page + i ] = ( page + i ) << 8;
+            devices[ page + i ] = device;
+            ramPages[ page + i ] = -1;
+            refresh( page + i );
+            remapped( page + i );
+        }
+        aliasesStale = true;
+        updateAliases();
+    }
+    
+    /**
+     * Makes pages mirrors of others, e.g. mirror( 0x08, 8, 0x00 ) repeats
+     * the NES' 2 KB of RAM at $0800. The mirror copies the source's current
+     * mapping; remapping the source later doesn't change the mirror. A
+     * device sees accesses to a mirror at the addresses of the source.
+     * 
+     * @param page First page of the mirror.
+     * @param count Number of pages.
+     * @param source First page being mirrored.
+     */
+    public void mirror( int page, int count, int source )
+    {
+        checkPages( page, count );
+        checkPages( source, count );
+        for ( int i = 0; i < count; ++i )
+        {
+            readMap[ page + i ] = readMap[ source + i ];
+            readOffsets[ page + i ] = readOffsets[ source + i ];
+            writeMap[ page + i ] = writeMap[ source + i ];
+            writeOffsets[ page + i ] = writeOffsets[ source + i ];
+            devices[ page + i ] = devices[ source + i ];
+            ramPages[ page + i ] = ramPages[ source + i ];
+            if ( ramPages[ page + i ] >= 0 && ramPages[ page + i ] != page + i )
+            {
+                ramMirrored = true;
+            }
+            refresh( page + i );
+            remapped( page + i );
+        }
+        aliasesStale = true;
+        updateAliases();
+    }
+    
+    /**
+     * Groups pages by the RAM page, or device and address, their writes
+     * go to, if the page table has changed in a way that could move them.
+     */
+    private void updateAliases()
+    {
+        if ( !aliasesStale )
+            return;
+        aliasesStale = false;
+        Map<Object, List<Integer>> groups = new HashMap<Object, List<Integer>>();
+        for ( int page = 0; page < 256; ++page )
+        {
+            Object key;
+            if ( ramPages[ page ] >= 0 )
+                key = ramPages[ page ];
+            else if ( readMap[ page ] == null && devices[ page ] != null )
+                key = Arrays.asList( devices[ page ], readOffsets[ page ] );
+            else
+                key = null;
+            if ( key != null )
+            {
+                List<Integer> group = groups.get( key );
+                if ( group == null )
+                {
+                    group = new ArrayList<Integer>();
+                    groups.put( key, group );
+                }
+                group.add( page );
+            }
+        }
+        Arrays.fill( aliases, null );
+        for ( List<Integer> group : groups.values() )
+        {
+            if ( group.size() < 2 )
+                continue;
+            int[] pages = new int[ group.size() ];
+            for ( int i = 0; i < pages.length; ++i )
+                pages[ i ] = group.get( i );
+            for ( int page : pages )
+                aliases[ page ] = pages;
+        }
+    }
+    
+    /**
+     * Returns the pages whose writes land on the same bytes as a page's,
+     * the page itself included, e.g. every mirror of a RAM page. Callers
+     * mustn't change the array.
+     * 
+     * @return The pages, or null if no other page shares the page's bytes.
+     */
+    int[] getAliases( int page )
+    {
+        return aliases[ page & 0xff ];
+    }
+    
+    /**
+     * Fills in a page's fast table entries from the page table, leaving out
+     * the kinds of access being watched, or all of them while counting.
+     */
+    private void refresh( int page )
+    {
+        int kinds = pageReads != null ? WATCH_READ | WATCH_WRITE | WATCH_EXECUTE : watchKinds[ page ];
+        readPages[ page ] = ( kinds & WATCH_READ ) != 0 ? null : readMap[ page ];
+        writePages[ page ] = ( kinds & WATCH_WRITE ) != 0 ? null : writeMap[ page ];
+        fetchPages[ page ] = ( kinds & WATCH_EXECUTE ) != 0 ? null : readMap[ page ];
+    }
+    
+    /* WATCHPOINTS */
+    /* Watchpoints are on bus addresses: watching RAM doesn't watch its mirrors. */
+    
+    /**
+     * Watches a range of addresses. Reads see the value read, writes the
+     * value about to be written; the access then goes ahead as usual.
+     * Execute watchpoints only see opcodes fetched with fetch().
+     * 
+     * @param start First address watched.
+     * @param end Last address watched, inclusive.
+     * @param kinds WATCH_READ, WATCH_WRITE and / or WATCH_EXECUTE.
+     * @param listener Called on every matching access, or null to only count them.
+     * @return The watchpoint, for unwatch().
+     */
+    public Watchpoint watch( int start, int end, int kinds, WatchListener listener )
+    {
+        Watchpoint watchpoint = new Watchpoint( start & 0xffff, end & 0xffff, kinds, listener );
+        for ( int page = watchpoint.getStart() >> 8; page <= watchpoint.getEnd() >> 8; ++page )
+        {
+            List<Watchpoint> onPage = watches.get( page );
+            onPage = ( onPage == null ) ? new ArrayList<Watchpoint>() : new ArrayList<Watchpoint>( onPage );
+            onPage.add( watchpoint );
+            watches.set( page, onPage );
+            updateWatches( page );
+        }
+        return watchpoint;
+    }
+    
+    /**
+     * Stops watching.
+     * 
+     * @param watchpoint A watchpoint returned by watch().
+     */
+    public void unwatch( Watchpoint watchpoint )
+    {
+        for ( int page = watchpoint.getStart() >> 8; page <= watchpoint.getEnd() >> 8; ++page )
+        {
+            List<Watchpoint> onPage = watches.get( page );
+            if ( onPage == null )
+                continue;
+            onPage = new ArrayList<Watchpoint>( onPage );
+            onPage.remove( watchpoint );
+            watches.set( page, onPage.isEmpty() ? null : onPage );
+            updateWatches( page );
+        }
+    }
+    
+    private void updateWatches( int page )
+    {
+        int kinds = 0;
+        List<Watchpoint> onPage = watches.get( page );
+        if ( onPage != null )
+        {
+            for ( Watchpoint watchpoint : onPage )
+                kinds |= watchpoint.getKinds();
+        }
+        watchKinds[ page ] = kinds;
+        refresh( page );
+        watchGeneration++;
+    }
+    
+    private void hit( int page, int addr, int val, int kind )
+    {
+        for ( Watchpoint watchpoint : watches.get( page ) )
+        {
+            watchpoint.check( addr, val, kind );
+        }
+    }
+    
+    /**
+     * Returns true if any address on a page is watched for any of the given kinds.
+     */
+    public boolean isWatched( int page, int kinds )
+    {
+        return ( watchKinds[ page & 0xff ] & kinds ) != 0;
+    }
+    
+    /**
+     * Returns a number that changes whenever a watchpoint is added or
+     * removed, so callers can cache isWatched() until it does.
+     */
+    public int getWatchGeneration()
+    {
+        return watchGeneration;
+    }
+    
+    void remapped( int page )
+    {
+        pageGenerations[ page ]++;
+        mapGeneration++;
+    }
+    
+    /**
+     * Marks a page and every page sharing its bytes as remapped, for
+     * subclasses replacing what they hold other than by writes.
+     */
+    void replaced( int page )
+    {
+        int[] pages = aliases[ page ];
+        if ( pages == null )
+        {
+            remapped( page );
+            return;
+        }
+        for ( int alias : pages )
+            remapped( alias );
+    }
+    
+    /**
+     * Returns a number that changes whenever any page is remapped.
+     */
+    public int getMapGeneration()
+    {
+        return mapGeneration;
+    }
+    
+    /**
+     * Returns a number that changes whenever a page is remapped, or its
+     * contents replaced other than by writes, e.g. by restore().
+     */
+    public int getPageGeneration( int page )
+    {
+        return pageGenerations[ page & 0xff ];
+    }
+    
+    /**
+     * Returns the device a page is mapped to, or that takes its writes,
+     * or null if it is RAM or ROM.
+     */
+    public MemoryDevice getDevice( int page )
+    {
+        return devices[ page & 0xff ];
+    }
+    
+    static void checkPages( int page, int count )
+    {
+        if ( page < 0 || count < 0 || page + count > 256 )
+        {
+            throw new IllegalArgumentException( "Pages " + page + " to " + ( page + count - 1 ) + " are out of range" );
+        }
+    }
+    
+    /**
+     * Turns counting of reads and writes per page on or off. Counting
+     * empties the fast tables, so every access takes the slow path where
+     * it is counted; off, it costs nothing, and is off by default.
+     * Turning it on starts the counts from zero.
+     * 
+     * Not thread-safe: change it only from the thread running the machine,
+     * or while the machine is paused.
+     * 
+     * @param on True to count accesses.
+     */
+    public void setCounting( boolean on )
+    {
+        pageReads = on ? new long[256] : null;
+        pageWrites = on ? new long[256] : null;
+        for ( int page = 0; page < 256; ++page )
+        {
+            refresh( page );
+        }
+    }
+    
+    public boolean isCounting()
+    {
+        return pageReads != null;
+    }
+    
+    /**
+     * Returns the reads of each page since counting was turned on, indexed
+     * by the high byte of the address. All zero if not counting.
+     */
+    public long[] getPageReads()
+    {
+        long[] counts = pageReads;
+        return counts == null ? new long[256] : counts.clone();
+    }
+    
+    /**
+     * Returns the writes to each page since counting was turned on, indexed
+     * by the high byte of the address. All zero if not counting.
+     */
+    public long[] getPageWrites()
+    {
+        long[] counts = pageWrites;
+        return counts == null ? new long[256] : counts.clone();
+    }
+    
+    /**
+     * Copies a binary image into memory.
+     * 
+     * @param addr Address of the first byte of the image.
+     * @param image The bytes to load. Addresses past $ffff wrap to $0000.
+     */
+    public void load( int addr, byte[] image )
+    {
+        for ( int i = 0; i < image.length; ++i )
+        {
+            write( addr + i, image[i] );
+        }
+    }
+    
+    /**
+     * Loads a shared image into RAM without copying it. Its pages become
+     * this memory's RAM pages, copy-on-write like pages shared with a
+     * snapshot, so only the pages the machine writes are ever copied.
+     * Unlike load( addr, bytes ), the RAM pages are replaced whatever the
+     * page table maps at those addresses.
+     * 
+     * @param page First RAM page.
+     * @param image The image, from its first page.
+     */
+    public void load( int page, RomImage image )
+    {
+        checkPages( page, image.getPageCount() );
+        for ( int i = 0; i < image.getPageCount(); ++i )
+        {
+            int r = page + i;
+            if ( owned[ r ] )
+            {
+                disown( r );
+            }
+            ram[ r ] = image.getPage( i );
+            remapRam( r );
+            ramReplaced( r );
+        }
+    }
+    
+    /**
+     * Retrieves a copy of a Byte from memory. Changing the copy doesn't
+     * change memory, use write() for that.
+     * 
+     * @param addr Address of the Byte to be retrieved, wrapped to 16 bits.
+     * @return A copy of the Byte referenced by addr.
+     */
+    public Byte getByte( int addr )
+    {
+        return new Byte( peek( addr ) );
+    }
+    
     /**
-     * Retrieves a Byte from memory.
+     * Retrieves a copy of a Byte from memory.
      * 
      * @param addr Word containing the address of the Byte to be retrieved.
-     * @return The Byte referenced by addr.
+     * @return A copy of the Byte referenced by addr.
      */
     public Byte getByte( Word addr )
     {
@@ -52,15 +911,15 @@ public class Memory
         }
         else
         {
-            return theMemory[ addr.getVal() ];
+            return new Byte( peek( addr.getVal() ) );
         }
     }
     
     /**
-     * Retrieves a Byte from memory.
+     * Retrieves a copy of a Byte from memory.
      * 
      * @param addr Byte containing the address of the Word to be retrieved (in Zero Page).
-     * @return The Byte referenced by addr.
+     * @return A copy of the Byte referenced by addr.
      */
     public Byte getByte( Byte addr )
     {
@@ -71,15 +930,16 @@ public class Memory
         }
         else
         {
-            return theMemory[ addr.getVal() ];
+            return new Byte( peek( addr.getVal() ) );
         }
     }
     
     /**
-     * Retrieves a Word from memory.
+     * Retrieves a copy of a Word from memory. Use readWord() to read
+     * without allocating.
      * 
      * @param addr Word containing the address of the Word to be retrieved.
-     * @return The Word referenced by addr.
+     * @return A copy of the Word referenced by addr.
      */
     public Word getWord( Word addr )
     {
@@ -91,15 +951,15 @@ public class Memory
         else
         {
         	// Get the word at that address
-            return new Word( theMemory[ addr.getVal() ], theMemory[ addr.getVal() + 1 ] );
+            return new Word( getByte( addr.getVal() ), getByte( addr.getVal() + 1 ) );
         }
     }
     
     /**
-     * Retrieves a Word from memory.
+     * Retrieves a copy of a Word from memory.
      * 
      * @param addr Byte containing the address of the Word to be retrieved (in Zero Page).
-     * @return The Word referenced by addr.
+     * @return A copy of the Word referenced by addr.
      */
     public Word getWord( Byte addr )
     {
@@ -111,7 +971,7 @@ public class Memory
         else
         {
         	// Get the word at that address
-            return new Word( theMemory[ addr.getVal() ], theMemory[ addr.getVal() + 1 ] );
+            return new Word( getByte( addr.getVal() ), getByte( addr.getVal() + 1 ) );
         }
     }
 }
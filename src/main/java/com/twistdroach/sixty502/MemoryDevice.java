@@ -0,0 +1,45 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MemoryDevice.java
+ * Hardware mapped into the address space, such as I/O registers. Memory
+ * hands every access to a page mapped to a device over to it; pages of
+ * plain RAM or ROM never touch a device.
+ *
+ * Devices are called on the thread running the machine and need not be
+ * thread-safe.
+ *
+ * @author Christopher Erickson
+ */
+
+public interface MemoryDevice
+{
+    /**
+     * Reads a byte.
+     *
+     * @param addr The 16-bit address read. Reads of a page made a mirror
+     *             by Memory.mirror() arrive at the address of the source.
+     * @return The value read ( 0 <= value <= 255 ).
+     */
+    int read( int addr );
+
+    /**
+     * Writes a byte.
+     *
+     * @param addr The 16-bit address written, translated like read()'s.
+     * @param val The value written ( 0 <= val <= 255 ).
+     */
+    void write( int addr, int val );
+
+    /**
+     * Reads a byte for a debugger or digest. Devices whose reads have side
+     * effects, like clearing a status flag, should override this to avoid them.
+     *
+     * @param addr The 16-bit address read, translated like read()'s.
+     * @return The value read ( 0 <= value <= 255 ).
+     */
+    default int peek( int addr )
+    {
+        return read( addr );
+    }
+}
@@ -0,0 +1,54 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MemorySnapshot.java
+ * The contents of RAM at one moment, see Memory.snapshot(). Pages are
+ * shared copy-on-write with the memory they came from and with other
+ * snapshots, so a snapshot costs little more than the pages that changed
+ * since the one before it.
+ *
+ * Snapshots never change, so they can be shared between threads and
+ * restored into any number of machines.
+ *
+ * @author Christopher Erickson
+ */
+
+public class MemorySnapshot
+{
+    private byte[][] thePages;
+
+    /**
+     * @param pages The 256 RAM pages. Nothing may write to them from now on.
+     */
+    MemorySnapshot( byte[][] pages )
+    {
+        thePages = pages;
+    }
+
+    /**
+     * Reads an unsigned byte of RAM. Mirrors, ROM and devices aren't part
+     * of a snapshot, so this is the byte of RAM at addr itself, whatever
+     * was mapped there.
+     *
+     * @param addr Address to read, wrapped to 16 bits.
+     * @return The value stored at addr ( 0 <= value <= 255 ).
+     */
+    public int peek( int addr )
+    {
+        return thePages[ ( addr >> 8 ) & 0xff ][ addr & 0xff ] & 0xff;
+    }
+
+    /**
+     * Returns true if a page is the very same array in both snapshots, in
+     * which case it can't differ.
+     */
+    public boolean sharesPage( MemorySnapshot other, int page )
+    {
+        return thePages[ page & 0xff ] == other.thePages[ page & 0xff ];
+    }
+
+    byte[][] getPages()
+    {
+        return thePages;
+    }
+}
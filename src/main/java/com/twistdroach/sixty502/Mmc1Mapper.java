@@ -0,0 +1,103 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Mmc1Mapper.java
+ * Mapper 1, Nintendo's MMC1. Registers are loaded a bit at a time: five
+ * writes of bit 0, the last of which picks the register by address
+ * ( $8000 control, $A000 and $C000 CHR banks, $E000 PRG bank ). A write
+ * with bit 7 set starts over and fixes the last bank at $C000.
+ *
+ * The control register picks one of three PRG modes: a 32 KB bank at
+ * $8000, the first bank fixed at $8000 and a 16 KB bank at $C000, or a
+ * 16 KB bank at $8000 and the last bank fixed at $C000. Boards with
+ * 512 KB of PRG ( SUROM ) take bit 4 of the first CHR bank as the upper
+ * half. The MMC1's habit of ignoring the second of two writes on back to
+ * back cycles isn't emulated.
+ *
+ * @author Christopher Erickson
+ */
+
+public class Mmc1Mapper extends Mapper
+{
+    /* Empty shift register, the 1 falls out after five writes */
+    private static final int EMPTY = 0x10;
+
+    private int shift;
+    private int control;
+    private int chr0;
+    private int chr1;
+    private int prgBank;
+    /* True for boards switching 256 KB halves with the CHR bank */
+    private boolean large;
+
+    public Mmc1Mapper( Cartridge cartridge )
+    {
+        super( cartridge );
+        large = cartridge.getPrgSize() > 0x40000;
+    }
+
+    public void reset()
+    {
+        shift = EMPTY;
+        control = 0x0c;
+        chr0 = 0;
+        chr1 = 0;
+        prgBank = 0;
+        mapBanks();
+    }
+
+    public void write( int addr, int val )
+    {
+        if ( ( val & 0x80 ) != 0 )
+        {
+            shift = EMPTY;
+            control |= 0x0c;
+            mapBanks();
+            return;
+        }
+        boolean full = ( shift & 1 ) != 0;
+        shift = ( shift >> 1 ) | ( ( val & 1 ) << 4 );
+        if ( !full )
+        {
+            return;
+        }
+        switch ( ( addr >> 13 ) & 3 )
+        {
+            case 0:
+                control = shift;
+                break;
+            case 1:
+                chr0 = shift;
+                break;
+            case 2:
+                chr1 = shift;
+                break;
+            default:
+                prgBank = shift;
+                break;
+        }
+        shift = EMPTY;
+        mapBanks();
+    }
+
+    private void mapBanks()
+    {
+        // 16 KB bank numbers
+        int outer = large ? chr0 & 0x10 : 0;
+        int bank = outer | ( prgBank & 0x0f );
+        switch ( ( control >> 2 ) & 3 )
+        {
+            case 2:
+                mapPrg( 0x8000, 0x4000, outer );
+                mapPrg( 0xc000, 0x4000, bank );
+                break;
+            case 3:
+                mapPrg( 0x8000, 0x4000, bank );
+                mapPrg( 0xc000, 0x4000, outer | 0x0f );
+                break;
+            default:
+                mapPrg( 0x8000, 0x8000, bank >> 1 );
+                break;
+        }
+    }
+}
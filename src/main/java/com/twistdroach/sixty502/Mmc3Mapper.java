@@ -0,0 +1,125 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Mmc3Mapper.java
+ * Mapper 4, Nintendo's MMC3. PRG ROM is switched in 8 KB banks: R6 and R7
+ * pick two, the last bank is fixed at $E000 and the second last at
+ * $C000, or at $8000 with R6 at $C000 when bit 6 of the bank select is
+ * set. Even addresses in $8000-$9FFF select a register, odd ones load it.
+ *
+ * The MMC3 also counts scanlines to interrupt mid-frame. With no PPU here
+ * to clock it, whoever draws the frame calls scanline() once per line and
+ * raises an IRQ while it returns true. Mirroring and PRG RAM protection
+ * are left to the rest of the board.
+ *
+ * @author Christopher Erickson
+ */
+
+public class Mmc3Mapper extends Mapper
+{
+    private int bankSelect;
+    /* R0-R5 are CHR banks, R6 and R7 PRG banks */
+    private int[] registers = new int[8];
+    private int irqLatch;
+    private int irqCounter;
+    private boolean irqReload;
+    private boolean irqEnabled;
+    private boolean irqPending;
+
+    public Mmc3Mapper( Cartridge cartridge )
+    {
+        super( cartridge );
+    }
+
+    public void reset()
+    {
+        bankSelect = 0;
+        for ( int i = 0; i < registers.length; ++i )
+        {
+            registers[i] = 0;
+        }
+        irqLatch = 0;
+        irqCounter = 0;
+        irqReload = false;
+        irqEnabled = false;
+        irqPending = false;
+        mapBanks();
+    }
+
+    public void write( int addr, int val )
+    {
+        boolean odd = ( addr & 1 ) != 0;
+        switch ( addr & 0xe000 )
+        {
+            case 0x8000:
+                if ( !odd )
+                {
+                    bankSelect = val;
+                    mapBanks();
+                }
+                else
+                {
+                    registers[bankSelect & 7] = val;
+                    if ( ( bankSelect & 7 ) >= 6 )
+                    {
+                        mapBanks();
+                    }
+                }
+                break;
+            case 0xc000:
+                if ( !odd )
+                {
+                    irqLatch = val;
+                }
+                else
+                {
+                    irqCounter = 0;
+                    irqReload = true;
+                }
+                break;
+            case 0xe000:
+                irqEnabled = odd;
+                if ( !odd )
+                {
+                    irqPending = false;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void mapBanks()
+    {
+        boolean swapped = ( bankSelect & 0x40 ) != 0;
+        mapPrg( 0x8000, 0x2000, swapped ? -2 : registers[6] & 0x3f );
+        mapPrg( 0xa000, 0x2000, registers[7] & 0x3f );
+        mapPrg( 0xc000, 0x2000, swapped ? registers[6] & 0x3f : -2 );
+        mapPrg( 0xe000, 0x2000, -1 );
+    }
+
+    /**
+     * Clocks the scanline counter, reloading it from the latch when it is
+     * zero or a reload was asked for.
+     *
+     * @return True while the IRQ is asserted, until the game acknowledges
+     *         it by writing $E000.
+     */
+    public boolean scanline()
+    {
+        if ( irqCounter == 0 || irqReload )
+        {
+            irqCounter = irqLatch;
+            irqReload = false;
+        }
+        else
+        {
+            irqCounter--;
+        }
+        if ( irqCounter == 0 && irqEnabled )
+        {
+            irqPending = true;
+        }
+        return irqPending;
+    }
+}
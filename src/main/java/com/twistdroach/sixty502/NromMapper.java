@@ -0,0 +1,29 @@
+package com.twistdroach.sixty502;
+
+/**
+ * NromMapper.java
+ * Mapper 0, no bank switching: 32 KB of PRG ROM at $8000, or 16 KB
+ * there and again at $C000.
+ *
+ * @author Christopher Erickson
+ */
+
+public class NromMapper extends Mapper
+{
+    public NromMapper( Cartridge cartridge )
+    {
+        super( cartridge );
+    }
+
+    public void reset()
+    {
+        mapPrg( 0x8000, 0x8000, 0 );
+    }
+
+    /**
+     * Writes to ROM do nothing.
+     */
+    public void write( int addr, int val )
+    {
+    }
+}
@@ -0,0 +1,25 @@
+package com.twistdroach.sixty502;
+
+/**
+ * NullTraceSink.java
+ * Discards everything. The default sink, for headless runs.
+ *
+ * @author Christopher Erickson
+ */
+
+public final class NullTraceSink implements TraceSink
+{
+    public static final NullTraceSink INSTANCE = new NullTraceSink();
+
+    private NullTraceSink()
+    {
+    }
+
+    public void trace( int index, Instruction inst, CpuState state )
+    {
+    }
+
+    public void close()
+    {
+    }
+}
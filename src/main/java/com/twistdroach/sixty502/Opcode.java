@@ -0,0 +1,48 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Opcode.java
+ * Enumerates the 6502 mnemonics understood by the processor.
+ * Opcodes are resolved once when a program is parsed so the processor
+ * can dispatch on the ordinal instead of comparing strings every step.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+public enum Opcode
+{
+	ADC, AND, ASL, BCC, BCS, BEQ, BIT, BMI, BNE, BPL, BRK, BVC, BVS, CLC,
+	CLD, CLI, CLV, CMP, CPX, CPY, DEC, DEX, DEY, EOR, INC, INX, INY, JMP,
+	JSR, LDA, LDX, LDY, LSR, NOP, ORA, PHA, PHP, PLA, PLP, ROL, ROR, RTI,
+	RTS, SBC, SEC, SED, SEI, STA, STX, STY, TAX, TAY, TSX, TXA, TXS, TYA;
+
+	/* Mnemonic lookup, both upper and lower case */
+	private static final Map<String, Opcode> mnemonics = new HashMap<String, Opcode>();
+
+	static
+	{
+		for ( Opcode op : values() )
+		{
+			mnemonics.put( op.name(), op );
+			mnemonics.put( op.name().toLowerCase(), op );
+		}
+	}
+
+    /**
+     * Resolves a mnemonic to its Opcode.
+     *
+     * @param mnemonic 3-character opcode name, all upper or all lower case.
+     * @return The matching Opcode, or null if the mnemonic is not supported.
+     */
+	public static Opcode lookup( String mnemonic )
+	{
+		if ( mnemonic == null )
+		{
+			return null;
+		}
+		return mnemonics.get( mnemonic );
+	}
+}
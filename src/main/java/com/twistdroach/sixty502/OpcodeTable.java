@@ -0,0 +1,360 @@
+package com.twistdroach.sixty502;
+
+/**
+ * OpcodeTable.java
+ * Decodes 6502 machine code. Each of the 256 opcode bytes maps to
+ * an Opcode and an AddressingMode; bytes that are not official
+ * opcodes map to null. Also holds the base cycle count of each opcode
+ * and whether crossing a page while indexing costs an extra cycle.
+ *
+ * @author Christopher Erickson
+ */
+
+import static com.twistdroach.sixty502.AddressingMode.*;
+import static com.twistdroach.sixty502.Opcode.*;
+
+public class OpcodeTable
+{
+	/* Decode tables, indexed by opcode byte */
+	private static final Opcode[] opcodes = new Opcode[256];
+	private static final AddressingMode[] modes = new AddressingMode[256];
+	private static final int[] cycles = new int[256];
+	private static final boolean[] pagePenalty = new boolean[256];
+
+	static
+	{
+		add( 0x69, ADC, IMMEDIATE );
+		add( 0x65, ADC, ZERO_PAGE );
+		add( 0x75, ADC, ZERO_PAGE_X );
+		add( 0x6d, ADC, ABSOLUTE );
+		add( 0x7d, ADC, ABSOLUTE_X );
+		add( 0x79, ADC, ABSOLUTE_Y );
+		add( 0x61, ADC, INDEXED_INDIRECT );
+		add( 0x71, ADC, INDIRECT_INDEXED );
+
+		add( 0x29, AND, IMMEDIATE );
+		add( 0x25, AND, ZERO_PAGE );
+		add( 0x35, AND, ZERO_PAGE_X );
+		add( 0x2d, AND, ABSOLUTE );
+		add( 0x3d, AND, ABSOLUTE_X );
+		add( 0x39, AND, ABSOLUTE_Y );
+		add( 0x21, AND, INDEXED_INDIRECT );
+		add( 0x31, AND, INDIRECT_INDEXED );
+
+		add( 0x0a, ASL, ACCUMULATOR );
+		add( 0x06, ASL, ZERO_PAGE );
+		add( 0x16, ASL, ZERO_PAGE_X );
+		add( 0x0e, ASL, ABSOLUTE );
+		add( 0x1e, ASL, ABSOLUTE_X );
+
+		add( 0x90, BCC, RELATIVE );
+		add( 0xb0, BCS, RELATIVE );
+		add( 0xf0, BEQ, RELATIVE );
+		add( 0x30, BMI, RELATIVE );
+		add( 0xd0, BNE, RELATIVE );
+		add( 0x10, BPL, RELATIVE );
+		add( 0x50, BVC, RELATIVE );
+		add( 0x70, BVS, RELATIVE );
+
+		add( 0x24, BIT, ZERO_PAGE );
+		add( 0x2c, BIT, ABSOLUTE );
+
+		add( 0x00, BRK, IMPLIED );
+
+		add( 0x18, CLC, IMPLIED );
+		add( 0xd8, CLD, IMPLIED );
+		add( 0x58, CLI, IMPLIED );
+		add( 0xb8, CLV, IMPLIED );
+
+		add( 0xc9, CMP, IMMEDIATE );
+		add( 0xc5, CMP, ZERO_PAGE );
+		add( 0xd5, CMP, ZERO_PAGE_X );
+		add( 0xcd, CMP, ABSOLUTE );
+		add( 0xdd, CMP, ABSOLUTE_X );
+		add( 0xd9, CMP, ABSOLUTE_Y );
+		add( 0xc1, CMP, INDEXED_INDIRECT );
+		add( 0xd1, CMP, INDIRECT_INDEXED );
+
+		add( 0xe0, CPX, IMMEDIATE );
+		add( 0xe4, CPX, ZERO_PAGE );
+		add( 0xec, CPX, ABSOLUTE );
+
+		add( 0xc0, CPY, IMMEDIATE );
+		add( 0xc4, CPY, ZERO_PAGE );
+		add( 0xcc, CPY, ABSOLUTE );
+
+		add( 0xc6, DEC, ZERO_PAGE );
+		add( 0xd6, DEC, ZERO_PAGE_X );
+		add( 0xce, DEC, ABSOLUTE );
+		add( 0xde, DEC, ABSOLUTE_X );
+		add( 0xca, DEX, IMPLIED );
+		add( 0x88, DEY, IMPLIED );
+
+		add( 0x49, EOR, IMMEDIATE );
+		add( 0x45, EOR, ZERO_PAGE );
+		add( 0x55, EOR, ZERO_PAGE_X );
+		add( 0x4d, EOR, ABSOLUTE );
+		add( 0x5d, EOR, ABSOLUTE_X );
+		add( 0x59, EOR, ABSOLUTE_Y );
+		add( 0x41, EOR, INDEXED_INDIRECT );
+		add( 0x51, EOR, INDIRECT_INDEXED );
+
+		add( 0xe6, INC, ZERO_PAGE );
+		add( 0xf6, INC, ZERO_PAGE_X );
+		add( 0xee, INC, ABSOLUTE );
+		add( 0xfe, INC, ABSOLUTE_X );
+		add( 0xe8, INX, IMPLIED );
+		add( 0xc8, INY, IMPLIED );
+
+		add( 0x4c, JMP, ABSOLUTE );
+		add( 0x6c, JMP, INDIRECT );
+		add( 0x20, JSR, ABSOLUTE );
+
+		add( 0xa9, LDA, IMMEDIATE );
+		add( 0xa5, LDA, ZERO_PAGE );
+		add( 0xb5, LDA, ZERO_PAGE_X );
+		add( 0xad, LDA, ABSOLUTE );
+		add( 0xbd, LDA, ABSOLUTE_X );
+		add( 0xb9, LDA, ABSOLUTE_Y );
+		add( 0xa1, LDA, INDEXED_INDIRECT );
+		add( 0xb1, LDA, INDIRECT_INDEXED );
+
+		add( 0xa2, LDX, IMMEDIATE );
+		add( 0xa6, LDX, ZERO_PAGE );
+		add( 0xb6, LDX, ZERO_PAGE_Y );
+		add( 0xae, LDX, ABSOLUTE );
+		add( 0xbe, LDX, ABSOLUTE_Y );
+
+		add( 0xa0, LDY, IMMEDIATE );
+		add( 0xa4, LDY, ZERO_PAGE );
+		add( 0xb4, LDY, ZERO_PAGE_X );
+		add( 0xac, LDY, ABSOLUTE );
+		add( 0xbc, LDY, ABSOLUTE_X );
+
+		add( 0x4a, LSR, ACCUMULATOR );
+		add( 0x46, LSR, ZERO_PAGE );
+		add( 0x56, LSR, ZERO_PAGE_X );
+		add( 0x4e, LSR, ABSOLUTE );
+		add( 0x5e, LSR, ABSOLUTE_X );
+
+		add( 0xea, NOP, IMPLIED );
+
+		add( 0x09, ORA, IMMEDIATE );
+		add( 0x05, ORA, ZERO_PAGE );
+		add( 0x15, ORA, ZERO_PAGE_X );
+		add( 0x0d, ORA, ABSOLUTE );
+		add( 0x1d, ORA, ABSOLUTE_X );
+		add( 0x19, ORA, ABSOLUTE_Y );
+		add( 0x01, ORA, INDEXED_INDIRECT );
+		add( 0x11, ORA, INDIRECT_INDEXED );
+
+		add( 0x48, PHA, IMPLIED );
+		add( 0x08, PHP, IMPLIED );
+		add( 0x68, PLA, IMPLIED );
+		add( 0x28, PLP, IMPLIED );
+
+		add( 0x2a, ROL, ACCUMULATOR );
+		add( 0x26, ROL, ZERO_PAGE );
+		add( 0x36, ROL, ZERO_PAGE_X );
+		add( 0x2e, ROL, ABSOLUTE );
+		add( 0x3e, ROL, ABSOLUTE_X );
+
+		add( 0x6a, ROR, ACCUMULATOR );
+		add( 0x66, ROR, ZERO_PAGE );
+		add( 0x76, ROR, ZERO_PAGE_X );
+		add( 0x6e, ROR, ABSOLUTE );
+		add( 0x7e, ROR, ABSOLUTE_X );
+
+		add( 0x40, RTI, IMPLIED );
+		add( 0x60, RTS, IMPLIED );
+
+		add( 0xe9, SBC, IMMEDIATE );
+		add( 0xe5, SBC, ZERO_PAGE );
+		add( 0xf5, SBC, ZERO_PAGE_X );
+		add( 0xed, SBC, ABSOLUTE );
+		add( 0xfd, SBC, ABSOLUTE_X );
+		add( 0xf9, SBC, ABSOLUTE_Y );
+		add( 0xe1, SBC, INDEXED_INDIRECT );
+		add( 0xf1, SBC, INDIRECT_INDEXED );
+
+		add( 0x38, SEC, IMPLIED );
+		add( 0xf8, SED, IMPLIED );
+		add( 0x78, SEI, IMPLIED );
+
+		add( 0x85, STA, ZERO_PAGE );
+		add( 0x95, STA, ZERO_PAGE_X );
+		add( 0x8d, STA, ABSOLUTE );
+		add( 0x9d, STA, ABSOLUTE_X );
+		add( 0x99, STA, ABSOLUTE_Y );
+		add( 0x81, STA, INDEXED_INDIRECT );
+		add( 0x91, STA, INDIRECT_INDEXED );
+
+		add( 0x86, STX, ZERO_PAGE );
+		add( 0x96, STX, ZERO_PAGE_Y );
+		add( 0x8e, STX, ABSOLUTE );
+
+		add( 0x84, STY, ZERO_PAGE );
+		add( 0x94, STY, ZERO_PAGE_X );
+		add( 0x8c, STY, ABSOLUTE );
+
+		add( 0xaa, TAX, IMPLIED );
+		add( 0xa8, TAY, IMPLIED );
+		add( 0xba, TSX, IMPLIED );
+		add( 0x8a, TXA, IMPLIED );
+		add( 0x9a, TXS, IMPLIED );
+		add( 0x98, TYA, IMPLIED );
+	}
+
+    /**
+     * Stop java from creating instances of a static class
+     */
+	private OpcodeTable()
+	{
+	}
+
+	private static void add( int opcode, Opcode op, AddressingMode mode )
+	{
+		opcodes[opcode] = op;
+		modes[opcode] = mode;
+		cycles[opcode] = getCycles( op, mode );
+		pagePenalty[opcode] = hasPagePenalty( op, mode );
+	}
+
+    /**
+     * Returns the instruction encoded by an opcode byte.
+     *
+     * @param opcode The opcode byte ( 0 <= opcode <= 255 ).
+     * @return The Opcode, or null if the byte is not an official opcode.
+     */
+	public static Opcode getOpcode( int opcode )
+	{
+		return opcodes[opcode];
+	}
+
+    /**
+     * Returns the addressing mode encoded by an opcode byte.
+     *
+     * @param opcode The opcode byte ( 0 <= opcode <= 255 ).
+     * @return The AddressingMode, or null if the byte is not an official opcode.
+     */
+	public static AddressingMode getMode( int opcode )
+	{
+		return modes[opcode];
+	}
+
+    /**
+     * Returns the number of cycles an opcode byte takes, not counting
+     * page crossings or taken branches.
+     *
+     * @param opcode The opcode byte ( 0 <= opcode <= 255 ).
+     * @return Base cycle count, or 0 if the byte is not an official opcode.
+     */
+	public static int getCycles( int opcode )
+	{
+		return cycles[opcode];
+	}
+
+    /**
+     * Returns true if an opcode byte takes an extra cycle when indexing crosses a page.
+     *
+     * @param opcode The opcode byte ( 0 <= opcode <= 255 ).
+     */
+	public static boolean hasPagePenalty( int opcode )
+	{
+		return pagePenalty[opcode];
+	}
+
+    /**
+     * Returns the number of cycles an instruction takes, not counting
+     * page crossings or taken branches. Also used for parsed source, where
+     * branches and jumps take their target as an immediate operand.
+     *
+     * @param op The instruction.
+     * @param mode Its addressing mode.
+     * @return Base cycle count.
+     */
+	public static int getCycles( Opcode op, AddressingMode mode )
+	{
+		switch ( op )
+		{
+		case BCC: case BCS: case BEQ: case BMI: case BNE: case BPL: case BVC: case BVS:
+			return 2;
+		case JMP:
+			return mode == INDIRECT ? 5 : 3;
+		case JSR: case RTS: case RTI:
+			return 6;
+		case BRK:
+			return 7;
+		case PHA: case PHP:
+			return 3;
+		case PLA: case PLP:
+			return 4;
+		default:
+			break;
+		}
+		boolean store = isStore( op );
+		boolean modify = isReadModifyWrite( op );
+		switch ( mode )
+		{
+		case ZERO_PAGE:
+			return modify ? 5 : 3;
+		case ZERO_PAGE_X:
+		case ZERO_PAGE_Y:
+			return modify ? 6 : 4;
+		case ABSOLUTE:
+			return modify ? 6 : 4;
+		case ABSOLUTE_X:
+		case ABSOLUTE_Y:
+			return modify ? 7 : ( store ? 5 : 4 );
+		case INDEXED_INDIRECT:
+			return 6;
+		case INDIRECT_INDEXED:
+			return store ? 6 : 5;
+		default:
+			return 2;   // Implied, accumulator and immediate
+		}
+	}
+
+    /**
+     * Returns true if an instruction takes an extra cycle when indexing crosses
+     * a page. Stores and read-modify-write instructions always take the longer path.
+     */
+	public static boolean hasPagePenalty( Opcode op, AddressingMode mode )
+	{
+		return ( mode == ABSOLUTE_X || mode == ABSOLUTE_Y || mode == INDIRECT_INDEXED )
+				&& !isStore( op ) && !isReadModifyWrite( op );
+	}
+
+	private static boolean isStore( Opcode op )
+	{
+		return op == STA || op == STX || op == STY;
+	}
+
+	private static boolean isReadModifyWrite( Opcode op )
+	{
+		return op == ASL || op == LSR || op == ROL || op == ROR || op == INC || op == DEC;
+	}
+
+    /**
+     * Returns the number of bytes an instruction takes, including the opcode.
+     *
+     * @param mode The instruction's addressing mode.
+     * @return Instruction length in bytes ( 1 to 3 ).
+     */
+	public static int getLength( AddressingMode mode )
+	{
+		switch ( mode )
+		{
+		case IMPLIED:
+		case ACCUMULATOR:
+			return 1;
+		case ABSOLUTE:
+		case ABSOLUTE_X:
+		case ABSOLUTE_Y:
+		case INDIRECT:
+			return 3;
+		default:
+			return 2;
+		}
+	}
+}
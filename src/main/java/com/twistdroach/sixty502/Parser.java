@@ -15,7 +15,9 @@ public class Parser
 {
 	/* Class Variables */
 	// Instruction classification                            Label       Inst              Operand                  Offset         Comment
-	private static Pattern instPattern = Pattern.compile( "^(\\w+:)?\\s*(\\w{3})\\s*(\\(?[\\w#<>%\\$]+\\)?)?[\\s,]*([xXyY]\\)?)?\\s*(;.*)?$" );
+	private static final Pattern instPattern = Pattern.compile( "^(\\w+:)?\\s*(\\w{3})\\s*(\\(?[\\w#<>%\\$]+\\)?)?[\\s,]*([xXyY]\\)?)?\\s*(;.*)?$" );
+	// A label on a line of its own, which names the next instruction
+	private static final Pattern labelPattern = Pattern.compile( "^\\s*(\\w+:)\\s*(;.*)?$" );
 	
     /**
      * Parses instructions from program data.
@@ -27,6 +29,7 @@ public class Parser
     {
     	Vector<Instruction> instructions = new Vector<Instruction>();
     	String line;
+    	String pendingLabel = null;
     	for ( int i = 0; i < program.size(); ++i )
     	{
     		line = program.get( i );
@@ -47,101 +50,179 @@ public class Parser
                 operand = matched.group( 3 );
                 offset = matched.group( 4 );
                 comment = matched.group( 5 );
+                if ( label == null )
+                {
+                	label = pendingLabel;
+                }
+                pendingLabel = null;
                 
                 instructions.add( new Instruction( label, opcode, operand, offset, comment ) );
             }
+            else
+            {
+            	matched = labelPattern.matcher( line );
+            	if ( matched.find() )
+            	{
+            		pendingLabel = matched.group( 1 );
+            	}
+            }
     	}
     	return instructions;
     }
     
     /**
-     * Returned either the immediate value of the operand as a Byte or the Byte referenced
-     * by the address value of the operand.
+     * Classifies the addressing mode of an operand.
      * 
      * @param operand The operand in string form.
-     * @param offset The offset (if it exists) in string form. ( "x" or "y" )
-     * @return Byte referenced or immediate value in Byte form.
+     * @param offset The offset (if it exists) in string form. ( "x", "y" or "x)" )
+     * @return The addressing mode, or null if the operand is a syntax error.
      */
-    public static Byte getReferenced( String operand, String offset )
+    public static AddressingMode getAddressingMode( String operand, String offset )
     {
-    	// Provide access to the memory
-    	Memory theMemory = Memory.getInstance();
-    	
     	if ( operand == null )
     	{
-    		return null; // No operand
+    		return AddressingMode.IMPLIED; // No operand
+    	}
+    	
+    	if ( operand.equals( "a" ) || operand.equals( "A" ) )
+    	{
+    		return AddressingMode.ACCUMULATOR;
+    	}
+
+    	// Labels and other expressions can't be resolved to a number
+    	if ( getOperandValue( operand ) < 0 )
+    	{
+    		return null;
     	}
 
     	// Determine whether this value is immediate or not
     	if ( operand.charAt( 0 ) == '#' )
     	{
     		// This is an immediate value. There will be no offset.
-   			return new Byte( operand.substring( 1, operand.length() ) );
+    		return offset == null ? AddressingMode.IMMEDIATE : null;
     	}
-    	else
+    	
+    	// Find out if this is going to be a dereferenced value
+    	if ( operand.charAt( 0 ) == '(' )
     	{
-    		// Find out if this is going to be a dereferenced value
-    		if ( operand.charAt( 0 ) == '(' )
+    		if ( offset == null )
+    		{
+    			// Only JMP may dereference a plain Word
+    			return operand.charAt( operand.length() - 1 ) == ')' ? AddressingMode.INDIRECT : null;
+    		}
+    		if ( operand.charAt( operand.length() - 1 ) == ')' && isOffset( offset, 'y' ) )
     		{
-    			// Indirect addresses must have an offset
-    			if ( offset == null )
-    			{
-    				// Syntax error
-    				return null;
-    			}
-    			
-    			// We're going to dereference something, let's figure out what
-    			if ( operand.charAt( operand.length() - 1 ) == ')' )
-    			{
-    				// Only dereferencing the operand - This means is has to be a Byte
-    				operand = operand.substring( 1, operand.length() - 1 );
-    				// Get the referenced Word in memory
-    				Word byteAddr = theMemory.getWord( new Byte( operand ) );
-    				// Add the offset (must be y, so we'll assume)
-    				int finalAddr = byteAddr.getVal() + Processor.Y.getVal();
-    				// Return the referenced Byte
-    				return theMemory.getByte( new Word( finalAddr ) );
-    			}
-    			else if ( offset.charAt( offset.length() - 1 ) == ')' )
-    			{
-    				// Dereference the operand + offset - Also has to be a Byte
-    				operand = operand.substring( 1, operand.length() );
-    				// Add the offset (must be x, so we'll assume)
-    				int finalAddr = new Byte( operand ).getVal() + Processor.X.getVal();
-    				// Get the referenced Word in memory
-    				Word byteAddr = theMemory.getWord( new Byte( finalAddr ) );
-    				// Return the referenced Byte
-    				return theMemory.getByte( byteAddr );
-    			}
-    			else
-    			{
-    				// Syntax error
-    				return null;
-    			}
+    			// Dereference the operand, then add y
+    			return AddressingMode.INDIRECT_INDEXED;
     		}
-    		else
+    		if ( offset.charAt( offset.length() - 1 ) == ')' && isOffset( offset, 'x' ) )
     		{
-    			// Nothing will be dereferenced
-    			if ( offset == null )
-    			{
-    				// Could be word or byte
-    				return theMemory.getByte( new Word( operand ) );
-    			}
-    			
-    			if ( offset.charAt( 0 ) == 'x' || offset.charAt( 0 ) == 'X' )
-    			{
-    				return theMemory.getByte( new Word ( new Byte( operand ).getVal() + Processor.X.getVal() ) );
-    			}
-    			else if ( offset.charAt( 0 ) == 'y' || offset.charAt( 0 ) == 'Y' )
-    			{
-        			return theMemory.getByte( new Word ( new Byte( operand ).getVal() + Processor.Y.getVal() ) );
-    			}
-    			else
-    			{
-    				// Syntax error
-    				return null;
-    			}
+    			// Add x to the operand, then dereference
+    			return AddressingMode.INDEXED_INDIRECT;
     		}
+    		// Syntax error
+    		return null;
+    	}
+    	
+    	// Nothing will be dereferenced, could be word or byte
+    	boolean zeroPage = isZeroPage( operand );
+    	if ( offset == null )
+    	{
+    		return zeroPage ? AddressingMode.ZERO_PAGE : AddressingMode.ABSOLUTE;
+    	}
+    	if ( offset.length() != 1 )
+    	{
+    		// Syntax error
+    		return null;
+    	}
+    	if ( isOffset( offset, 'x' ) )
+    	{
+    		return zeroPage ? AddressingMode.ZERO_PAGE_X : AddressingMode.ABSOLUTE_X;
+    	}
+    	if ( isOffset( offset, 'y' ) )
+    	{
+    		return zeroPage ? AddressingMode.ZERO_PAGE_Y : AddressingMode.ABSOLUTE_Y;
+    	}
+    	// Syntax error
+    	return null;
+    }
+    
+    /**
+     * Returns the numeric value of an operand, ignoring any '#', '(' or ')'.
+     * If the number starts with a '%', it gets converted from binary.
+     * If the number starts with a '$', it gets converted from hex.
+     * Otherwise, the number gets parsed as decimal.
+     * 
+     * @param operand The operand in string form.
+     * @return The value of the operand, or -1 if it is not a number.
+     */
+    public static int getOperandValue( String operand )
+    {
+    	if ( operand == null )
+    	{
+    		return -1;
     	}
+    	
+    	// Hack off the '#' or parentheses
+    	int begin = 0;
+    	int end = operand.length();
+    	if ( begin < end && ( operand.charAt( begin ) == '#' || operand.charAt( begin ) == '(' ) )
+    		begin++;
+    	if ( begin < end && operand.charAt( end - 1 ) == ')' )
+    		end--;
+    	if ( begin >= end )
+    	{
+    		return -1;
+    	}
+    	
+    	int radix = 10;
+    	if ( operand.charAt( begin ) == '%' )
+    	{
+    		radix = 2;
+    		begin++;
+    	}
+    	else if ( operand.charAt( begin ) == '$' )
+    	{
+    		radix = 16;
+    		begin++;
+    	}
+    	
+    	try
+    	{
+    		int value = Integer.parseInt( operand.substring( begin, end ), radix );
+    		return ( value < 0 || value > 0xffff ) ? -1 : value;
+    	}
+    	catch ( NumberFormatException ex )
+    	{
+    		return -1;
+    	}
+    }
+    
+    /**
+     * Determines whether an address operand fits in the zero page.
+     * Hex and binary operands are sized by their digits, so $0012 is absolute.
+     * 
+     * @param operand The operand in string form.
+     * @return True if the operand is a Byte address.
+     */
+    private static boolean isZeroPage( String operand )
+    {
+    	if ( operand.charAt( 0 ) == '$' )
+    	{
+    		return operand.length() <= 3;
+    	}
+    	if ( operand.charAt( 0 ) == '%' )
+    	{
+    		return operand.length() <= 9;
+    	}
+    	return getOperandValue( operand ) <= 0xff;
+    }
+    
+    /**
+     * Checks which register an offset names, ignoring case.
+     */
+    private static boolean isOffset( String offset, char register )
+    {
+    	return Character.toLowerCase( offset.charAt( 0 ) ) == register;
     }
 }
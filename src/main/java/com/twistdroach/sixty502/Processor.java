@@ -3,12 +3,14 @@ package com.twistdroach.sixty502;
 /**
  * Processor.java
  * Emulates the NES' main processor
- *
- * TODO: Correct addition & subtraction when in decimal mode.
  * 
  * @author Christopher Erickson and Christopher Pable
  */
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
 public class Processor
 {
     /* Status bit positions */
@@ -20,40 +22,78 @@ public class Processor
     public static final int P_I = 2;
     public static final int P_Z = 1;
     public static final int P_C = 0;
+    /* Operand locations other than memory addresses */
+    private static final int ACCUMULATOR = -1;
+    private static final int IMMEDIATE = -2;
     /* Stack location */
-    private static final Word stackOffset = new Word( "$0100" );
-    /* Registers */   		      //                   0 1 2 3 4 5 6 7
-    /* Registers */   		      //                   7 6 5 4 3 2 1 0
-    public static Register P;     // Status register - N|V|1|B|D|I|Z|C
-    public static Register A;     // Accumulator
-    public static Register X;     // Index register
-    public static Register Y;     // Index register
-    public static Register SP;    // Stack Pointer
-    public static PC PC;          // Program counter
+    private static final int STACK = 0x0100;
+    /* Instructions between checks for a pause request */
+    private static final int PAUSE_CHECK_MASK = 0xfff;
+    /* Registers - A, X, Y, SP, P and PC ( the index of the current instruction ) */
+    private CpuState state;
+    private int immediate;        // Value of the current immediate operand
     /* Program & Memory */
     private Program theProgram;
+    private boolean[] breakpoints; // Indexed by instruction, null if none were ever set
+    private boolean stopRequested; // Set by requestStop(), on the running thread
+    private TraceSink trace = NullTraceSink.INSTANCE;
+    private boolean sampled;      // True once registered with ThroughputEvent
+    /* Pause control, set from other threads */
+    private volatile boolean pauseRequested;
+    private volatile boolean paused;
+    private volatile Thread pausedThread;
+    /* Bumped as each run starts and again as it ends, so odd while one is
+       in progress. Published with release stores, which are plain stores
+       on x86, so stepping one instruction at a time stays cheap */
+    private int runCount;
+    private static final VarHandle RUN_COUNT;
 	private Memory theMemory;
     
+    static
+    {
+        try
+        {
+            RUN_COUNT = MethodHandles.lookup().findVarHandle( Processor.class, "runCount", int.class );
+        }
+        catch ( ReflectiveOperationException ex )
+        {
+            throw new ExceptionInInitializerError( ex );
+        }
+    }
+
     /**
-     * Creates an instance of a processor.
+     * Creates an instance of a processor with its own registers and memory.
      */
     public Processor()
     {
-        // Create registers
-        P = new Register();
-        A = new Register();
-        X = new Register();
-        Y = new Register();
-        SP = new Register();
-        PC = new PC();
-        
-        // Get an instance of the memory
-        theMemory = Memory.getInstance();
+        this( new CpuState(), new Memory() );
+    }
+
+    /**
+     * Creates a processor that runs on existing registers and memory.
+     * Nothing is shared between processors unless passed in here.
+     * 
+     * @param cpuState The registers to operate on.
+     * @param memory The memory to operate on.
+     */
+    public Processor( CpuState cpuState, Memory memory )
+    {
+        state = cpuState;
+        theMemory = memory;
     }
 
     /**
      * Creates a processor and starts using it to run a program.
      * 
+     * Usage:
+     *   Processor [-q | -trace file | -bintrace file | -ring n | -profile] file.asm
+     * 
+     * By default every instruction is traced to the console. -q runs
+     * headless, -trace writes the trace to a file instead, -bintrace
+     * writes it in binary ( see BinaryTraceReader ) and -ring keeps only
+     * the last n instructions, printed when the program ends. -profile
+     * prints the hottest instructions and loops when the program ends.
+     * 
      * @param args Command line arguments
      */
     public static void main( String[] args )
@@ -61,285 +101,563 @@ public class Processor
         // Create a processor!
         Processor NES = new Processor();
         
+        TraceSink console = new FileTraceSink( System.out );
+        TraceSink sink = console;
+        RingTraceSink ring = null;
+        boolean profile = false;
+        String programName = null;
+        for ( int i = 0; i < args.length; ++i )
+        {
+            if ( args[i].equals( "-q" ) )
+                sink = NullTraceSink.INSTANCE;
+            else if ( args[i].equals( "-trace" ) && i + 1 < args.length )
+                sink = new FileTraceSink( args[++i] );
+            else if ( args[i].equals( "-bintrace" ) && i + 1 < args.length )
+                sink = new BinaryTraceSink( args[++i] );
+            else if ( args[i].equals( "-ring" ) && i + 1 < args.length )
+                sink = ring = new RingTraceSink( Integer.parseInt( args[++i] ) );
+            else if ( args[i].equals( "-profile" ) )
+                profile = true;
+            else
+                programName = args[i];
+        }
+        
         // Run a program!
-        if ( args.length == 1 )
+        if ( programName != null )
         {
-            NES.start( args[0] );
+            NES.start( programName, profile ? null : sink );
+            sink.close();
+            if ( ring != null )
+            {
+                ring.dump( System.out );
+            }
+            if ( profile )
+            {
+                ( (Profiler) NES.getTraceSink() ).report( System.out, Profiler.DEFAULT_TOP );
+            }
+            if ( sink != console || profile )
+            {
+                NES.printAllRegisters();
+            }
         }
     }
 
     /**
      * Index the program and start the processor.
+     * 
+     * @param sink Where to trace to, or null to profile the run instead.
      */
-    private void start( String programName )
+    private void start( String programName, TraceSink sink )
     {       
     	// Print some information
     	System.out.println( "-------------------------------------------------" );
     	System.out.println( " 6502 Emulator by Chris Pable and Chris Erickson" );
     	System.out.println( "-------------------------------------------------" );
         // Read in our program
-        theProgram = new Program( programName );
+        load( new Program( programName ) );
+        setTraceSink( sink == null ? new Profiler( theProgram ) : sink );
         
-        // Execute the program
-        while ( PC.getVal() < theProgram.numInstructions() )
+        // Execute the program, through BRKs, tracing to the sink
+        while ( run() != StopReason.END_OF_PROGRAM )
         {
-        	Instruction curInst = theProgram.getInstruction( PC.getVal() );
-        	// Decode the operand
-        	Byte operand = Parser.getReferenced( curInst.getOperand(), curInst.getOffset() );
-        	// Decode the opcode
-        	String opcode = curInst.getOpcode();
-        	if ( opcode.equals("adc") || opcode.equals("ADC") )
-        	{
-        		ADC( operand );
-        	}
-        	else if ( opcode.equals("and") || opcode.equals("AND") )
-        	{
-        		AND( operand );
-        	}
-        	else if ( opcode.equals("asl") || opcode.equals("ASL") )
-        	{
-        		ASL( operand );
-        	}
-        	else if ( opcode.equals("bcc") || opcode.equals("BCC") )
-        	{
-        		BCC( operand );
-        	}
-        	else if ( opcode.equals("bcs") || opcode.equals("BCS") )
-        	{
-        		BCS( operand );
-        	}
-        	else if ( opcode.equals("beq") || opcode.equals("BEQ") )
-        	{
-        		BEQ( operand );
-        	}
-        	else if ( opcode.equals("bit") || opcode.equals("BIT") )
-        	{
-        		BIT( operand );
-        	}
-        	else if ( opcode.equals("bmi") || opcode.equals("BMI") )
-        	{
-        		BMI( operand );
-        	}
-        	else if ( opcode.equals("bne") || opcode.equals("BNE") )
-        	{
-        		BNE( operand );
-        	}
-        	else if ( opcode.equals("bpl") || opcode.equals("BPL") )
-        	{
-        		BPL( operand );
-        	}
-        	else if ( opcode.equals("brk") || opcode.equals("BRK") )
-        	{
-        		BRK();
-        	}
-        	else if ( opcode.equals("bvc") || opcode.equals("BVC") )
-        	{
-        		BVC( operand );
-        	}
-        	else if ( opcode.equals("bvs") || opcode.equals("BVS") )
-        	{
-        		BVS( operand );
-        	}
-        	else if ( opcode.equals("clc") || opcode.equals("CLC") )
-        	{
-        		CLC();
-        	}
-        	else if ( opcode.equals("cld") || opcode.equals("CLD") )
-        	{
-        		CLD();
-        	}
-        	else if ( opcode.equals("cli") || opcode.equals("CLI") )
-        	{
-        		CLI();
-        	}
-        	else if ( opcode.equals("clv") || opcode.equals("CLV") )
-        	{
-        		CLV();
-        	}
-        	else if ( opcode.equals("cmp") || opcode.equals("CMP") )
-        	{
-        		CMP( operand );
-        	}
-        	else if ( opcode.equals("cpx") || opcode.equals("CPX") )
-        	{
-        		CPX( operand );
-        	}
-        	else if ( opcode.equals("cpy") || opcode.equals("CPY") )
-        	{
-        		CPY( operand );
-        	}
-        	else if ( opcode.equals("dec") || opcode.equals("DEC") )
-        	{
-        		DEC( operand );
-        	}
-        	else if ( opcode.equals("dex") || opcode.equals("DEX") )
-        	{
-        		DEX();
-        	}
-        	else if ( opcode.equals("dey") || opcode.equals("DEY") )
-        	{
-        		DEY();
-        	}
-        	else if ( opcode.equals("eor") || opcode.equals("EOR") )
-        	{
-        		EOR( operand );
-        	}
-        	else if ( opcode.equals("inc") || opcode.equals("INC") )
-        	{
-        		INC( operand );
-        	}
-        	else if ( opcode.equals("inx") || opcode.equals("INX") )
-        	{
-        		INX();
-        	}
-        	else if ( opcode.equals("iny") || opcode.equals("INY") )
-        	{
-        		INY();
-        	}
-        	else if ( opcode.equals("jmp") || opcode.equals("JMP") )
-        	{
-        		JMP( operand );
-        	}
-        	else if ( opcode.equals("jsr") || opcode.equals("JSR") )
-        	{
-        		JSR( operand );
-        	}
-        	else if ( opcode.equals("lda") || opcode.equals("LDA") )
-        	{
-        		LDA( operand );
-        	}
-        	else if ( opcode.equals("ldx") || opcode.equals("LDX") )
-        	{
-        		LDX( operand );
-        	}
-        	else if ( opcode.equals("ldy") || opcode.equals("LDY") )
-        	{
-        		LDY( operand );
-        	}
-        	else if ( opcode.equals("lsr") || opcode.equals("LSR") )
-        	{
-        		LSR( operand );
-        	}
-        	else if ( opcode.equals("nop") || opcode.equals("NOP") )
-        	{
-        		NOP();
-        	}
-        	else if ( opcode.equals("ora") || opcode.equals("ORA") )
-        	{
-        		ORA( operand );
-        	}
-        	else if ( opcode.equals("pha") || opcode.equals("PHA") )
-        	{
-        		PHA();
-        	}
-        	else if ( opcode.equals("php") || opcode.equals("PHP") )
-        	{
-        		PHP();
-        	}
-        	else if ( opcode.equals("pla") || opcode.equals("PLA") )
-        	{
-        		PLA();
-        	}
-        	else if ( opcode.equals("plp") || opcode.equals("PLP") )
-        	{
-        		PLP();
-        	}
-        	else if ( opcode.equals("rol") || opcode.equals("ROL") )
-        	{
-        		ROL( operand );
-        	}
-        	else if ( opcode.equals("ror") || opcode.equals("ROR") )
-        	{
-        		ROR( operand );
-        	}
-        	else if ( opcode.equals("rti") || opcode.equals("RTI") )
-        	{
-        		RTI();
-        	}
-        	else if ( opcode.equals("rts") || opcode.equals("RTS") )
-        	{
-        		RTS();
-        	}
-        	else if ( opcode.equals("sbc") || opcode.equals("SBC") )
-        	{
-        		SBC( operand );
-        	}
-        	else if ( opcode.equals("sec") || opcode.equals("SEC") )
-        	{
-        		SEC();
-        	}
-        	else if ( opcode.equals("sed") || opcode.equals("SED") )
-        	{
-        		SED();
-        	}
-        	else if ( opcode.equals("sei") || opcode.equals("SEI") )
-        	{
-        		SEI();
-        	}
-        	else if ( opcode.equals("sta") || opcode.equals("STA") )
-        	{
-        		STA( operand );
-        	}
-        	else if ( opcode.equals("stx") || opcode.equals("STX") )
-        	{
-        		STX( operand );
-        	}
-        	else if ( opcode.equals("sty") || opcode.equals("STY") )
-        	{
-        		STY( operand );
-        	}
-        	else if ( opcode.equals("tax") || opcode.equals("TAX") )
-        	{
-        		TAX();
-        	}
-        	else if ( opcode.equals("tay") || opcode.equals("TAY") )
-        	{
-        		TAY();
-        	}
-        	else if ( opcode.equals("tsx") || opcode.equals("TSX") )
-        	{
-        		TSX();
-        	}
-        	else if ( opcode.equals("txa") || opcode.equals("TXA") )
-        	{
-        		TXA();
-        	}
-        	else if ( opcode.equals("txs") || opcode.equals("TXS") )
-        	{
-        		TXS();
-        	}
-        	else if ( opcode.equals("tya") || opcode.equals("TYA") )
-        	{
-        		TYA();
-        	}
-        	else
-        	{
-        		System.out.println( "Unsupported opcode: " + opcode );
-        	}
-        	
-        	// Print the actual processed opcode
-        	System.out.println( "Instruction: " + curInst.getOpcode() + " " + curInst.getOperand() + " " +  curInst.getOffset() );
-        	// Print status of the processor
-        	printAllRegisters();
-        	// Increment the PC
-        	PC.setVal( PC.getVal() + 1 );
         }
     }
     
+    /**
+     * Sets where executed instructions are traced to. Tracing is off
+     * ( NullTraceSink ) by default.
+     * 
+     * @param sink The sink, or null to turn tracing off.
+     */
+    public void setTraceSink( TraceSink sink )
+    {
+    	trace = ( sink == null ) ? NullTraceSink.INSTANCE : sink;
+    }
+    
+    public TraceSink getTraceSink()
+    {
+    	return trace;
+    }
+    
+    /**
+     * Sets the program to run. The PC is left where it is.
+     * 
+     * @param program The parsed program.
+     */
+    public void load( Program program )
+    {
+    	theProgram = program;
+    	breakpoints = null;
+    }
+    
+    /**
+     * Runs the loaded program until the PC leaves it or hits a BRK or
+     * breakpoint.
+     * 
+     * @return Why the run stopped.
+     */
+    public StopReason run()
+    {
+    	return run( Long.MAX_VALUE );
+    }
+    
+    /**
+     * Runs up to a number of instructions.
+     * Call again to resume where the run stopped.
+     * 
+     * @param budget Most instructions to execute.
+     * @return Why the run stopped.
+     */
+    public StopReason run( long budget )
+    {
+    	return run( budget, Long.MAX_VALUE );
+    }
+    
+    /**
+     * Runs up to a number of cycles. The last
+     * instruction may overshoot the budget by a few cycles.
+     * Call again to resume where the run stopped.
+     * 
+     * @param budget Number of cycles to run for.
+     * @return Why the run stopped.
+     */
+    public StopReason runCycles( long budget )
+    {
+    	return run( Long.MAX_VALUE, budget );
+    }
+    
+    /**
+     * Executes the instruction at the PC, even if it has a breakpoint.
+     * 
+     * @return BRK, WATCHPOINT or END_OF_PROGRAM if one applies, otherwise BUDGET_EXHAUSTED.
+     */
+    public StopReason step()
+    {
+    	return run( 1, Long.MAX_VALUE );
+    }
+    
+    /**
+     * Runs until either budget runs out, recording a RunEvent if the
+     * flight recorder wants one.
+     */
+    private StopReason run( long instructions, long cycles )
+    {
+    	RUN_COUNT.setRelease( this, runCount + 1 );
+    	// Keeps the run's changes to state from being seen before the count
+    	VarHandle.storeStoreFence();
+    	try
+    	{
+    		return record( instructions, cycles );
+    	}
+    	finally
+    	{
+    		RUN_COUNT.setRelease( this, runCount + 1 );
+    	}
+    }
+    
+    /**
+     * Runs the loop, inside a RunEvent if the flight recorder wants one.
+     */
+    private StopReason record( long instructions, long cycles )
+    {
+    	if ( RecorderState.throughput && !sampled )
+    	{
+    		ThroughputEvent.register( state );
+    		sampled = true;
+    	}
+    	if ( !RecorderState.runs )
+    		return runLoop( instructions, cycles );
+    	
+    	RunEvent event = new RunEvent();
+    	long startInstructions = state.instructions;
+    	long startCycles = state.cycles;
+    	event.begin();
+    	StopReason reason = runLoop( instructions, cycles );
+    	event.end();
+    	if ( event.shouldCommit() )
+    	{
+    		event.instructions = state.instructions - startInstructions;
+    		event.cycles = state.cycles - startCycles;
+    		event.stopReason = reason.name();
+    		event.pc = state.pc;
+    		event.commit();
+    	}
+    	return reason;
+    }
+    
+    /**
+     * Runs until either budget runs out. A breakpoint on the first
+     * instruction is ignored, so a run stopped at one can resume.
+     */
+    private StopReason runLoop( long instructions, long cycles )
+    {
+    	int end = theProgram.numInstructions();
+    	long startCycles = state.cycles;
+    	long count = 0;
+    	// Checked once per run, so untraced runs never call the sink
+    	TraceSink sink = ( trace == NullTraceSink.INSTANCE ) ? null : trace;
+    	while ( true )
+    	{
+    		if ( ( count & PAUSE_CHECK_MASK ) == 0 && pauseRequested )
+    			awaitResume();
+    		if ( state.pc >= end )
+    			return StopReason.END_OF_PROGRAM;
+    		if ( count >= instructions || state.cycles - startCycles >= cycles )
+    			return StopReason.BUDGET_EXHAUSTED;
+    		if ( breakpoints != null && count > 0 && breakpoints[state.pc] )
+    			return StopReason.BREAKPOINT;
+    		
+    		int index = state.pc;
+    		Instruction curInst = theProgram.getInstruction( index );
+    		execute( curInst );
+    		if ( sink != null )
+    			sink.trace( index, curInst, state );
+    		state.pc++;
+    		count++;
+    		if ( curInst.getOpcodeId() == Opcode.BRK )
+    		{
+    			InterruptEvent.emit( "BRK", index, -1, state );
+    			return StopReason.BRK;
+    		}
+    		if ( stopRequested )
+    		{
+    			stopRequested = false;
+    			return StopReason.WATCHPOINT;
+    		}
+    	}
+    }
+    
+    /**
+     * Makes the run in progress stop once the current instruction has
+     * completed, returning WATCHPOINT. Only call it from the thread running
+     * the processor, e.g. from a WatchListener; use pause() from others.
+     */
+    public void requestStop()
+    {
+    	stopRequested = true;
+    }
+    
+    /**
+     * Sets or clears a breakpoint. Runs stop before executing an
+     * instruction with a breakpoint.
+     * 
+     * @param index Index of the instruction within the program.
+     * @param set If true, sets the breakpoint. If false, clears it.
+     */
+    public void setBreakpoint( int index, boolean set )
+    {
+    	if ( breakpoints == null )
+    	{
+    		breakpoints = new boolean[theProgram.numInstructions()];
+    	}
+    	breakpoints[index] = set;
+    }
+    
+    /**
+     * Asks the processor to pause. A run in progress parks its thread within
+     * a few thousand instructions, and later runs park as soon as they
+     * start, until resume() is called. Safe to call from any thread.
+     */
+    public void pause()
+    {
+    	pauseRequested = true;
+    }
+    
+    /**
+     * Lets a paused processor continue. Safe to call from any thread.
+     */
+    public void resume()
+    {
+    	pauseRequested = false;
+    	paused = false;
+    	Thread waiting = pausedThread;
+    	if ( waiting != null )
+    	{
+    		LockSupport.unpark( waiting );
+    	}
+    }
+    
+    /**
+     * Returns true while a pause has been asked for and not resumed.
+     */
+    public boolean isPauseRequested()
+    {
+    	return pauseRequested;
+    }
+    
+    /**
+     * Returns true while a run is actually parked by a pause. Everything
+     * the run did before parking is visible to the thread that sees this.
+     */
+    public boolean isPaused()
+    {
+    	return paused;
+    }
+    
+    /**
+     * Returns true while a run is in progress, parked or not. Once this
+     * returns false, everything the last run did is visible.
+     */
+    public boolean isRunning()
+    {
+    	return ( getRunCount() & 1 ) != 0;
+    }
+    
+    /**
+     * Returns the number of runs started plus the number finished, odd
+     * while a run is in progress. A run starting on another thread as a
+     * pause is asked for may not see the pause until its next check, so
+     * code using an idle processor from another thread must check
+     * isRunCount() afterwards: if a run slipped in, it has to wait for it
+     * to park and start over.
+     */
+    public int getRunCount()
+    {
+    	return (int) RUN_COUNT.getAcquire( this );
+    }
+    
+    /**
+     * Returns true if no run has started or finished since getRunCount()
+     * returned count. Reads made before the call are ordered before the check.
+     */
+    public boolean isRunCount( int count )
+    {
+    	VarHandle.acquireFence();
+    	return (int) RUN_COUNT.getAcquire( this ) == count;
+    }
+    
+    /**
+     * Parks the running thread until resumed.
+     */
+    private void awaitResume()
+    {
+    	pausedThread = Thread.currentThread();
+    	while ( pauseRequested )
+    	{
+    		// Set on every park, a quick resume() and pause() may have cleared it
+    		paused = true;
+    		LockSupport.park( this );
+    	}
+    	paused = false;
+    	pausedThread = null;
+    }
+    
+    /**
+     * Returns true if the PC has left the program.
+     */
+    public boolean isFinished()
+    {
+    	return state.pc >= theProgram.numInstructions();
+    }
+    
+    /**
+     * Executes a single instruction. Works on primitive state only, so
+     * nothing is allocated once the program has been parsed.
+     * 
+     * @param curInst The instruction at the PC.
+     */
+    private void execute( Instruction curInst )
+    {
+    	// Dispatch on the opcode resolved at load time
+    	Opcode opcode = curInst.getOpcodeId();
+    	if ( opcode == null )
+    	{
+    		System.out.println( "Unsupported opcode: " + curInst.getOpcode() );
+    	}
+    	else if ( curInst.getMode() == null )
+    	{
+    		System.out.println( "Unsupported operand: " + curInst.getOperand() );
+    	}
+    	else
+    	{
+    		state.cycles += curInst.getCycles();
+    		state.instructions++;
+    		// Decode the operand
+    		int addr = getAddress( curInst );
+    		switch ( opcode )
+    		{
+    		case ADC: ADC( addr ); break;
+    		case AND: AND( addr ); break;
+    		case ASL: ASL( addr ); break;
+    		case BCC: BCC( addr ); break;
+    		case BCS: BCS( addr ); break;
+    		case BEQ: BEQ( addr ); break;
+    		case BIT: BIT( addr ); break;
+    		case BMI: BMI( addr ); break;
+    		case BNE: BNE( addr ); break;
+    		case BPL: BPL( addr ); break;
+    		case BRK: BRK(); break;
+    		case BVC: BVC( addr ); break;
+    		case BVS: BVS( addr ); break;
+    		case CLC: CLC(); break;
+    		case CLD: CLD(); break;
+    		case CLI: CLI(); break;
+    		case CLV: CLV(); break;
+    		case CMP: CMP( addr ); break;
+    		case CPX: CPX( addr ); break;
+    		case CPY: CPY( addr ); break;
+    		case DEC: DEC( addr ); break;
+    		case DEX: DEX(); break;
+    		case DEY: DEY(); break;
+    		case EOR: EOR( addr ); break;
+    		case INC: INC( addr ); break;
+    		case INX: INX(); break;
+    		case INY: INY(); break;
+    		case JMP: JMP( addr ); break;
+    		case JSR: JSR( addr ); break;
+    		case LDA: LDA( addr ); break;
+    		case LDX: LDX( addr ); break;
+    		case LDY: LDY( addr ); break;
+    		case LSR: LSR( addr ); break;
+    		case NOP: NOP(); break;
+    		case ORA: ORA( addr ); break;
+    		case PHA: PHA(); break;
+    		case PHP: PHP(); break;
+    		case PLA: PLA(); break;
+    		case PLP: PLP(); break;
+    		case ROL: ROL( addr ); break;
+    		case ROR: ROR( addr ); break;
+    		case RTI: RTI(); break;
+    		case RTS: RTS(); break;
+    		case SBC: SBC( addr ); break;
+    		case SEC: SEC(); break;
+    		case SED: SED(); break;
+    		case SEI: SEI(); break;
+    		case STA: STA( addr ); break;
+    		case STX: STX( addr ); break;
+    		case STY: STY( addr ); break;
+    		case TAX: TAX(); break;
+    		case TAY: TAY(); break;
+    		case TSX: TSX(); break;
+    		case TXA: TXA(); break;
+    		case TXS: TXS(); break;
+    		case TYA: TYA(); break;
+    		}
+    	}
+    }
+    
     /**
      * Print the value of all registers, used for debugging.
      */
     private void printAllRegisters()
     {
+    	int status = state.getP();
     	System.out.println( "-------------------------------------------------" );
-        System.out.println( "Status: " + P.getValBin() + " " + P.getValHex() );
-        System.out.println( "A:      " + A.getValBin() + " " + A.getValHex() );
-        System.out.println( "X:      " + X.getValBin() + " " + X.getValHex() );
-        System.out.println( "Y:      " + Y.getValBin() + " " + Y.getValHex() );
-        System.out.println( "PC:     " + PC.getValHex() );
+        System.out.println( "Status: " + CpuState.toBin( status ) + " " + CpuState.toHex( status, 2 ) );
+        System.out.println( "A:      " + CpuState.toBin( state.a ) + " " + CpuState.toHex( state.a, 2 ) );
+        System.out.println( "X:      " + CpuState.toBin( state.x ) + " " + CpuState.toHex( state.x, 2 ) );
+        System.out.println( "Y:      " + CpuState.toBin( state.y ) + " " + CpuState.toHex( state.y, 2 ) );
+        System.out.println( "PC:     " + CpuState.toHex( state.pc, 4 ) );
         System.out.println( "-------------------------------------------------" );
     }
     
+    /**
+     * Returns the processor's registers.
+     */
+    public CpuState getState()
+    {
+    	return state;
+    }
+    
+    /**
+     * Returns the effective address of the operand.
+     * The addressing mode and operand value were resolved when the program was parsed,
+     * so this is integer math only.
+     * 
+     * @param inst The instruction being executed.
+     * @return The address, or ACCUMULATOR or IMMEDIATE.
+     */
+    private int getAddress( Instruction inst )
+    {
+    	int value = inst.getValue();
+    	int x = state.x;
+    	int y = state.y;
+    	switch ( inst.getMode() )
+    	{
+    	case IMMEDIATE:
+    		immediate = value & 0xff;
+    		return IMMEDIATE;
+    	case ZERO_PAGE:
+    		return value & 0xff;
+    	case ZERO_PAGE_X:
+    		return ( value + x ) & 0xff;   // Indexing wraps within the zero page
+    	case ZERO_PAGE_Y:
+    		return ( value + y ) & 0xff;
+    	case ABSOLUTE:
+    		return value & 0xffff;
+    	case ABSOLUTE_X:
+    		return pageCrossed( inst, value, ( value + x ) & 0xffff );
+    	case ABSOLUTE_Y:
+    		return pageCrossed( inst, value, ( value + y ) & 0xffff );
+    	case INDIRECT:
+    		// The high byte doesn't carry into the next page (as on a real 6502)
+    		return theMemory.readWordInPage( value );
+    	case INDEXED_INDIRECT:
+    		return theMemory.readZeroPageWord( value + x );
+    	case INDIRECT_INDEXED:
+    		int base = theMemory.readZeroPageWord( value );
+    		return pageCrossed( inst, base, ( base + y ) & 0xffff );
+    	default:
+    		// Implied and accumulator instructions work on the accumulator
+    		return ACCUMULATOR;
+    	}
+    }
+    
+    /**
+     * Charges reads an extra cycle when indexing crosses a page.
+     * 
+     * @return addr, unchanged.
+     */
+    private int pageCrossed( Instruction inst, int base, int addr )
+    {
+    	if ( inst.hasPagePenalty() && ( ( base ^ addr ) & 0xff00 ) != 0 )
+    		state.cycles++;
+    	return addr;
+    }
+    
+    /**
+     * Takes a branch, which costs one extra cycle. Lines have no pages,
+     * so there is no page crossing penalty.
+     */
+    private void branch( int addr )
+    {
+    	state.cycles++;
+    	state.pc = load( addr ) - 1;
+    }
+    
+    /**
+     * Reads the operand at an effective address.
+     */
+    private int load( int addr )
+    {
+    	if ( addr >= 0 )
+    		return theMemory.read( addr );
+    	return addr == IMMEDIATE ? immediate : state.a;
+    }
+    
+    /**
+     * Writes a result back to an effective address.
+     */
+    private void store( int addr, int val )
+    {
+    	if ( addr >= 0 )
+    		theMemory.write( addr, val );
+    	else
+    		state.a = val;
+    }
+    
+    private void push( int val )
+    {
+    	theMemory.write( STACK | state.sp, val );
+    	state.sp = ( state.sp - 1 ) & 0xff;
+    }
+    
+    private int pull()
+    {
+    	state.sp = ( state.sp + 1 ) & 0xff;
+    	return theMemory.read( STACK | state.sp );
+    }
+    
     /* OPCODE IMPLEMENTATION */
     
     /**
@@ -351,26 +669,13 @@ public class Processor
      *   V - Set if result is outside the range of a signed byte.
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
-     *   C - If set, adds one to the resulting sum.
+     *   C - If set, adds one to the resulting sum. Set if the sum doesn't fit in a byte.
      *
-     * @param src1 Byte to be added to accumulator.
+     * @param addr Address of the byte to be added to accumulator.
      */
-    private void ADC( Byte src1 )
+    private void ADC( int addr )
     {
-    	int result = src1.getVal() + A.getVal();
-        
-        // Add the carry if present
-        if ( P.getBit( P_C ) )
-        	result++;
-        
-        // Clear the carry flag
-        P.setBit( P_C, false );
-        
-        // Set result and flags
-        Byte flags = A.setVal( result );
-        P.setBit( P_V, flags.getBit( P_V ) );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.adc( load( addr ) );
     }
     
     /**
@@ -382,72 +687,38 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param src1 Byte to be ANDed with accumulator.
+     * @param addr Address of the byte to be ANDed with accumulator.
      */
-    private void AND( Byte src1 ) 
+    private void AND( int addr )
     {
-        Byte result = new Byte();
-        
-        // AND bit by bit
-        for ( int i = 0; i < 8; ++i )
-        {
-            if ( A.getBit(i) && src1.getBit(i) )
-            {
-                result.setBit( i, true );
-            }
-            else
-            {
-                result.setBit( i, false );
-            }
-        }
-        
-        // Set result and flags
-        Byte flags = A.setVal( result.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.a &= load( addr ) );
     }
     
     /**
      * Arithmetic Shift Left
      * Shifts all bits left one position. 0 is shifted in.
-     * Stores result in accumulator.
+     * Stores result back in the operand ( the accumulator if there is none ).
      *
      * Used Flags:
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *   C - Set if bit shifted off the left end is set. (bit 7)
      *
-     * @param src1 Byte to be shifted left.
+     * @param addr Address of the byte to be shifted left.
      */
-    private void ASL( Byte src1 ) 
+    private void ASL( int addr )
     {
-        Byte result = new Byte();
-        
-        // Shift bit 7 into the carry
-        P.setBit( P_C , src1.getBit(7) );
-        // Shift all bits left
-        for ( int i = 7; i > 0; --i )
-        {
-            result.setBit( i, src1.getBit(i-1) );
-        }
-        // Shift in zero
-        result.setBit( 0, false );
-
-        // Set result and flags
-        Byte flags = A.setVal( result.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        store( addr, state.asl( load( addr ) ) );
     }
        
     /**
      * Branch on Carry Clear
      */
-    private void BCC( Byte src1 )
+    private void BCC( int addr )
     {
-    	if ( P.getBit( P_C ) == false )
+    	if ( state.getFlag( P_C ) == false )
     	{
-    		// Jump
-    		PC.setVal( src1.getVal() - 1 );
+    		branch( addr );
     	}
     }
 
@@ -455,78 +726,67 @@ public class Processor
      * Test Bits
      * 
      * Used Flags:
-     *   N - Bit 7 of src1.
-     *   V - Bit 6 of src1.
-     *   Z - 1 if result of src1 AND accumulator is zero.
+     *   N - Bit 7 of the operand.
+     *   V - Bit 6 of the operand.
+     *   Z - 1 if result of the operand AND accumulator is zero.
      */
-    private void BIT( Byte src1 )
+    private void BIT( int addr )
     {
-    	P.setBit( P_N, src1.getBit( P_N ) );
-    	P.setBit( P_V, src1.getBit( P_V ) );
-    	
-    	if ( ( src1.getVal() & A.getVal() ) == 0 )
-    		P.setBit( P_Z, true );
+    	state.bit( load( addr ) );
     }
     
     /**
      * Branch on Carry Set
      */
-    private void BCS( Byte src1 )
+    private void BCS( int addr )
     {
-    	if ( P.getBit( P_C ) == true )
+    	if ( state.getFlag( P_C ) == true )
     	{
-    		// Jump
-    		PC.setVal( src1.getVal() - 1 );
+    		branch( addr );
     	}
     }
     
     /**
      * Branch on Equal
      */
-    private void BEQ( Byte src1 )
+    private void BEQ( int addr )
     {
-    	if ( P.getBit( P_Z ) == true )
+    	if ( state.getFlag( P_Z ) == true )
     	{
-    		// Jump
-    		PC.setVal( src1.getVal() - 1 );
+    		branch( addr );
     	}
     }
     
-    // BIT to come
-    
     /**
      * Branch on Minus (Less Than)
      */
-    private void BMI( Byte src1 )
+    private void BMI( int addr )
     {
-    	if ( P.getBit( P_N ) == true )
+    	if ( state.getFlag( P_N ) == true )
     	{
-    		// Jump
-    		PC.setVal( src1.getVal() - 1 );
+    		branch( addr );
     	}
     }
     
     /**
      * Branch on Not Equal
      */
-    private void BNE( Byte src1 )
+    private void BNE( int addr )
     {
-    	if ( P.getBit( P_Z ) == false )
+    	if ( state.getFlag( P_Z ) == false )
     	{
-    		// Jump
-    		PC.setVal( src1.getVal() - 1 );
+    		branch( addr );
     	}
     }
     
     /**
      * Branch on Plus (Greater Than)
      */
-    private void BPL( Byte src1 )
+    private void BPL( int addr )
     {
-    	if ( P.getBit( P_Z ) == false && P.getBit( P_C ) == true )
+    	if ( state.getFlag( P_N ) == false )
     	{
-    		// Jump
-    		PC.setVal( src1.getVal() - 1 );
+    		branch( addr );
     	}
     }
     
@@ -541,31 +801,29 @@ public class Processor
     private void BRK()
     {
         // Sets interrupt flags.
-        P.setBit( P_B , true );
-        P.setBit( P_I , true );      
+        state.setFlag( P_B, true );
+        state.setFlag( P_I, true );      
     }
     
     /**
      * Branch on Overflow Clear
      */
-    private void BVC( Byte src1 )
+    private void BVC( int addr )
     {
-    	if ( P.getBit( P_V ) == false )
+    	if ( state.getFlag( P_V ) == false )
     	{
-    		// Jump
-    		PC.setVal( src1.getVal() - 1 );
+    		branch( addr );
     	}
     }
     
     /**
      * Branch on Overflow Set
      */
-    private void BVS( Byte src1 )
+    private void BVS( int addr )
     {
-    	if ( P.getBit( P_V ) == true )
+    	if ( state.getFlag( P_V ) == true )
     	{
-    		// Jump
-    		PC.setVal( src1.getVal() - 1 );
+    		branch( addr );
     	}
     }
     
@@ -579,7 +837,7 @@ public class Processor
     private void CLC()
     {
         // Clear carry flag
-        P.setBit( P_C, false );
+        state.setFlag( P_C, false );
     }
     
     /**
@@ -592,7 +850,7 @@ public class Processor
     private void CLD()
     {
         // Clear decimal flag
-        P.setBit( P_D, false );
+        state.setFlag( P_D, false );
     }
     
     /**
@@ -605,7 +863,7 @@ public class Processor
     private void CLI()
     {
         // Clear interrupt flag
-        P.setBit( P_I, false );
+        state.setFlag( P_I, false );
     }
     
     /**
@@ -618,7 +876,7 @@ public class Processor
     private void CLV()
     {
         // Clear overflow flag
-        P.setBit( P_V, false );
+        state.setFlag( P_V, false );
     }
     
     /**
@@ -630,29 +888,12 @@ public class Processor
      *   Z - Set if accumulator and byte are equal.
      *   C - Set if accumulator is greater than or equal to the byte.
      *
-     * @param src1 Byte to compare with accumulator.
+     * @param addr Address of the byte to compare with accumulator.
      */
-    private void CMP( Byte src1 )
+    private void CMP( int addr )
     {
-        // Simply set flags based on A and src1
-        if ( A.getVal() < src1.getVal() )
-        {
-            P.setBit( P_N, true );
-            P.setBit( P_Z, false );
-            P.setBit( P_C, false );
-        }
-        else if ( A.getVal() > src1.getVal() )
-        {
-            P.setBit( P_N, false );
-            P.setBit( P_Z, false );
-            P.setBit( P_C, true );
-        }
-        else
-        {
-            P.setBit( P_N, false );
-            P.setBit( P_Z, true );
-            P.setBit( P_C, true );
-        }
+        // Simply set flags based on A and the operand
+        state.compare( state.a, load( addr ) );
     }
 
     /**
@@ -664,29 +905,12 @@ public class Processor
      *   Z - Set if register X and byte are equal.
      *   C - Set if register X is greater than or equal to the byte.
      *
-     * @param src1 Byte to compare with register X.
+     * @param addr Address of the byte to compare with register X.
      */
-    private void CPX( Byte src1 )
+    private void CPX( int addr )
     {
-        // Simply set flags based on X and src1
-        if ( X.getVal() < src1.getVal() )
-        {
-            P.setBit( P_N, true );
-            P.setBit( P_Z, false );
-            P.setBit( P_C, false );
-        }
-        else if ( X.getVal() > src1.getVal() )
-        {
-            P.setBit( P_N, false );
-            P.setBit( P_Z, false );
-            P.setBit( P_C, true );
-        }
-        else
-        {
-            P.setBit( P_N, false );
-            P.setBit( P_Z, true );
-            P.setBit( P_C, true );
-        }
+        // Simply set flags based on X and the operand
+        state.compare( state.x, load( addr ) );
     }
 
     /**
@@ -698,29 +922,12 @@ public class Processor
      *   Z - Set if register Y and byte are equal.
      *   C - Set if register Y is greater than or equal to the byte.
      *
-     * @param src1 Byte to compare with register Y.
+     * @param addr Address of the byte to compare with register Y.
      */
-    private void CPY( Byte src1 )
+    private void CPY( int addr )
     {
-        // Simply set flags based on Y and src1
-        if ( Y.getVal() < src1.getVal() )
-        {
-            P.setBit( P_N, true );
-            P.setBit( P_Z, false );
-            P.setBit( P_C, false );
-        }
-        else if ( Y.getVal() > src1.getVal() )
-        {
-            P.setBit( P_N, false );
-            P.setBit( P_Z, false );
-            P.setBit( P_C, true );
-        }
-        else
-        {
-            P.setBit( P_N, false );
-            P.setBit( P_Z, true );
-            P.setBit( P_C, true );
-        }
+        // Simply set flags based on Y and the operand
+        state.compare( state.y, load( addr ) );
     }
       
     /**
@@ -734,9 +941,7 @@ public class Processor
     private void DEX()
     {
         // Decrement and set flags
-        Byte flags = X.setVal( X.getVal() - 1 );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.x = ( state.x - 1 ) & 0xff );
     }
     
     /**
@@ -747,14 +952,12 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param src1 Byte to decrement.
+     * @param addr Address of the byte to decrement.
      */
-    private void DEC( Byte src1 )
+    private void DEC( int addr )
     {
         // Decrement and set flags
-        Byte flags = src1.setVal( src1.getVal() - 1 );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        store( addr, state.setNZ( ( load( addr ) - 1 ) & 0xff ) );
     }
     
     /**
@@ -768,9 +971,7 @@ public class Processor
     private void DEY()
     {
         // Decrement and set flags
-        Byte flags = Y.setVal( Y.getVal() - 1 );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.y = ( state.y - 1 ) & 0xff );
     }
 
     /**
@@ -781,29 +982,11 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param src1 Byte to be XORd with accumulator.
+     * @param addr Address of the byte to be XORd with accumulator.
      */
-    private void EOR( Byte src1 )
+    private void EOR( int addr )
     {
-        Byte result = new Byte();
-        
-        // XOR bit by bit
-        for ( int i = 0; i < 8; ++i )
-        {
-            if ( A.getBit(i) != src1.getBit(i) )
-            {
-                result.setBit( i, true );
-            }
-            else
-            {
-                result.setBit( i, false );
-            }
-        }
-        
-        // Set result and flags
-        Byte flags = A.setVal( result.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.a ^= load( addr ) );
     }
 
     /**
@@ -814,14 +997,12 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param src1 Byte to increment.
+     * @param addr Address of the byte to increment.
      */
-    private void INC( Byte src1 )
+    private void INC( int addr )
     {
         // Increment and set flags
-        Byte flags = src1.setVal( src1.getVal() + 1 );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        store( addr, state.setNZ( ( load( addr ) + 1 ) & 0xff ) );
     }
     
     /**
@@ -832,14 +1013,12 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param src1 Byte to increment.
+     * @param addr Address of the byte to increment.
      */
     private void INX()
     {
         // Increment and set flags
-        Byte flags = X.setVal( X.getVal() + 1 );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.x = ( state.x + 1 ) & 0xff );
     }
     
     /**
@@ -850,43 +1029,35 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param dest Byte to increment.
-     */
+     *      */
     private void INY()
     {
         // Increment and set flags
-        Byte flags = Y.setVal( Y.getVal() + 1 );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.y = ( state.y + 1 ) & 0xff );
     }
 
     /**
      * Jump
      * Jumps to the instruction at the given address.
      */
-    private void JMP( Byte src1 )
+    private void JMP( int addr )
     {
     	// Set the PC to the next instruction to be executed - 1
-    	PC.setVal( src1.getVal() - 1 );
+    	state.pc = load( addr ) - 1;
     }
 
     /**
      * Jump to Subroutine
-     * Pushes the PC+1 onto the stack and jumps.
+     * Pushes the PC onto the stack and jumps.
      */
-    private void JSR( Byte src1 )
+    private void JSR( int addr )
     {
-        // Increment the stack pointer
-        SP.setVal( SP.getVal() + 1 );
+        // Push the PC, high byte first
+        push( state.pc >> 8 );
+        push( state.pc & 0xff );
         
-        // Determine the address in memory
-        Word addr = new Word( stackOffset.getVal() + SP.getVal() );
-        
-        // Store the PC
-        theMemory.getByte( addr ).setVal( PC.getVal() + 1 );
-        
-        // Jump to src1
-        PC.setVal( src1.getVal() - 1 );
+        // Jump to the operand
+        state.pc = load( addr ) - 1;
     }
     
     /**
@@ -897,14 +1068,12 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param src1 Byte to be loaded from.
+     * @param addr Address of the byte to be loaded from.
      */
-    private void LDA( Byte src1 )
+    private void LDA( int addr )
     {
         // Load A and set flags
-        Byte flags = A.setVal( src1.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.a = load( addr ) );
     }
 
     /**
@@ -915,14 +1084,12 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param src1 Byte to be loaded from.
+     * @param addr Address of the byte to be loaded from.
      */
-    private void LDX( Byte src1 )
+    private void LDX( int addr )
     {
         // Load X and set flags
-        Byte flags = X.setVal( src1.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.x = load( addr ) );
     }
 
     /**
@@ -933,53 +1100,36 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param src1 Byte to be loaded from.
+     * @param addr Address of the byte to be loaded from.
      */
-    private void LDY( Byte src1 )
+    private void LDY( int addr )
     {
         // Load Y and set flags
-        Byte flags = Y.setVal( src1.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.y = load( addr ) );
     }
 
     /**
      * Logical Shift Right
      * Shifts all bits right one position. 0 is shifted in.
-     * Stores result in accumulator.
+     * Stores result back in the operand ( the accumulator if there is none ).
      *
      * Used Flags:
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *   C - Set if bit shifted off the right end is set. (bit 0)
      *
-     * @param src1 Byte to be shifted right.
+     * @param addr Address of the byte to be shifted right.
      */
-    private void LSR( Byte src1 ) 
+    private void LSR( int addr )
     {
-        Byte result = new Byte();
-        
-        // Shift bit 0 into the carry
-        P.setBit( P_C , src1.getBit(0) );
-        // Shift all bits right
-        for ( int i = 0; i < 7; ++i )
-        {
-            result.setBit( i, src1.getBit(i+1) );
-        }
-        // Shift in zero
-        result.setBit( 7, false );
-
-        // Set result and flags
-        Byte flags = A.setVal( result.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        store( addr, state.lsr( load( addr ) ) );
     }
 
     /**
      * NOP
      * Does nothing.
      */
-    private void NOP() 
+    private void NOP()
     {
         // No opcode! Do nothing :)
     }
@@ -993,29 +1143,11 @@ public class Processor
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
      *
-     * @param src1 Byte to be ORd with accumulator.
+     * @param addr Address of the byte to be ORd with accumulator.
      */
-    private void ORA( Byte src1 ) 
+    private void ORA( int addr )
     {
-        Byte result = new Byte();
-        
-        // OR bit by bit
-        for ( int i = 0; i < 8; ++i )
-        {
-            if ( A.getBit(i) || src1.getBit(i) )
-            {
-                result.setBit( i, true );
-            } 
-            else
-            {
-                result.setBit( i, false );
-            }
-        }
-        
-        // Set result and flags
-        Byte flags = A.setVal( result.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.a |= load( addr ) );
     }
 
     /**
@@ -1024,30 +1156,22 @@ public class Processor
      */
     private void PHA()
     {
-        // Increment the stack pointer
-        SP.setVal( SP.getVal() + 1 );
-        
-        // Determine the address in memory
-        Word addr = new Word( stackOffset.getVal() + SP.getVal() );
-        
         // Store the accumulator
-        theMemory.getByte( addr ).setVal( A.getVal() );
+        push( state.a );
     }
     
     /**
      * Pull Accumulator
      * Pulls the accumulator from the stack.
+     *
+     * Used Flags:
+     *   N - Set if result is negative.
+     *   Z - Set if result is zero.
      */
     private void PLA()
     {
-        // Determine the address in memory
-        Word addr = new Word( stackOffset.getVal() + SP.getVal() );
-        
-        // Decrement the stack pointer
-        SP.setVal( SP.getVal() - 1 );
-        
-        // Store the byte into the accumulator
-        A.setVal( theMemory.getByte( addr ).getVal() );
+        // Store the byte into the accumulator and set flags
+        state.setNZ( state.a = pull() );
     }
     
     /**
@@ -1056,14 +1180,8 @@ public class Processor
      */
     private void PHP()
     {
-        // Increment the stack pointer
-        SP.setVal( SP.getVal() + 1 );
-        
-        // Determine the address in memory
-        Word addr = new Word( stackOffset.getVal() + SP.getVal() );
-        
         // Store the status register
-        theMemory.getByte( addr ).setVal( P.getVal() );
+        push( state.getP() );
     }
     
     /**
@@ -1072,20 +1190,14 @@ public class Processor
      */
     private void PLP()
     {
-        // Determine the address in memory
-        Word addr = new Word( stackOffset.getVal() + SP.getVal() );
-        
-        // Decrement the stack pointer
-        SP.setVal( SP.getVal() - 1 );
-        
         // Store the byte into the status register
-        P.setVal( theMemory.getByte( addr ).getVal() );
+        state.setP( pull() );
     }
     
     /**
      * Rotate Left
      * Shifts all bits left one position. Carry is shifted in.
-     * Stores result in the accumulator.
+     * Stores result back in the operand ( the accumulator if there is none ).
      *
      * Used Flags:
      *   N - Set if result is negative.
@@ -1093,32 +1205,17 @@ public class Processor
      *   C - Set if bit shifted off the left end is set. (bit 7)
      *       If set prior, bit 0 takes its value.
      *
-     * @param src1 Byte to be rotated left.
+     * @param addr Address of the byte to be rotated left.
      */
-    private void ROL( Byte src1  ) 
+    private void ROL( int addr )
     {
-        Byte result = new Byte();
-        
-        // Shift in the carry
-        result.setBit( 0, P.getBit( P_C ) );
-        // Shift bit 7 into the carry
-        P.setBit( P_C , src1.getBit(7) );
-        // Shift all bits left
-        for ( int i = 7; i > 0; --i )
-        {
-            result.setBit( i, src1.getBit(i-1) );
-        }
-
-        // Set result and flags
-        Byte flags = A.setVal( result.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        store( addr, state.rol( load( addr ) ) );
     }
     
     /**
      * Rotate Right
      * Shifts all bits right one position. Carry is shifted in.
-     * Stores result in the accumulator.
+     * Stores result back in the operand ( the accumulator if there is none ).
      *
      * Used Flags:
      *   N - Set if result is negative.
@@ -1126,26 +1223,11 @@ public class Processor
      *   C - Set if bit shifted off the right end is set. (bit 0)
      *       If set prior, bit 7 takes its value.
      *
-     * @param src1 Byte to be rotated right.
+     * @param addr Address of the byte to be rotated right.
      */
-    private void ROR( Byte src1 ) 
+    private void ROR( int addr )
     {
-        Byte result = new Byte();
-        
-        // Shift in the carry
-        result.setBit( 7, P.getBit( P_C ) );
-        // Shift bit 0 into the carry
-        P.setBit( P_C , src1.getBit(0) );
-        // Shift all bits right
-        for ( int i = 0; i < 7; ++i )
-        {
-            result.setBit( i, src1.getBit(i+1) );
-        }
-
-        // Set result and flags
-        Byte flags = A.setVal( result.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        store( addr, state.ror( load( addr ) ) );
     }
     
     /**
@@ -1157,25 +1239,12 @@ public class Processor
      */
     private void RTI()
     {
-        // Determine the stack address in memory
-        Word addr = new Word( stackOffset.getVal() + SP.getVal() );
-        
         // Pull the status register
-        P.setVal( theMemory.getByte( addr ).getVal() );
-        addr.setVal( addr.getVal() - 1 ); // Traverse stack
+        state.setP( pull() );
         
-        // Pull the lower byte of the PC
-        Byte lower = theMemory.getByte( addr );
-        addr.setVal( addr.getVal() - 1 ); // Traverse stack
-        
-        // Pull the higer byte of the PC
-        Byte upper = theMemory.getByte( addr );
-        
-        // Set the PC
-        PC.setVal( (upper.getVal() << 4) + lower.getVal() );
-        
-        // Decrement stack pointer
-        SP.setVal( SP.getVal() - 3 );
+        // Pull the PC of the next instruction
+        int lower = pull();
+        state.pc = ( ( pull() << 8 ) | lower ) - 1;
     }
     
     /**
@@ -1184,22 +1253,9 @@ public class Processor
      */
     private void RTS()
     {
-        // Determine the stack address in memory
-        Word addr = new Word( stackOffset.getVal() + SP.getVal() );
-        
-        // Pull the lower byte of the PC
-        Byte lower = theMemory.getByte( addr );
-        addr.setVal( addr.getVal() - 1 ); // Traverse stack
-        
-        // Pull the higher byte of the PC
-        Byte upper = theMemory.getByte( addr );
-        
-        // Set the PC
-        PC.setVal( ( upper.getVal() << 4 ) + lower.getVal() );
-        PC.setVal( PC.getVal() + 1 ); // Address + 1
-        
-        // Decrement stack pointer
-        SP.setVal( SP.getVal() - 2 );
+        // Pull the PC of the JSR, the loop steps past it
+        int lower = pull();
+        state.pc = ( pull() << 8 ) | lower;
     }
     
     /**
@@ -1211,26 +1267,14 @@ public class Processor
      *   V - Set if result is outside the range of a signed byte.
      *   N - Set if result is negative.
      *   Z - Set if result is zero.
-     *   C - If set, adds one to the resulting difference.
-     *       (Needed for mathematical correctness)
+     *   C - If clear, subtracts one more from the difference ( a borrow ).
+     *       Set if the subtraction didn't need to borrow.
      *
-     * @param src1 Byte to be subtracted.
+     * @param addr Address of the byte to be subtracted.
      */
-    private void SBC( Byte src1 )
+    private void SBC( int addr )
     {
-    	int result = A.getVal() - src1.getVal() - 1;
-        
-        // Add the carry if present
-        if ( P.getBit(7) ) result++;
-        
-        // Clear the carry flag
-        P.setBit( P_C, false );
-        
-        // Set result and flags
-        Byte flags = A.setVal( result );
-        P.setBit( P_V, flags.getBit( P_V ) );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.sbc( load( addr ) );
     }
     
     /**
@@ -1243,7 +1287,7 @@ public class Processor
     private void SEC()
     {
         // Set carry flag
-        P.setBit( P_C, true );
+        state.setFlag( P_C, true );
     }
     
     /**
@@ -1256,7 +1300,7 @@ public class Processor
     private void SED()
     {
         // Set decimal mode flag
-        P.setBit( P_D, true );
+        state.setFlag( P_D, true );
     }
 
     /**
@@ -1269,43 +1313,43 @@ public class Processor
     private void SEI()
     {
         // Set interrupt flag
-        P.setBit( P_I, true );
+        state.setFlag( P_I, true );
     }
     
     /**
      * Store Accumulator
      * Stores the value of the accumulator into memory.
      *
-     * @param src1 Byte to store accumulator.
+     * @param addr Address of the byte to store accumulator.
      */
-    private void STA( Byte src1 )
+    private void STA( int addr )
     {
-        // Store A in src1
-        src1.setVal( A.getVal() );
+        // Store A at the operand
+        store( addr, state.a );
     }
     
     /**
      * Store Register X
      * Stores the value of register X into memory.
      *
-     * @param src1 Byte to store register X.
+     * @param addr Address of the byte to store register X.
      */
-    private void STX( Byte src1 )
+    private void STX( int addr )
     {
-        // Store X in src1
-        src1.setVal( X.getVal() );
+        // Store X at the operand
+        store( addr, state.x );
     }
     
     /**
      * Store Register Y
      * Stores the value of register Y into memory.
      *
-     * @param src1 Byte to store register Y.
+     * @param addr Address of the byte to store register Y.
      */
-    private void STY( Byte src1 )
+    private void STY( int addr )
     {
-        // Store Y in src1
-        src1.setVal( Y.getVal() );
+        // Store Y at the operand
+        store( addr, state.y );
     }
     
     /**
@@ -1319,9 +1363,7 @@ public class Processor
     private void TAX()
     {
         // Store A in X and set flags
-        Byte flags = X.setVal( A.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.x = state.a );
     }
     
     /**
@@ -1335,19 +1377,21 @@ public class Processor
     private void TAY()
     {
         // Store A in Y and set flags
-        Byte flags = Y.setVal( A.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.y = state.a );
     }
     
     /**
      * Transfer Stack pointer to X
      * Copies the value in the stack pointer and stores it in register X.
+     *
+     * Used Flags:
+     *   N - Set if result is negative.
+     *   Z - Set if result is zero.
      */
     private void TSX()
     {
-        // Store SP in X, no flags changed
-        X.setVal( SP.getVal() );
+        // Store SP in X and set flags
+        state.setNZ( state.x = state.sp );
     }
     
     /**
@@ -1361,9 +1405,7 @@ public class Processor
     private void TXA()
     {
         // Store X in A and set flags
-        Byte flags = A.setVal( X.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.a = state.x );
     }
     
     /**
@@ -1373,7 +1415,7 @@ public class Processor
     private void TXS()
     {
         // Store X in SP, no flags changed
-        SP.setVal( X.getVal() );
+        state.sp = state.x;
     }
     
     /**
@@ -1387,9 +1429,7 @@ public class Processor
     private void TYA()
     {
         // Store Y in A and set flags
-        Byte flags = A.setVal( Y.getVal() );
-        P.setBit( P_N, flags.getBit( P_N ) );
-        P.setBit( P_Z, flags.getBit( P_Z ) );
+        state.setNZ( state.a = state.y );
     }
     
 }
@@ -0,0 +1,214 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Profiler.java
+ * Counts how often each instruction of a program runs and how many cycles
+ * it takes, and finds the loops the time is spent in. Set it as a
+ * processor's trace sink to profile a run, then print a report.
+ *
+ * Counts live in primitive arrays indexed by instruction, so profiling
+ * costs a few array updates per instruction and allocates nothing.
+ *
+ * A loop is a jump or branch back to an earlier instruction. Its cost is
+ * the cycles spent on the instructions between the target and the branch,
+ * which includes inner loops but not subroutines called from elsewhere.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class Profiler implements TraceSink
+{
+    /* Entries in each section of the report */
+    public static final int DEFAULT_TOP = 10;
+
+    private Program theProgram;
+    private long[] counts;
+    private long[] cycles;
+    /* Indexed by the branch that closes a loop */
+    private long[] loopCounts;
+    private int[] loopStarts;
+    /* The previous instruction */
+    private int lastIndex = -1;
+    private boolean lastJumped;
+    private long lastCycles = -1;
+
+    /**
+     * Creates a profiler for a program.
+     *
+     * @param program The program that will be run.
+     */
+    public Profiler( Program program )
+    {
+        theProgram = program;
+        int size = program.numInstructions();
+        counts = new long[size];
+        cycles = new long[size];
+        loopCounts = new long[size];
+        loopStarts = new int[size];
+    }
+
+    public void trace( int index, Instruction inst, CpuState state )
+    {
+        // Cycles since the last instruction, or the base count for the first
+        long now = state.cycles;
+        long spent = ( lastCycles < 0 ) ? inst.getCycles() : now - lastCycles;
+        lastCycles = now;
+        counts[index]++;
+        cycles[index] += spent;
+
+        if ( lastJumped && index <= lastIndex )
+        {
+            loopCounts[lastIndex]++;
+            loopStarts[lastIndex] = index;
+        }
+        lastIndex = index;
+        lastJumped = isJump( inst.getOpcodeId() );
+    }
+
+    public void close()
+    {
+    }
+
+    /**
+     * Clears all counts.
+     */
+    public void reset()
+    {
+        Arrays.fill( counts, 0 );
+        Arrays.fill( cycles, 0 );
+        Arrays.fill( loopCounts, 0 );
+        lastIndex = -1;
+        lastJumped = false;
+        lastCycles = -1;
+    }
+
+    /**
+     * Returns how many times an instruction has run.
+     */
+    public long getCount( int index )
+    {
+        return counts[index];
+    }
+
+    /**
+     * Returns the cycles spent on an instruction.
+     */
+    public long getCycles( int index )
+    {
+        return cycles[index];
+    }
+
+    /**
+     * Prints the hottest instructions and loops, by cycles.
+     *
+     * @param out Where to print the report.
+     * @param top Most entries to print in each section.
+     */
+    public void report( PrintStream out, int top )
+    {
+        long totalCount = 0;
+        long totalCycles = 0;
+        List<Integer> hot = new ArrayList<Integer>();
+        List<Integer> loops = new ArrayList<Integer>();
+        for ( int i = 0; i < counts.length; ++i )
+        {
+            totalCount += counts[i];
+            totalCycles += cycles[i];
+            if ( counts[i] > 0 )
+                hot.add( i );
+            if ( loopCounts[i] > 0 )
+                loops.add( i );
+        }
+
+        out.println( "Profile: " + totalCount + " instructions, " + totalCycles + " cycles" );
+        out.println( "Hottest instructions:" );
+        out.println( String.format( "  %12s %6s %12s %6s  %s", "cycles", "%", "count", "line", "instruction" ) );
+        Collections.sort( hot, byCost( cycles ) );
+        for ( int i = 0; i < hot.size() && i < top; ++i )
+        {
+            int index = hot.get( i );
+            out.println( String.format( "  %12d %6.2f %12d %6d  %-24s %s", cycles[index],
+                    percent( cycles[index], totalCycles ), counts[index], index,
+                    FileTraceSink.describe( theProgram.getInstruction( index ) ), labelOf( index ) ) );
+        }
+
+        // Cost of each loop is everything executed between its start and its branch
+        final long[] loopCycles = new long[counts.length];
+        for ( int end : loops )
+        {
+            for ( int i = loopStarts[end]; i <= end; ++i )
+                loopCycles[end] += cycles[i];
+        }
+        out.println( "Hottest loops:" );
+        out.println( String.format( "  %12s %6s %12s %13s  %s", "cycles", "%", "iterations", "lines", "start" ) );
+        Collections.sort( loops, byCost( loopCycles ) );
+        for ( int i = 0; i < loops.size() && i < top; ++i )
+        {
+            int end = loops.get( i );
+            out.println( String.format( "  %12d %6.2f %12d %6d-%-6d  %s", loopCycles[end],
+                    percent( loopCycles[end], totalCycles ), loopCounts[end], loopStarts[end], end,
+                    labelOf( loopStarts[end] ) ) );
+        }
+    }
+
+    /**
+     * Returns an instruction's position relative to the nearest label at or
+     * before it, e.g. "drawSprite+3", or "" if no label precedes it.
+     */
+    private String labelOf( int index )
+    {
+        for ( int i = index; i >= 0; --i )
+        {
+            String label = theProgram.getInstruction( i ).getLabel();
+            if ( label != null && label.length() > 0 )
+            {
+                if ( label.endsWith( ":" ) )
+                    label = label.substring( 0, label.length() - 1 );
+                return ( i == index ) ? label : label + "+" + ( index - i );
+            }
+        }
+        return "";
+    }
+
+    private static double percent( long part, long total )
+    {
+        return total == 0 ? 0 : part * 100.0 / total;
+    }
+
+    /**
+     * Orders indices by descending cost.
+     */
+    private static Comparator<Integer> byCost( final long[] cost )
+    {
+        return new Comparator<Integer>()
+        {
+            public int compare( Integer a, Integer b )
+            {
+                return Long.compare( cost[b], cost[a] );
+            }
+        };
+    }
+
+    /**
+     * Returns true for instructions that can move the PC backwards into a loop.
+     */
+    private static boolean isJump( Opcode op )
+    {
+        if ( op == null )
+            return false;
+        switch ( op )
+        {
+        case BCC: case BCS: case BEQ: case BMI: case BNE: case BPL: case BVC: case BVS: case JMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -18,21 +18,36 @@ import java.util.Vector;
 public class Program
 {
     /* Class Variables */
-    private Vector<String> data;  // Stores the program text
-    private Vector<Instruction> instructions; // Stores the program instructions, parsed
+    private final Vector<String> data;  // Stores the program text
+    private final Instruction[] instructions; // Stores the program instructions, parsed
 
     /**
      * Creates an instance of Program.
      * Reads in fileName as a vector and indexes instructions.
+     * Once built, a Program is never modified, so machines on
+     * different threads can share one.
      * 
      * @param fileName Location of the file to be read.
      */
     public Program( String fileName )
     {
+        ProgramLoadEvent event = new ProgramLoadEvent();
+        event.begin();
         // Read the file in as a vector
         data = readInAsmFile( fileName );
         // Parse the instructions and index them
-        instructions = Parser.getInstructions( data );
+        long parseStart = System.nanoTime();
+        Vector<Instruction> parsed = Parser.getInstructions( data );
+        instructions = parsed.toArray( new Instruction[parsed.size()] );
+        event.parseDuration = System.nanoTime() - parseStart;
+        event.end();
+        if ( event.shouldCommit() )
+        {
+            event.fileName = fileName;
+            event.lines = data.size();
+            event.instructions = instructions.length;
+            event.commit();
+        }
     }
 
     /**
@@ -43,12 +58,12 @@ public class Program
      */
     public Instruction getInstruction( int instIndex )
     {
-    	if ( instIndex < 0 || instIndex > instructions.size() )
+    	if ( instIndex < 0 || instIndex >= instructions.length )
     	{
     		// Out of bounds
     		return null;
     	}
-    	return instructions.get( instIndex );
+    	return instructions[instIndex];
     }
     
     /**
@@ -58,7 +73,7 @@ public class Program
      */
     public int numInstructions()
     {
-    	return instructions.size();
+    	return instructions.length;
     }
     
     /**
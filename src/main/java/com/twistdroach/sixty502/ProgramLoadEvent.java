@@ -0,0 +1,39 @@
+package com.twistdroach.sixty502;
+
+/**
+ * ProgramLoadEvent.java
+ * Flight Recorder event for reading and parsing a program. The event's
+ * duration covers both; the parse alone is recorded separately. Off by
+ * default, see RunEvent.
+ *
+ * @author Christopher Erickson
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name( "sixty502.ProgramLoad" )
+@Label( "Program Load" )
+@Category( "Emulator" )
+@Description( "An asm file read and parsed into instructions" )
+@Enabled( false )
+public class ProgramLoadEvent extends Event
+{
+    @Label( "File" )
+    String fileName;
+
+    @Label( "Lines" )
+    int lines;
+
+    @Label( "Instructions" )
+    int instructions;
+
+    @Label( "Parse Duration" )
+    @Timespan( Timespan.NANOSECONDS )
+    long parseDuration;
+}
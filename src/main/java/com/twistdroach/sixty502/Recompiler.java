@@ -0,0 +1,259 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Recompiler.java
+ * Runs a Cpu one basic block at a time. Each block entry is counted, and a
+ * block that has run more than the threshold number of times is translated
+ * into JVM bytecode by BlockCompiler. Cold code is interpreted by Cpu.step().
+ *
+ * Compiled blocks are dropped as soon as the Cpu writes to any byte they
+ * were translated from, at its own address or a mirror of it, or their
+ * pages are remapped (e.g. by a bank switch). Memory changed behind the
+ * Cpu's back any other way (e.g. by loading a new image) needs a call to
+ * flush().
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Recompiler
+{
+	/* Default number of interpreted runs before a block is compiled */
+	public static final int DEFAULT_THRESHOLD = 64;
+
+	private Cpu theCpu;
+	private Memory theMemory;
+	private BlockCompiler compiler;
+	private int threshold;
+	/* Compiled blocks and entry counts, indexed by start address */
+	private CompiledBlock[] blocks = new CompiledBlock[65536];
+	private int[] counts = new int[65536];
+	/* Compiled blocks overlapping each 256-byte page, null if none */
+	private List<List<CompiledBlock>> pages = new ArrayList<List<CompiledBlock>>();
+	/* Memory's watchpoints when blocks were last compiled */
+	private int watchGeneration;
+	/* Memory's mappings, overall and per page, as of the last check */
+	private int mapGeneration;
+	private int[] pageGenerations = new int[256];
+
+    /**
+     * Attaches a recompiler to a processor, using the default threshold.
+     *
+     * @param cpu The processor to run.
+     */
+	public Recompiler( Cpu cpu )
+	{
+		this( cpu, DEFAULT_THRESHOLD );
+	}
+
+    /**
+     * Attaches a recompiler to a processor.
+     *
+     * @param cpu The processor to run.
+     * @param hotThreshold Number of times a block is interpreted before it is compiled.
+     */
+	public Recompiler( Cpu cpu, int hotThreshold )
+	{
+		theCpu = cpu;
+		theMemory = cpu.getMemory();
+		compiler = new BlockCompiler( theMemory );
+		threshold = hotThreshold;
+		for ( int i = 0; i < 256; ++i )
+		{
+			pages.add( null );
+			pageGenerations[i] = theMemory.getPageGeneration( i );
+		}
+		mapGeneration = theMemory.getMapGeneration();
+		cpu.setRecompiler( this );
+	}
+
+    /**
+     * Runs the basic block at the PC, compiled if it is hot.
+     *
+     * @return Number of instructions executed.
+     */
+	public int execute()
+	{
+		int pc = theCpu.getPC();
+		if ( watchGeneration != theMemory.getWatchGeneration() )
+		{
+			// Compiled code doesn't fetch opcodes, so execute watchpoints need it gone
+			flush();
+			watchGeneration = theMemory.getWatchGeneration();
+		}
+		if ( mapGeneration != theMemory.getMapGeneration() )
+		{
+			remapped();
+		}
+		CompiledBlock block = blocks[pc];
+		if ( block == null && ++counts[pc] > threshold )
+		{
+			block = compile( pc );
+		}
+		if ( block != null )
+		{
+			theCpu.setCodeWritten( false );
+			int count = block.execute( theCpu );
+			theCpu.getState().instructions += count;
+			return count;
+		}
+		return interpret();
+	}
+
+    /**
+     * Interprets up to the end of the current basic block. A BRK always
+     * runs on its own, so callers can stop on one before it executes.
+     */
+	private int interpret()
+	{
+		int count = 0;
+		while ( true )
+		{
+			int opcode = theMemory.peek( theCpu.getPC() );
+			Opcode op = OpcodeTable.getOpcode( opcode );
+			if ( count > 0 && op == Opcode.BRK )
+			{
+				return count;
+			}
+			theCpu.step();
+			count++;
+			if ( op == null || count >= BlockCompiler.MAX_INSTRUCTIONS
+					|| BlockCompiler.endsBlock( op, OpcodeTable.getMode( opcode ) ) )
+			{
+				return count;
+			}
+		}
+	}
+
+	private CompiledBlock compile( int start )
+	{
+		CompiledBlock block = compiler.compile( start );
+		if ( block == null || isExecuteWatched( block ) )
+		{
+			// Never compilable ( e.g. a BRK ), or not while watched, stop counting it
+			counts[start] = Integer.MIN_VALUE;
+			return null;
+		}
+		blocks[start] = block;
+		for ( int page = start >> 8; page <= ( block.end - 1 ) >> 8; ++page )
+		{
+			if ( pages.get( page ) == null )
+			{
+				pages.set( page, new ArrayList<CompiledBlock>() );
+			}
+			pages.get( page ).add( block );
+		}
+		return block;
+	}
+
+	private boolean isExecuteWatched( CompiledBlock block )
+	{
+		for ( int page = block.start >> 8; page <= ( block.end - 1 ) >> 8; ++page )
+		{
+			if ( theMemory.isWatched( page, Memory.WATCH_EXECUTE ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+    /**
+     * Called by the Cpu for every write. Drops any block translated from
+     * addr, or from the same byte at any other address mirroring it.
+     *
+     * @param addr The address written.
+     */
+	void written( int addr )
+	{
+		if ( mapGeneration != theMemory.getMapGeneration() )
+		{
+			// A mapper register, the block running may have been switched out
+			remapped();
+		}
+		int[] aliases = theMemory.getAliases( addr >> 8 );
+		if ( aliases == null )
+		{
+			dropBlocks( addr & 0xffff );
+			return;
+		}
+		for ( int page : aliases )
+		{
+			dropBlocks( ( page << 8 ) | ( addr & 0xff ) );
+		}
+	}
+
+	private void dropBlocks( int addr )
+	{
+		List<CompiledBlock> onPage = pages.get( addr >> 8 );
+		if ( onPage == null )
+		{
+			return;
+		}
+		for ( int i = onPage.size() - 1; i >= 0; --i )
+		{
+			CompiledBlock block = onPage.get( i );
+			if ( block.covers( addr ) )
+			{
+				invalidate( block );
+			}
+		}
+	}
+
+    /**
+     * Drops the blocks on every page remapped since the last check.
+     */
+	private void remapped()
+	{
+		mapGeneration = theMemory.getMapGeneration();
+		for ( int page = 0; page < 256; ++page )
+		{
+			int generation = theMemory.getPageGeneration( page );
+			if ( pageGenerations[page] == generation )
+			{
+				continue;
+			}
+			pageGenerations[page] = generation;
+			List<CompiledBlock> onPage = pages.get( page );
+			while ( onPage != null && !onPage.isEmpty() )
+			{
+				invalidate( onPage.get( onPage.size() - 1 ) );
+				onPage = pages.get( page );
+			}
+		}
+	}
+
+	private void invalidate( CompiledBlock block )
+	{
+		blocks[block.start] = null;
+		counts[block.start] = 0;
+		for ( int page = block.start >> 8; page <= ( block.end - 1 ) >> 8; ++page )
+		{
+			List<CompiledBlock> onPage = pages.get( page );
+			onPage.remove( block );
+			if ( onPage.isEmpty() )
+			{
+				pages.set( page, null );
+			}
+		}
+		theCpu.setCodeWritten( true );
+	}
+
+    /**
+     * Drops every compiled block, e.g. after loading new code into memory.
+     */
+	public void flush()
+	{
+		for ( int i = 0; i < blocks.length; ++i )
+		{
+			blocks[i] = null;
+			counts[i] = 0;
+		}
+		for ( int i = 0; i < 256; ++i )
+		{
+			pages.set( i, null );
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.twistdroach.sixty502;
+
+/**
+ * RecorderState.java
+ * Which of the emulator's Flight Recorder events a running recording has
+ * enabled. The run loop checks a flag here instead of allocating an event
+ * to ask, so with nothing recording the events cost a field read and
+ * processors share no state.
+ *
+ * The flags are updated as recordings start and stop. Enabling an event
+ * on a recording that is already running takes effect the next time any
+ * recording changes state.
+ *
+ * @author Christopher Erickson
+ */
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+
+final class RecorderState
+{
+    static volatile boolean runs;
+    static volatile boolean interrupts;
+    static volatile boolean throughput;
+
+    static
+    {
+        FlightRecorder.addListener( new FlightRecorderListener()
+        {
+            public void recorderInitialized( FlightRecorder recorder )
+            {
+                // The recorder only calls the sampler while the event is enabled
+                ThroughputEvent.start();
+            }
+
+            public void recordingStateChanged( Recording recording )
+            {
+                update();
+            }
+        } );
+        // Recordings already running when this class was loaded don't call the listener
+        if ( FlightRecorder.isInitialized() )
+            update();
+    }
+
+    private RecorderState()
+    {
+    }
+
+    private static synchronized void update()
+    {
+        runs = EventType.getEventType( RunEvent.class ).isEnabled();
+        interrupts = EventType.getEventType( InterruptEvent.class ).isEnabled();
+        throughput = EventType.getEventType( ThroughputEvent.class ).isEnabled();
+    }
+}
@@ -0,0 +1,139 @@
+package com.twistdroach.sixty502;
+
+/**
+ * RingTraceSink.java
+ * Keeps the last N instructions and the registers after each, for dumping
+ * after something has gone wrong. States are copied into preallocated
+ * arrays, so tracing allocates nothing however long the run.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+
+public class RingTraceSink implements TraceSink
+{
+    private Instruction[] insts;
+    private int[] index, p, a, x, y, pc;
+    private long[] cycles;
+    private int next;       // Slot the next instruction goes in
+    private long count;     // Instructions traced in total
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param capacity Number of instructions to keep.
+     */
+    public RingTraceSink( int capacity )
+    {
+        if ( capacity <= 0 )
+            throw new IllegalArgumentException( "Capacity must be positive: " + capacity );
+        insts = new Instruction[capacity];
+        index = new int[capacity];
+        p = new int[capacity];
+        a = new int[capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        pc = new int[capacity];
+        cycles = new long[capacity];
+    }
+
+    public void trace( int at, Instruction inst, CpuState state )
+    {
+        int i = next;
+        insts[i] = inst;
+        index[i] = at;
+        p[i] = state.getP();
+        a[i] = state.a;
+        x[i] = state.x;
+        y[i] = state.y;
+        pc[i] = state.pc;
+        cycles[i] = state.cycles;
+        next = ( i + 1 == insts.length ) ? 0 : i + 1;
+        count++;
+    }
+
+    public void close()
+    {
+    }
+
+    /**
+     * Returns the number of instructions held, at most the capacity.
+     */
+    public int size()
+    {
+        return (int) Math.min( count, insts.length );
+    }
+
+    /**
+     * Returns the number of instructions traced since the sink was created.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the cycle counter after the i'th oldest instruction held.
+     */
+    public long getCycles( int i )
+    {
+        return cycles[slot( i )];
+    }
+
+    /**
+     * Returns the index within the program of the i'th oldest instruction held.
+     */
+    public int getIndex( int i )
+    {
+        return index[slot( i )];
+    }
+
+    /**
+     * Returns the PC after the i'th oldest instruction held.
+     */
+    public int getPC( int i )
+    {
+        return pc[slot( i )];
+    }
+
+    /**
+     * Writes the instructions held, oldest first, in the same format as
+     * FileTraceSink.
+     *
+     * @param stream Where to write the dump.
+     */
+    public void dump( PrintStream stream )
+    {
+        Writer out = new BufferedWriter( new OutputStreamWriter( stream ) );
+        try
+        {
+            int size = size();
+            for ( int i = 0; i < size; ++i )
+            {
+                int s = slot( i );
+                FileTraceSink.write( out, FileTraceSink.describe( insts[s] ), p[s], a[s], x[s], y[s], pc[s] );
+            }
+            out.flush();
+        }
+        catch ( IOException ex )
+        {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    /**
+     * Converts an age ( 0 is the oldest held ) to an array index.
+     */
+    private int slot( int i )
+    {
+        if ( i < 0 || i >= size() )
+            throw new IndexOutOfBoundsException( "No traced instruction " + i );
+        int s = next - size() + i;
+        return s < 0 ? s + insts.length : s;
+    }
+}
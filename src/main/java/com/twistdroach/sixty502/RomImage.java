@@ -0,0 +1,101 @@
+package com.twistdroach.sixty502;
+
+/**
+ * RomImage.java
+ * A binary image held once in 256-byte pages and never modified after it
+ * is built, so any number of machines, on any threads, can map the same
+ * one. Memory.mapRom() makes it ROM, read in place; Memory.load() makes it
+ * the starting contents of RAM, shared until a machine writes a page, when
+ * that machine alone gets a copy of the page.
+ *
+ * A machine running from a shared image then costs its page table and the
+ * pages it writes, not another copy of the image.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public final class RomImage
+{
+    private final byte[][] pages;
+    private final int size;
+
+    /**
+     * Builds an image from a copy of some bytes. A last partial page is
+     * padded with zeroes.
+     *
+     * @param bytes The image, at most 64 KB.
+     */
+    public RomImage( byte[] bytes )
+    {
+        this( bytes, 0, bytes.length );
+    }
+
+    /**
+     * Builds an image from a copy of part of an array.
+     *
+     * @param bytes The array.
+     * @param offset Index of the first byte.
+     * @param length Number of bytes, at most 64 KB for an image mapped
+     *               whole, or any size for banks.
+     */
+    public RomImage( byte[] bytes, int offset, int length )
+    {
+        if ( offset < 0 || length < 0 || offset + length > bytes.length )
+        {
+            throw new IllegalArgumentException( "Can't take " + length + " bytes at " + offset
+                    + " of " + bytes.length );
+        }
+        size = length;
+        pages = new byte[( length + 0xff ) >> 8][256];
+        for ( int i = 0; i < pages.length; ++i )
+        {
+            System.arraycopy( bytes, offset + ( i << 8 ), pages[i], 0, Math.min( 256, length - ( i << 8 ) ) );
+        }
+    }
+
+    /**
+     * Reads an image file.
+     *
+     * @param fileName Location of the file.
+     */
+    public static RomImage load( String fileName ) throws IOException
+    {
+        return new RomImage( Files.readAllBytes( Paths.get( fileName ) ) );
+    }
+
+    /**
+     * Returns the size of the image in bytes, before padding.
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    public int getPageCount()
+    {
+        return pages.length;
+    }
+
+    /**
+     * Reads a byte of the image.
+     *
+     * @param index Index in the image.
+     * @return The byte ( 0 <= value <= 255 ).
+     */
+    public int read( int index )
+    {
+        return pages[index >> 8][index & 0xff] & 0xff;
+    }
+
+    /**
+     * Returns a page itself, which must never be written.
+     */
+    byte[] getPage( int index )
+    {
+        return pages[index];
+    }
+}
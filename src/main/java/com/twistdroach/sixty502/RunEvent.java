@@ -0,0 +1,40 @@
+package com.twistdroach.sixty502;
+
+/**
+ * RunEvent.java
+ * Flight Recorder event for one bounded run of a Processor: how long it
+ * took, what it executed and why it stopped.
+ *
+ * Like all of the emulator's events it is off by default. Enable it in
+ * the recording's settings, e.g. Recording.enable( "sixty502.Run" ) or
+ * a .jfc file with a "sixty502.Run" event set to enabled.
+ *
+ * @author Christopher Erickson
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name( "sixty502.Run" )
+@Label( "Emulator Run" )
+@Category( "Emulator" )
+@Description( "A bounded run of the processor" )
+@Enabled( false )
+public class RunEvent extends Event
+{
+    @Label( "Instructions" )
+    long instructions;
+
+    @Label( "Cycles" )
+    long cycles;
+
+    @Label( "Stop Reason" )
+    String stopReason;
+
+    @Label( "Final PC" )
+    int pc;
+}
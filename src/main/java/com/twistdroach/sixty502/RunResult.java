@@ -0,0 +1,141 @@
+package com.twistdroach.sixty502;
+
+/**
+ * RunResult.java
+ * What one BatchRunner run ended with: the final registers, a digest of
+ * the final memory, how many instructions ran and how long it took.
+ *
+ * @author Christopher Erickson
+ */
+
+public class RunResult
+{
+    private String name;
+    private int a, x, y, sp, p, pc;
+    private long memoryDigest;
+    private long instructions;
+    private long wallNanos;
+    private StopReason stopReason;
+
+    /**
+     * Captures the state of a machine after it has run.
+     *
+     * @param runName File name or seed the run is identified by.
+     * @param machine The machine, stopped.
+     * @param reason Why the run stopped.
+     * @param count Number of instructions executed.
+     * @param nanos Wall time spent running, in nanoseconds.
+     */
+    public RunResult( String runName, Machine machine, StopReason reason, long count, long nanos )
+    {
+        CpuState state = machine.getState();
+        name = runName;
+        a = state.getA();
+        x = state.getX();
+        y = state.getY();
+        sp = state.getSP();
+        p = state.getP();
+        pc = state.getPC();
+        memoryDigest = digest( machine.getMemory() );
+        instructions = count;
+        wallNanos = nanos;
+        stopReason = reason;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of all 64 KB of memory.
+     */
+    public static long digest( Memory memory )
+    {
+        long hash = 0xcbf29ce484222325L;
+        for ( int addr = 0; addr < 0x10000; ++addr )
+        {
+            hash ^= memory.peek( addr );
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getA()
+    {
+        return a;
+    }
+
+    public int getX()
+    {
+        return x;
+    }
+
+    public int getY()
+    {
+        return y;
+    }
+
+    public int getSP()
+    {
+        return sp;
+    }
+
+    public int getP()
+    {
+        return p;
+    }
+
+    public int getPC()
+    {
+        return pc;
+    }
+
+    public long getMemoryDigest()
+    {
+        return memoryDigest;
+    }
+
+    public long getInstructions()
+    {
+        return instructions;
+    }
+
+    public long getWallNanos()
+    {
+        return wallNanos;
+    }
+
+    public StopReason getStopReason()
+    {
+        return stopReason;
+    }
+
+    /**
+     * Returns false if the run was stopped by the instruction limit
+     * before the PC left the program or hit a BRK.
+     */
+    public boolean isFinished()
+    {
+        return stopReason != StopReason.BUDGET_EXHAUSTED;
+    }
+
+    /**
+     * One line per run, e.g. for the batch CLI.
+     */
+    @Override
+    public String toString()
+    {
+        return name
+                + " A=" + CpuState.toHex( a, 2 )
+                + " X=" + CpuState.toHex( x, 2 )
+                + " Y=" + CpuState.toHex( y, 2 )
+                + " SP=" + CpuState.toHex( sp, 2 )
+                + " P=" + CpuState.toHex( p, 2 )
+                + " PC=" + CpuState.toHex( pc, 4 )
+                + " mem=" + String.format( "%016x", memoryDigest )
+                + " instructions=" + instructions
+                + " ms=" + String.format( "%.3f", wallNanos / 1e6 )
+                + " stop=" + stopReason;
+    }
+}
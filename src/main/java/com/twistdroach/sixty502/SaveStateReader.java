@@ -0,0 +1,162 @@
+package com.twistdroach.sixty502;
+
+/**
+ * SaveStateReader.java
+ * Reads a save-state file written by SaveStateWriter. The whole file is
+ * read with one FileChannel read and the chain is rebuilt as snapshots,
+ * each sharing its unchanged pages with the state before it.
+ *
+ * Usage:
+ *   SaveStateReader states.sav
+ *
+ * prints one line per state.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SaveStateReader
+{
+    private List<MachineSnapshot> states = new ArrayList<MachineSnapshot>();
+
+    /**
+     * Reads every state in a file.
+     *
+     * @param fileName Location of the save-state file.
+     */
+    public SaveStateReader( String fileName ) throws IOException
+    {
+        ByteBuffer data;
+        try ( FileChannel channel = FileChannel.open( Paths.get( fileName ), StandardOpenOption.READ ) )
+        {
+            data = ByteBuffer.allocate( (int) channel.size() ).order( ByteOrder.LITTLE_ENDIAN );
+            while ( data.hasRemaining() && channel.read( data ) >= 0 )
+            {
+            }
+        }
+        data.flip();
+        if ( data.remaining() < SaveStateWriter.HEADER_SIZE || data.getLong( 0 ) != SaveStateWriter.MAGIC )
+            throw new IllegalStateException( fileName + " is not a save state" );
+        if ( data.getShort( 8 ) != SaveStateWriter.VERSION )
+            throw new IllegalStateException( fileName + " is an unsupported save-state version" );
+        data.position( data.getShort( 10 ) );
+
+        byte[][] pages = SaveStateWriter.POWER_ON.getPages();
+        while ( data.remaining() >= SaveStateWriter.STATE_SIZE )
+        {
+            int start = data.position();
+            int size = data.getInt( start );
+            if ( size < SaveStateWriter.STATE_SIZE || size > data.remaining() )
+                break;   // Cut short while being written
+
+            CpuState state = new CpuState();
+            state.pc = data.getInt( start + 4 );
+            state.cycles = data.getLong( start + 8 );
+            state.instructions = data.getLong( start + 16 );
+            state.a = data.get( start + 24 ) & 0xff;
+            state.x = data.get( start + 25 ) & 0xff;
+            state.y = data.get( start + 26 ) & 0xff;
+            state.sp = data.get( start + 27 ) & 0xff;
+            state.setP( data.get( start + 28 ) & 0xff );
+            state.setDecimalEnabled( ( data.get( start + 29 ) & SaveStateWriter.DECIMAL ) != 0 );
+            int count = data.getShort( start + 30 ) & 0xffff;
+
+            pages = pages.clone();
+            data.position( start + SaveStateWriter.STATE_SIZE );
+            for ( int i = 0; i < count; ++i )
+            {
+                int page = data.get() & 0xff;
+                pages[ page ] = readPage( data, data.get() );
+            }
+            if ( data.position() != start + size )
+                throw new IllegalStateException( fileName + " is corrupt at offset " + start );
+            states.add( new MachineSnapshot( state, new MemorySnapshot( pages ) ) );
+        }
+    }
+
+    private static byte[] readPage( ByteBuffer data, int encoding )
+    {
+        byte[] bytes = new byte[256];
+        switch ( encoding )
+        {
+        case SaveStateWriter.ZERO:
+            break;
+        case SaveStateWriter.RAW:
+            data.get( bytes );
+            break;
+        case SaveStateWriter.RLE:
+            int end = ( data.getShort() & 0xffff ) + data.position();
+            int out = 0;
+            while ( data.position() < end )
+            {
+                int n = data.get();
+                if ( n >= 0 )
+                {
+                    data.get( bytes, out, n + 1 );
+                    out += n + 1;
+                }
+                else if ( n != -128 )
+                {
+                    Arrays.fill( bytes, out, out + 1 - n, data.get() );
+                    out += 1 - n;
+                }
+            }
+            break;
+        default:
+            throw new IllegalStateException( "Unknown page encoding " + encoding );
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns every state in the file, oldest first.
+     */
+    public List<MachineSnapshot> getStates()
+    {
+        return states;
+    }
+
+    /**
+     * Returns the newest state, or null if the file holds none.
+     */
+    public MachineSnapshot getLatest()
+    {
+        return states.isEmpty() ? null : states.get( states.size() - 1 );
+    }
+
+    /**
+     * Lists the states in a save-state file.
+     *
+     * @param args See the class comment.
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        if ( args.length < 1 )
+        {
+            System.out.println( "Usage: SaveStateReader states.sav" );
+            return;
+        }
+        List<MachineSnapshot> states = new SaveStateReader( args[0] ).getStates();
+        for ( int i = 0; i < states.size(); ++i )
+        {
+            CpuState state = states.get( i ).getState();
+            System.out.println( i
+                    + " A=" + CpuState.toHex( state.getA(), 2 )
+                    + " X=" + CpuState.toHex( state.getX(), 2 )
+                    + " Y=" + CpuState.toHex( state.getY(), 2 )
+                    + " SP=" + CpuState.toHex( state.getSP(), 2 )
+                    + " P=" + CpuState.toHex( state.getP(), 2 )
+                    + " PC=" + CpuState.toHex( state.getPC(), 4 )
+                    + " cycles=" + state.getCycles() );
+        }
+    }
+}
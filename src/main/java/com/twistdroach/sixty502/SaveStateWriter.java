@@ -0,0 +1,217 @@
+package com.twistdroach.sixty502;
+
+/**
+ * SaveStateWriter.java
+ * Writes machine snapshots to a save-state file as a chain: each state
+ * stores its registers and only the RAM pages that differ from the state
+ * before it, the first one from zeroed RAM. Pages a snapshot still shares
+ * with the previous one are skipped without being compared, so appending
+ * a state after a short run costs little in time or space.
+ *
+ * File layout, little-endian:
+ *   Header ( 16 bytes ): magic "6502SAVE", short version, short header
+ *     size, int reserved.
+ *   States, one after another:
+ *     int record size in bytes, int PC, long cycles, long instructions,
+ *     bytes A, X, Y, SP, P, byte flags ( bit 0 set if decimal mode is
+ *     enabled ), short number of pages, then each page:
+ *       byte page number, byte encoding, then for
+ *         ZERO  nothing, the page is all zeroes;
+ *         RAW   256 bytes;
+ *         RLE   short length, then that many bytes of PackBits: a
+ *               control byte n of 0 to 127 is followed by n + 1 literal
+ *               bytes, one of -1 to -127 by a byte repeated 1 - n times.
+ *
+ * SaveStateReader reads the file back.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class SaveStateWriter
+{
+    public static final long MAGIC = 0x4556415332303536L;   // "6502SAVE", little-endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    /* Size of a state before its pages */
+    static final int STATE_SIZE = 32;
+    /* Page encodings */
+    static final int ZERO = 0;
+    static final int RAW = 1;
+    static final int RLE = 2;
+    /* Flag bits */
+    static final int DECIMAL = 1;
+    /* Zeroed RAM, what the first state is stored against */
+    static final MemorySnapshot POWER_ON = new Memory().snapshot();
+
+    private FileChannel channel;
+    private MemorySnapshot previous = POWER_ON;
+    /* Big enough for a state with every page stored raw */
+    private ByteBuffer buffer = ByteBuffer.allocate( STATE_SIZE + 256 * 258 ).order( ByteOrder.LITTLE_ENDIAN );
+    private byte[] packed = new byte[512];
+
+    /**
+     * Starts a new save-state file.
+     *
+     * @param fileName Location of the file, replaced if it exists.
+     */
+    public SaveStateWriter( String fileName ) throws IOException
+    {
+        this( fileName, false );
+    }
+
+    /**
+     * Opens a save-state file.
+     *
+     * @param fileName Location of the file.
+     * @param append True to add states to the end of an existing chain,
+     *               false to replace the file.
+     */
+    public SaveStateWriter( String fileName, boolean append ) throws IOException
+    {
+        if ( append && Files.exists( Paths.get( fileName ) ) )
+        {
+            MachineSnapshot latest = new SaveStateReader( fileName ).getLatest();
+            if ( latest != null )
+                previous = latest.getMemory();
+            channel = FileChannel.open( Paths.get( fileName ), StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+            return;
+        }
+        channel = FileChannel.open( Paths.get( fileName ), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        header.putLong( MAGIC ).putShort( (short) VERSION ).putShort( (short) HEADER_SIZE ).putInt( 0 );
+        header.flip();
+        writeFully( header );
+    }
+
+    /**
+     * Adds a state to the end of the chain.
+     *
+     * @param snapshot The machine to save, e.g. from Machine.snapshot().
+     */
+    public void append( MachineSnapshot snapshot ) throws IOException
+    {
+        CpuState state = snapshot.getState();
+        MemorySnapshot memory = snapshot.getMemory();
+        byte[][] pages = memory.getPages();
+        byte[][] before = previous.getPages();
+
+        buffer.clear();
+        buffer.position( STATE_SIZE );
+        int count = 0;
+        for ( int page = 0; page < 256; ++page )
+        {
+            if ( pages[ page ] == before[ page ] || Arrays.equals( pages[ page ], before[ page ] ) )
+                continue;
+            putPage( page, pages[ page ] );
+            count++;
+        }
+        buffer.putInt( 0, buffer.position() );
+        buffer.putInt( 4, state.pc );
+        buffer.putLong( 8, state.cycles );
+        buffer.putLong( 16, state.instructions );
+        buffer.put( 24, (byte) state.a );
+        buffer.put( 25, (byte) state.x );
+        buffer.put( 26, (byte) state.y );
+        buffer.put( 27, (byte) state.sp );
+        buffer.put( 28, (byte) state.getP() );
+        buffer.put( 29, (byte) ( state.isDecimalEnabled() ? DECIMAL : 0 ) );
+        buffer.putShort( 30, (short) count );
+        buffer.flip();
+        writeFully( buffer );
+        previous = memory;
+    }
+
+    private void putPage( int page, byte[] bytes )
+    {
+        buffer.put( (byte) page );
+        if ( isZero( bytes ) )
+        {
+            buffer.put( (byte) ZERO );
+            return;
+        }
+        int length = pack( bytes );
+        if ( length < 256 )
+        {
+            buffer.put( (byte) RLE ).putShort( (short) length ).put( packed, 0, length );
+        }
+        else
+        {
+            buffer.put( (byte) RAW ).put( bytes );
+        }
+    }
+
+    private static boolean isZero( byte[] bytes )
+    {
+        for ( int i = 0; i < bytes.length; ++i )
+        {
+            if ( bytes[i] != 0 )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * PackBits a page into packed.
+     *
+     * @return The packed length.
+     */
+    private int pack( byte[] bytes )
+    {
+        int out = 0;
+        int i = 0;
+        while ( i < bytes.length )
+        {
+            // Length of the run starting here, up to 128
+            int run = 1;
+            while ( i + run < bytes.length && run < 128 && bytes[i + run] == bytes[i] )
+                run++;
+            if ( run > 2 )
+            {
+                packed[out++] = (byte) ( 1 - run );
+                packed[out++] = bytes[i];
+                i += run;
+                continue;
+            }
+            // Literals until the next run of three or more, up to 128
+            int start = i;
+            while ( i < bytes.length && i - start < 128
+                    && !( i + 2 < bytes.length && bytes[i] == bytes[i + 1] && bytes[i] == bytes[i + 2] ) )
+                i++;
+            packed[out++] = (byte) ( i - start - 1 );
+            System.arraycopy( bytes, start, packed, out, i - start );
+            out += i - start;
+        }
+        return out;
+    }
+
+    private void writeFully( ByteBuffer data ) throws IOException
+    {
+        while ( data.hasRemaining() )
+        {
+            channel.write( data );
+        }
+    }
+
+    /**
+     * Blocks until every state so far has reached the disk.
+     */
+    public void force() throws IOException
+    {
+        channel.force( false );
+    }
+
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,23 @@
+package com.twistdroach.sixty502;
+
+/**
+ * StopReason.java
+ * Why a bounded run of the processor handed control back to its caller.
+ * Every reason leaves the processor ready to resume with another run.
+ *
+ * @author Christopher Erickson
+ */
+
+public enum StopReason
+{
+	/* The instruction or cycle budget ran out */
+	BUDGET_EXHAUSTED,
+	/* A BRK instruction was executed; the PC is past it */
+	BRK,
+	/* The PC reached a breakpoint; the instruction there hasn't run yet */
+	BREAKPOINT,
+	/* The PC left the program */
+	END_OF_PROGRAM,
+	/* A watchpoint stopped the run; the instruction that hit it has completed */
+	WATCHPOINT
+}
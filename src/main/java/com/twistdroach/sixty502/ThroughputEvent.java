@@ -0,0 +1,124 @@
+package com.twistdroach.sixty502;
+
+/**
+ * ThroughputEvent.java
+ * Flight Recorder event sampling how fast the emulator is running, summed
+ * over every processor in the JVM. Off by default, see RunEvent.
+ *
+ * Samples are taken on the recorder's own thread from the counters in
+ * each registered CpuState, so the run loop does nothing extra to feed
+ * them. The counters are read without synchronization, so a sample may
+ * lag the processors slightly. Processors only register once a recording
+ * enables the event ( see RecorderState ), so until then nothing here is
+ * touched.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+@Name( "sixty502.Throughput" )
+@Label( "Emulator Throughput" )
+@Category( "Emulator" )
+@Description( "Instructions and cycles executed by all processors since the last sample" )
+@Enabled( false )
+@Period( "1 s" )
+@StackTrace( false )
+public class ThroughputEvent extends Event
+{
+    /* Counters seen at the last sample, by state. Processors that are collected drop out */
+    private static final Map<CpuState, long[]> states = new WeakHashMap<CpuState, long[]>();
+    private static long lastSample;
+    private static boolean started;
+
+    @Label( "Processors" )
+    @Description( "Processors that executed instructions since the last sample" )
+    int processors;
+
+    @Label( "Instructions" )
+    long instructions;
+
+    @Label( "Cycles" )
+    long cycles;
+
+    @Label( "Instructions per Second" )
+    double instructionsPerSecond;
+
+    @Label( "Cycles per Second" )
+    double cyclesPerSecond;
+
+    /**
+     * Hooks the sampler into the recorder once it is initialized.
+     */
+    static synchronized void start()
+    {
+        if ( started )
+            return;
+        started = true;
+        FlightRecorder.addPeriodicEvent( ThroughputEvent.class, new Runnable()
+        {
+            public void run()
+            {
+                sample();
+            }
+        } );
+    }
+
+    /**
+     * Includes a processor's registers in the samples. Only called while
+     * RecorderState.throughput is set.
+     */
+    static void register( CpuState state )
+    {
+        synchronized ( states )
+        {
+            if ( !states.containsKey( state ) )
+                states.put( state, new long[] { state.instructions, state.cycles } );
+        }
+    }
+
+    private static void sample()
+    {
+        ThroughputEvent event = new ThroughputEvent();
+        long now = System.nanoTime();
+        synchronized ( states )
+        {
+            for ( Map.Entry<CpuState, long[]> entry : states.entrySet() )
+            {
+                CpuState state = entry.getKey();
+                long[] seen = entry.getValue();
+                long ranInstructions = state.instructions - seen[0];
+                long ranCycles = state.cycles - seen[1];
+                seen[0] += ranInstructions;
+                seen[1] += ranCycles;
+                if ( ranInstructions != 0 )
+                {
+                    event.processors++;
+                    event.instructions += ranInstructions;
+                    event.cycles += ranCycles;
+                }
+            }
+        }
+
+        // The first sample only sets the baseline
+        long elapsed = now - lastSample;
+        boolean first = lastSample == 0;
+        lastSample = now;
+        if ( first || elapsed <= 0 )
+            return;
+        event.instructionsPerSecond = event.instructions * 1e9 / elapsed;
+        event.cyclesPerSecond = event.cycles * 1e9 / elapsed;
+        event.commit();
+    }
+}
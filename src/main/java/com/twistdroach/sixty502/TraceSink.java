@@ -0,0 +1,31 @@
+package com.twistdroach.sixty502;
+
+/**
+ * TraceSink.java
+ * Receives the state of the processor after every instruction it executes.
+ * The processor only calls a sink while one other than NullTraceSink is
+ * set, so untraced runs don't pay for tracing at all.
+ *
+ * Sinks are called on the thread running the processor and need not be
+ * thread-safe.
+ *
+ * @author Christopher Erickson
+ */
+
+public interface TraceSink
+{
+    /**
+     * Records one executed instruction.
+     *
+     * @param index Index of the instruction within the program. After a
+     *              jump or branch the PC no longer points at it.
+     * @param inst The instruction just executed.
+     * @param state The registers after executing it. Only valid during the call.
+     */
+    void trace( int index, Instruction inst, CpuState state );
+
+    /**
+     * Writes out anything still buffered and releases the sink's resources.
+     */
+    void close();
+}
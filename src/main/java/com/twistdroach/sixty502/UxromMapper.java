@@ -0,0 +1,29 @@
+package com.twistdroach.sixty502;
+
+/**
+ * UxromMapper.java
+ * Mapper 2: any write to $8000-$FFFF picks the 16 KB bank at $8000, and
+ * $C000 always holds the last bank. Bus conflicts aren't emulated; the
+ * value written is used as is.
+ *
+ * @author Christopher Erickson
+ */
+
+public class UxromMapper extends Mapper
+{
+    public UxromMapper( Cartridge cartridge )
+    {
+        super( cartridge );
+    }
+
+    public void reset()
+    {
+        mapPrg( 0x8000, 0x4000, 0 );
+        mapPrg( 0xc000, 0x4000, -1 );
+    }
+
+    public void write( int addr, int val )
+    {
+        mapPrg( 0x8000, 0x4000, val );
+    }
+}
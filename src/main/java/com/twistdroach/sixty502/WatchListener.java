@@ -0,0 +1,23 @@
+package com.twistdroach.sixty502;
+
+/**
+ * WatchListener.java
+ * Called by Memory when an access hits a watchpoint, on the thread
+ * running the machine and before the access completes. Listeners may
+ * peek at memory, pause or stop the machine, or remove watchpoints.
+ *
+ * @author Christopher Erickson
+ */
+
+public interface WatchListener
+{
+    /**
+     * Handles one matching access.
+     *
+     * @param watchpoint The watchpoint hit.
+     * @param addr The address accessed.
+     * @param val The value read, or about to be written.
+     * @param kind Memory.WATCH_READ, WATCH_WRITE or WATCH_EXECUTE.
+     */
+    void hit( Watchpoint watchpoint, int addr, int val, int kind );
+}
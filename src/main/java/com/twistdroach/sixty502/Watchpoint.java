@@ -0,0 +1,109 @@
+package com.twistdroach.sixty502;
+
+/**
+ * Watchpoint.java
+ * A range of addresses watched for reads, writes and / or execution, see
+ * Memory.watch(). Counts its hits and remembers the last one.
+ *
+ * @author Christopher Erickson
+ */
+
+public class Watchpoint
+{
+    private int start;
+    private int end;
+    private int kinds;
+    private WatchListener listener;
+    /* Hits so far, and the last one */
+    private long hits;
+    private int lastAddr;
+    private int lastValue;
+    private int lastKind;
+
+    /**
+     * @param first First address watched.
+     * @param last Last address watched, inclusive.
+     * @param watched Kinds of access watched, see Memory.WATCH_READ.
+     * @param callback Called on every hit, or null.
+     */
+    Watchpoint( int first, int last, int watched, WatchListener callback )
+    {
+        if ( last < first )
+        {
+            throw new IllegalArgumentException( "Watchpoint ends before it starts" );
+        }
+        start = first;
+        end = last;
+        kinds = watched;
+        listener = callback;
+    }
+
+    /**
+     * Records an access if it falls in the range and is of a kind watched.
+     */
+    void check( int addr, int val, int kind )
+    {
+        if ( addr < start || addr > end || ( kinds & kind ) == 0 )
+            return;
+        hits++;
+        lastAddr = addr;
+        lastValue = val;
+        lastKind = kind;
+        if ( listener != null )
+            listener.hit( this, addr, val, kind );
+    }
+
+    public int getStart()
+    {
+        return start;
+    }
+
+    public int getEnd()
+    {
+        return end;
+    }
+
+    public int getKinds()
+    {
+        return kinds;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the address of the last hit.
+     */
+    public int getLastAddress()
+    {
+        return lastAddr;
+    }
+
+    /**
+     * Returns the value read or written by the last hit.
+     */
+    public int getLastValue()
+    {
+        return lastValue;
+    }
+
+    /**
+     * Returns the kind of access of the last hit, see Memory.WATCH_READ.
+     */
+    public int getLastKind()
+    {
+        return lastKind;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "watch " + CpuState.toHex( start, 4 ) + "-" + CpuState.toHex( end, 4 )
+                + ( ( kinds & Memory.WATCH_READ ) != 0 ? " r" : "" )
+                + ( ( kinds & Memory.WATCH_WRITE ) != 0 ? " w" : "" )
+                + ( ( kinds & Memory.WATCH_EXECUTE ) != 0 ? " x" : "" )
+                + " hits=" + hits;
+    }
+}
@@ -0,0 +1,197 @@
+package com.twistdroach.sixty502;
+
+/**
+ * AluTest.java
+ * ADC and SBC through CpuState, for every accumulator, operand and carry
+ * in binary and decimal mode, against a straightforward model of the NMOS
+ * 6502 written the way VICE does it, plus a few worked examples.
+ *
+ * @author Christopher Erickson
+ */
+
+import junit.framework.TestCase;
+
+public class AluTest extends TestCase
+{
+    private static final int N = CpuState.N;
+    private static final int V = CpuState.V;
+    private static final int Z = CpuState.Z;
+    private static final int C = CpuState.C;
+    private static final int D = CpuState.D;
+    /* Flags ADC and SBC change */
+    private static final int FLAGS = N | V | Z | C;
+
+    /**
+     * NMOS ADC: returns A | P << 8, P holding only N, V, Z and C.
+     */
+    private static int referenceAdc( int a, int m, int c, boolean decimal )
+    {
+        int binary = a + m + c;
+        if ( !decimal )
+        {
+            boolean v = ( ( a ^ binary ) & ( m ^ binary ) & 0x80 ) != 0;
+            return result( binary & 0xff, ( binary & 0x80 ) != 0, ( binary & 0xff ) == 0, v, binary > 0xff );
+        }
+        int tmp = ( a & 0x0f ) + ( m & 0x0f ) + c;
+        if ( tmp > 0x09 )
+            tmp += 0x06;
+        if ( tmp <= 0x0f )
+            tmp = ( tmp & 0x0f ) + ( a & 0xf0 ) + ( m & 0xf0 );
+        else
+            tmp = ( tmp & 0x0f ) + ( a & 0xf0 ) + ( m & 0xf0 ) + 0x10;
+        // Z from the binary sum, N and V before the high digit is corrected
+        boolean z = ( binary & 0xff ) == 0;
+        boolean n = ( tmp & 0x80 ) != 0;
+        boolean v = ( ( a ^ tmp ) & 0x80 ) != 0 && ( ( a ^ m ) & 0x80 ) == 0;
+        if ( ( tmp & 0x1f0 ) > 0x90 )
+            tmp += 0x60;
+        return result( tmp & 0xff, n, z, v, ( tmp & 0xff0 ) > 0xf0 );
+    }
+
+    /**
+     * NMOS SBC: every flag comes from the binary difference.
+     */
+    private static int referenceSbc( int a, int m, int c, boolean decimal )
+    {
+        int binary = a - m - ( 1 - c );
+        boolean v = ( ( a ^ binary ) & ( a ^ m ) & 0x80 ) != 0;
+        int val = binary & 0xff;
+        if ( decimal )
+        {
+            int tmp = ( a & 0x0f ) - ( m & 0x0f ) - ( 1 - c );
+            if ( ( tmp & 0x10 ) != 0 )
+                tmp = ( ( tmp - 6 ) & 0x0f ) | ( ( a & 0xf0 ) - ( m & 0xf0 ) - 0x10 );
+            else
+                tmp = ( tmp & 0x0f ) | ( ( a & 0xf0 ) - ( m & 0xf0 ) );
+            if ( ( tmp & 0x100 ) != 0 )
+                tmp -= 0x60;
+            val = tmp & 0xff;
+        }
+        return result( val, ( binary & 0x80 ) != 0, ( binary & 0xff ) == 0, v, binary >= 0 );
+    }
+
+    private static int result( int a, boolean n, boolean z, boolean v, boolean c )
+    {
+        int p = ( n ? N : 0 ) | ( z ? Z : 0 ) | ( v ? V : 0 ) | ( c ? C : 0 );
+        return a | ( p << 8 );
+    }
+
+    /**
+     * Runs one ADC or SBC with every other flag set the opposite way, to
+     * check they are left alone.
+     */
+    private static int run( boolean subtract, int a, int m, int c, boolean decimal )
+    {
+        CpuState state = new CpuState();
+        int others = CpuState.I | CpuState.U | ( decimal ? D : 0 );
+        state.setP( others | c | ( c == 0 ? N | V | Z : 0 ) );
+        state.a = a;
+        if ( subtract )
+            state.sbc( m );
+        else
+            state.adc( m );
+        int p = state.getP();
+        assertEquals( others, p & ~FLAGS );
+        return state.a | ( ( p & FLAGS ) << 8 );
+    }
+
+    private static void assertAll( boolean subtract, boolean decimal )
+    {
+        for ( int c = 0; c < 2; ++c )
+        {
+            for ( int a = 0; a < 256; ++a )
+            {
+                for ( int m = 0; m < 256; ++m )
+                {
+                    int expected = subtract ? referenceSbc( a, m, c, decimal ) : referenceAdc( a, m, c, decimal );
+                    int actual = run( subtract, a, m, c, decimal );
+                    if ( expected != actual )
+                    {
+                        fail( ( subtract ? "SBC" : "ADC" ) + ( decimal ? " decimal" : " binary" )
+                                + " A=" + hex( a ) + " M=" + hex( m ) + " C=" + c
+                                + ": expected " + describe( expected ) + ", got " + describe( actual ) );
+                    }
+                }
+            }
+        }
+    }
+
+    private static String hex( int val )
+    {
+        return Integer.toHexString( val );
+    }
+
+    private static String describe( int result )
+    {
+        return "A=" + hex( result & 0xff ) + " NV-BDIZC=" + CpuState.toBin( result >> 8 );
+    }
+
+    public void testAdcBinary()
+    {
+        assertAll( false, false );
+    }
+
+    public void testAdcDecimal()
+    {
+        assertAll( false, true );
+    }
+
+    public void testSbcBinary()
+    {
+        assertAll( true, false );
+    }
+
+    public void testSbcDecimal()
+    {
+        assertAll( true, true );
+    }
+
+    /* Examples with known NMOS results */
+
+    public void testDecimalVectors()
+    {
+        // 58 + 46 + 1 = 105; the uncorrected $A5 sets N and V
+        assertEquals( result( 0x05, true, false, true, true ), run( false, 0x58, 0x46, 1, true ) );
+        // 12 + 34 = 46
+        assertEquals( result( 0x46, false, false, false, false ), run( false, 0x12, 0x34, 0, true ) );
+        // 15 + 26 = 41
+        assertEquals( result( 0x41, false, false, false, false ), run( false, 0x15, 0x26, 0, true ) );
+        // 81 + 92 = 173; N and V from the uncorrected sum
+        assertEquals( result( 0x73, false, false, true, true ), run( false, 0x81, 0x92, 0, true ) );
+        // 99 + 1 = 100; Z clear as $9A isn't zero, N set by the uncorrected $A0
+        assertEquals( result( 0x00, true, false, false, true ), run( false, 0x99, 0x01, 0, true ) );
+        // 46 - 12 = 34
+        assertEquals( result( 0x34, false, false, false, true ), run( true, 0x46, 0x12, 1, true ) );
+        // 40 - 13 = 27
+        assertEquals( result( 0x27, false, false, false, true ), run( true, 0x40, 0x13, 1, true ) );
+        // 32 - 2 - 1 = 29
+        assertEquals( result( 0x29, false, false, false, true ), run( true, 0x32, 0x02, 0, true ) );
+        // 12 - 21 = -9, borrows
+        assertEquals( result( 0x91, true, false, false, false ), run( true, 0x12, 0x21, 1, true ) );
+        // 21 - 34 = -13, borrows
+        assertEquals( result( 0x87, true, false, false, false ), run( true, 0x21, 0x34, 1, true ) );
+    }
+
+    public void testBinaryVectors()
+    {
+        assertEquals( result( 0x80, true, false, true, false ), run( false, 0x7f, 0x01, 0, false ) );
+        assertEquals( result( 0x00, false, true, false, true ), run( false, 0xff, 0x01, 0, false ) );
+        assertEquals( result( 0x7f, false, false, true, true ), run( true, 0x80, 0x01, 1, false ) );
+        assertEquals( result( 0xff, true, false, false, false ), run( true, 0x00, 0x00, 0, false ) );
+    }
+
+    public void testDecimalModeOff()
+    {
+        // A 2A03 ignores D, so ADC and SBC stay binary with it set
+        CpuState state = new CpuState();
+        state.setDecimalEnabled( false );
+        state.setP( D );
+        state.a = 0x09;
+        state.adc( 0x01 );
+        assertEquals( 0x0a, state.a );
+        state.setP( D | C );
+        state.a = 0x10;
+        state.sbc( 0x01 );
+        assertEquals( 0x0f, state.a );
+    }
+}
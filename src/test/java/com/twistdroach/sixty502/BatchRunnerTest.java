@@ -0,0 +1,66 @@
+package com.twistdroach.sixty502;
+
+/**
+ * BatchRunnerTest.java
+ * Batches run over JMX: a file listed more than once still gets a machine
+ * registered per run, and no machine stays registered after its run.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class BatchRunnerTest extends TestCase
+{
+    private File file;
+
+    protected void setUp() throws IOException
+    {
+        file = File.createTempFile( "batch", ".asm" );
+        Files.write( file.toPath(), "lda #2\nadc #2\ntax\n".getBytes( StandardCharsets.US_ASCII ) );
+    }
+
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private static int registeredMachines() throws MalformedObjectNameException
+    {
+        ObjectName pattern = new ObjectName( MachineMonitor.DOMAIN + ":type=Machine,*" );
+        return ManagementFactory.getPlatformMBeanServer().queryNames( pattern, null ).size();
+    }
+
+    public void testSameFileTwiceMonitored() throws MalformedObjectNameException
+    {
+        BatchRunner runner = new BatchRunner( 4, BatchRunner.DEFAULT_LIMIT );
+        runner.setMonitored( true );
+        List<String> files = Arrays.asList( file.getPath(), file.getPath(), file.getPath(), file.getPath() );
+        try
+        {
+            List<RunResult> results = runner.runFiles( files );
+            assertEquals( 4, results.size() );
+            for ( RunResult result : results )
+            {
+                assertEquals( file.getPath(), result.getName() );
+                assertEquals( 3, result.getInstructions() );
+            }
+        }
+        finally
+        {
+            runner.shutdown();
+        }
+        assertEquals( 0, registeredMachines() );
+    }
+}
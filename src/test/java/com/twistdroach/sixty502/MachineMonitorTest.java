@@ -0,0 +1,129 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MachineMonitorTest.java
+ * Snapshots and page counting through a MachineMonitor, on an idle
+ * machine and on one being run or stepped on another thread: each must
+ * complete, and leave the machine running as it was.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class MachineMonitorTest extends TestCase
+{
+    /* Counts in X and $10 forever */
+    private static final String LOOP =
+            "inx\n" +
+            "stx $10\n" +
+            "jmp #0\n";
+
+    private File file;
+    private Machine machine;
+    private MachineMonitor monitor;
+
+    protected void setUp() throws IOException
+    {
+        file = File.createTempFile( "monitor", ".asm" );
+        Files.write( file.toPath(), LOOP.getBytes( StandardCharsets.US_ASCII ) );
+        machine = new Machine( file.getPath() );
+        monitor = new MachineMonitor( machine, "test" );
+    }
+
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    public void testRunCount()
+    {
+        Processor processor = machine.getProcessor();
+        int before = processor.getRunCount();
+        assertFalse( processor.isRunning() );
+        machine.run( 10 );
+        machine.step();
+        assertEquals( before + 4, processor.getRunCount() );
+        assertTrue( processor.isRunCount( before + 4 ) );
+        assertFalse( processor.isRunning() );
+    }
+
+    public void testSnapshotOfIdleMachine()
+    {
+        machine.run( 30 );
+        String snapshot = monitor.snapshot();
+        assertTrue( snapshot, snapshot.startsWith( "test A=$00 X=$0a" ) );
+        assertTrue( snapshot, snapshot.contains( " instructions=30 " ) );
+        assertFalse( machine.getProcessor().isPauseRequested() );
+
+        // A pause asked for beforehand is kept
+        machine.pause();
+        monitor.snapshot();
+        assertTrue( machine.getProcessor().isPauseRequested() );
+        machine.resume();
+    }
+
+    /**
+     * Runs the machine on another thread, a step or a long run at a time,
+     * while snapshots are taken and counting is turned on and off.
+     */
+    private void monitorBusyMachine( final long budget ) throws InterruptedException
+    {
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread runner = new Thread()
+        {
+            public void run()
+            {
+                while ( !stop.get() )
+                {
+                    if ( budget == 1 )
+                        machine.step();
+                    else
+                        machine.run( budget );
+                }
+            }
+        };
+        runner.start();
+        try
+        {
+            for ( int i = 0; i < 20; ++i )
+            {
+                String snapshot = monitor.snapshot();
+                assertTrue( snapshot, snapshot.startsWith( "test A=$00 X=$" ) );
+                monitor.setPageCounting( ( i & 1 ) == 0 );
+                assertEquals( ( i & 1 ) == 0, monitor.isPageCounting() );
+            }
+            assertFalse( machine.getProcessor().isPauseRequested() );
+            long instructions = machine.getState().getInstructions();
+            long deadline = System.nanoTime() + 5000000000L;
+            while ( machine.getState().getInstructions() == instructions && System.nanoTime() < deadline )
+            {
+                Thread.yield();
+            }
+            assertTrue( "Left paused", machine.getState().getInstructions() != instructions );
+        }
+        finally
+        {
+            stop.set( true );
+            runner.join();
+        }
+        assertTrue( machine.getMemory().peek( 0x10 ) == machine.getState().getX()
+                || machine.getMemory().peek( 0x10 ) == ( ( machine.getState().getX() - 1 ) & 0xff ) );
+    }
+
+    public void testMonitorSteppedMachine() throws InterruptedException
+    {
+        monitorBusyMachine( 1 );
+    }
+
+    public void testMonitorRunningMachine() throws InterruptedException
+    {
+        monitorBusyMachine( 1000000 );
+    }
+}
@@ -0,0 +1,329 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MapperTest.java
+ * Bank switching by the NES mappers, read back through Memory, and the
+ * Recompiler running code that switches out its own bank.
+ *
+ * Every byte of the test cartridges holds the number of the 8 KB bank it
+ * is in, so a read shows which bank is mapped there.
+ *
+ * @author Christopher Erickson
+ */
+
+import junit.framework.TestCase;
+
+public class MapperTest extends TestCase
+{
+    /**
+     * Builds an iNES image with no CHR ROM.
+     *
+     * @param mapper Mapper number.
+     * @param prgBanks Number of 16 KB PRG banks.
+     */
+    private static byte[] image( int mapper, int prgBanks )
+    {
+        byte[] image = new byte[Cartridge.HEADER_SIZE + prgBanks * Cartridge.PRG_BANK_SIZE];
+        image[0] = 'N';
+        image[1] = 'E';
+        image[2] = 'S';
+        image[3] = 0x1a;
+        image[4] = (byte) prgBanks;
+        image[6] = (byte) ( ( mapper & 0x0f ) << 4 );
+        image[7] = (byte) ( mapper & 0xf0 );
+        for ( int i = 0; i < prgBanks * Cartridge.PRG_BANK_SIZE; ++i )
+        {
+            image[Cartridge.HEADER_SIZE + i] = (byte) ( i >> 13 );
+        }
+        return image;
+    }
+
+    /**
+     * Asserts the 8 KB banks mapped at $8000, $A000, $C000 and $E000.
+     */
+    private static void assertBanks( Memory memory, int at8000, int atA000, int atC000, int atE000 )
+    {
+        assertEquals( "$8000", at8000, memory.read( 0x8000 ) );
+        assertEquals( "$A000", atA000, memory.read( 0xa000 ) );
+        assertEquals( "$C000", atC000, memory.read( 0xc000 ) );
+        assertEquals( "$E000", atE000, memory.read( 0xe000 ) );
+        // Whole banks move, not just their first pages
+        assertEquals( "$9FFF", at8000, memory.read( 0x9fff ) );
+        assertEquals( "$FFFF", atE000, memory.read( 0xffff ) );
+    }
+
+    /**
+     * Loads an MMC1 register with five writes of bit 0, lowest bit first.
+     */
+    private static void loadMmc1( Memory memory, int addr, int val )
+    {
+        for ( int i = 0; i < 5; ++i )
+        {
+            memory.write( addr, ( val >> i ) & 1 );
+        }
+    }
+
+    /* MMC1 */
+
+    public void testMmc1PowerOn()
+    {
+        Memory memory = new Memory();
+        new Cartridge( image( 1, 8 ) ).insert( memory );
+        // 16 KB at $8000, last bank fixed at $C000
+        assertBanks( memory, 0, 1, 14, 15 );
+    }
+
+    public void testMmc1ShiftRegister()
+    {
+        Memory memory = new Memory();
+        new Cartridge( image( 1, 8 ) ).insert( memory );
+        // Four writes only fill the shift register
+        for ( int i = 0; i < 4; ++i )
+        {
+            memory.write( 0xe000, 1 );
+            assertBanks( memory, 0, 1, 14, 15 );
+        }
+        // The fifth loads the register its address picks, whatever the others wrote to
+        memory.write( 0xe000, 0 );
+        assertBanks( memory, 14, 15, 14, 15 );
+
+        memory.write( 0x8000, 1 );
+        memory.write( 0xa000, 1 );
+        memory.write( 0xc000, 0 );
+        memory.write( 0x9fff, 0 );
+        memory.write( 0xffff, 0 );
+        assertBanks( memory, 6, 7, 14, 15 );
+    }
+
+    public void testMmc1Reset()
+    {
+        Memory memory = new Memory();
+        new Cartridge( image( 1, 8 ) ).insert( memory );
+        // Bit 7 throws away a half loaded value
+        memory.write( 0xe000, 1 );
+        memory.write( 0xe000, 1 );
+        memory.write( 0xe000, 0x80 );
+        loadMmc1( memory, 0xe000, 2 );
+        assertBanks( memory, 4, 5, 14, 15 );
+
+        // and puts the last bank back at $C000
+        loadMmc1( memory, 0x8000, 0x08 );
+        assertBanks( memory, 0, 1, 4, 5 );
+        memory.write( 0x8000, 0xff );
+        assertBanks( memory, 4, 5, 14, 15 );
+    }
+
+    public void testMmc1PrgModes()
+    {
+        Memory memory = new Memory();
+        new Cartridge( image( 1, 8 ) ).insert( memory );
+        loadMmc1( memory, 0xe000, 5 );
+
+        // Modes 0 and 1: 32 KB, the low bit of the bank ignored
+        loadMmc1( memory, 0x8000, 0x00 );
+        assertBanks( memory, 8, 9, 10, 11 );
+        loadMmc1( memory, 0x8000, 0x04 );
+        assertBanks( memory, 8, 9, 10, 11 );
+        // Mode 2: first bank fixed at $8000
+        loadMmc1( memory, 0x8000, 0x08 );
+        assertBanks( memory, 0, 1, 10, 11 );
+        // Mode 3: last bank fixed at $C000
+        loadMmc1( memory, 0x8000, 0x0c );
+        assertBanks( memory, 10, 11, 14, 15 );
+        // Bank numbers wrap to the size of the ROM
+        loadMmc1( memory, 0xe000, 0x0b );
+        assertBanks( memory, 6, 7, 14, 15 );
+    }
+
+    public void testMmc1LargePrg()
+    {
+        // 512 KB: bit 4 of the first CHR bank picks the 256 KB half
+        Memory memory = new Memory();
+        new Cartridge( image( 1, 32 ) ).insert( memory );
+        assertBanks( memory, 0, 1, 30, 31 );
+        loadMmc1( memory, 0xa000, 0x10 );
+        loadMmc1( memory, 0xe000, 2 );
+        assertBanks( memory, 36, 37, 62, 63 );
+        loadMmc1( memory, 0x8000, 0x08 );
+        assertBanks( memory, 32, 33, 36, 37 );
+    }
+
+    /* UxROM and NROM */
+
+    public void testUxrom()
+    {
+        Memory memory = new Memory();
+        new Cartridge( image( 2, 8 ) ).insert( memory );
+        assertBanks( memory, 0, 1, 14, 15 );
+        memory.write( 0x8000, 5 );
+        assertBanks( memory, 10, 11, 14, 15 );
+        memory.write( 0xffff, 9 );
+        assertBanks( memory, 2, 3, 14, 15 );
+    }
+
+    public void testNrom()
+    {
+        // 16 KB repeats at $C000, writes are ignored
+        Memory memory = new Memory();
+        new Cartridge( image( 0, 1 ) ).insert( memory );
+        assertBanks( memory, 0, 1, 0, 1 );
+        memory.write( 0x8000, 0x55 );
+        assertEquals( 0, memory.read( 0x8000 ) );
+
+        memory = new Memory();
+        new Cartridge( image( 0, 2 ) ).insert( memory );
+        assertBanks( memory, 0, 1, 2, 3 );
+    }
+
+    /* MMC3 */
+
+    public void testMmc3Banks()
+    {
+        Memory memory = new Memory();
+        new Cartridge( image( 4, 8 ) ).insert( memory );
+        // Second last and last banks fixed at $C000 and $E000
+        assertBanks( memory, 0, 0, 14, 15 );
+
+        memory.write( 0x8000, 6 );
+        memory.write( 0x8001, 5 );
+        memory.write( 0x8000, 7 );
+        memory.write( 0x8001, 9 );
+        assertBanks( memory, 5, 9, 14, 15 );
+
+        // CHR registers leave PRG alone, and $8000-$9FFF repeats every two bytes
+        memory.write( 0x9ffe, 2 );
+        memory.write( 0x9fff, 12 );
+        assertBanks( memory, 5, 9, 14, 15 );
+        memory.write( 0x9ffe, 6 );
+        memory.write( 0x9fff, 19 );
+        assertBanks( memory, 3, 9, 14, 15 );
+    }
+
+    public void testMmc3SwappedMode()
+    {
+        Memory memory = new Memory();
+        new Cartridge( image( 4, 8 ) ).insert( memory );
+        memory.write( 0x8000, 6 );
+        memory.write( 0x8001, 5 );
+        memory.write( 0x8000, 7 );
+        memory.write( 0x8001, 9 );
+
+        // Bit 6 swaps R6 with the second last bank
+        memory.write( 0x8000, 0x46 );
+        assertBanks( memory, 14, 9, 5, 15 );
+        memory.write( 0x8001, 2 );
+        assertBanks( memory, 14, 9, 2, 15 );
+        memory.write( 0x8000, 0x06 );
+        assertBanks( memory, 2, 9, 14, 15 );
+    }
+
+    public void testMmc3Irq()
+    {
+        Memory memory = new Memory();
+        Mmc3Mapper mapper = (Mmc3Mapper) new Cartridge( image( 4, 8 ) ).insert( memory );
+        memory.write( 0xc000, 3 );   // Latch
+        memory.write( 0xc001, 0 );   // Reload on the next scanline
+        memory.write( 0xe001, 0 );   // Enable
+
+        assertFalse( mapper.scanline() );   // Reloaded to 3
+        assertFalse( mapper.scanline() );   // 2
+        assertFalse( mapper.scanline() );   // 1
+        assertTrue( mapper.scanline() );    // 0
+        // Held until acknowledged, while the counter reloads and counts on
+        assertTrue( mapper.scanline() );
+        memory.write( 0xe000, 0 );   // Acknowledge and disable
+        assertFalse( mapper.scanline() );
+        assertFalse( mapper.scanline() );
+        assertFalse( mapper.scanline() );   // 0, but disabled
+        memory.write( 0xe001, 0 );
+        assertFalse( mapper.scanline() );   // Reloaded to 3
+        assertFalse( mapper.scanline() );
+        assertFalse( mapper.scanline() );
+        assertTrue( mapper.scanline() );
+
+        // A reload request mid-count restarts from the latch
+        memory.write( 0xe000, 0 );
+        memory.write( 0xe001, 0 );
+        memory.write( 0xc000, 2 );
+        assertFalse( mapper.scanline() );   // 2
+        memory.write( 0xc001, 0 );
+        assertFalse( mapper.scanline() );   // Reloaded to 2
+        assertFalse( mapper.scanline() );   // 1
+        assertTrue( mapper.scanline() );    // 0
+    }
+
+    /* RECOMPILER */
+
+    /**
+     * A block that switches out the bank it is running from must stop
+     * after the switch, so the rest of the code comes from the new bank.
+     */
+    public void testBlockSwitchingOutItsBank()
+    {
+        byte[] image = image( 2, 4 );
+        int[] bank0 = {
+            0xa9, 0x01,             // 8000 LDA #$01
+            0x8d, 0x00, 0x80,       // 8002 STA $8000, switching to bank 1
+            0xe6, 0x22,             // 8005 INC $22
+            0x4c, 0x00, 0xc0 };     // 8007 JMP $C000
+        int[] bank1 = bank0.clone();
+        bank1[1] = 0x00;            // Switches back to bank 0
+        bank1[6] = 0x23;            // INC $23
+        int[] fixed = {
+            0xe6, 0x21,             // C000 INC $21
+            0xa5, 0x21,             // C002 LDA $21
+            0xc9, 0x40,             // C004 CMP #$40
+            0xf0, 0x03,             // C006 BEQ $C00B
+            0x4c, 0x00, 0x80,       // C008 JMP $8000
+            0x00 };                 // C00B BRK
+        put( image, 0, bank0 );
+        put( image, 1, bank1 );
+        put( image, 3, fixed );
+
+        String interpreted = null;
+        for ( int threshold = -1; threshold <= 2; ++threshold )
+        {
+            Memory memory = new Memory();
+            new Cartridge( image ).insert( memory );
+            Cpu cpu = new Cpu( memory );
+            cpu.setPC( 0x8000 );
+            Recompiler jit = threshold < 0 ? null : new Recompiler( cpu, threshold );
+            while ( memory.read( cpu.getPC() ) != 0x00 )
+            {
+                if ( jit == null )
+                    cpu.step();
+                else
+                    jit.execute();
+            }
+            // Each pass runs the INC of the bank it switched to, so they take turns
+            assertEquals( 0x40, memory.read( 0x21 ) );
+            assertEquals( 0x20, memory.read( 0x22 ) );
+            assertEquals( 0x20, memory.read( 0x23 ) );
+            String result = cpu.getState().getCycles() + " " + cpu.getState().getInstructions();
+            if ( jit == null )
+                interpreted = result;
+            else
+                assertEquals( "Threshold " + threshold, interpreted, result );
+
+            if ( jit != null )
+            {
+                // Compiled on entry, the block stops right after the switch
+                Recompiler eager = new Recompiler( cpu, 0 );
+                cpu.setPC( 0x8000 );
+                assertEquals( 2, eager.execute() );
+                assertEquals( 0x8005, cpu.getPC() );
+            }
+        }
+    }
+
+    /**
+     * Copies code to the start of a 16 KB bank of an iNES image.
+     */
+    private static void put( byte[] image, int bank, int[] code )
+    {
+        for ( int i = 0; i < code.length; ++i )
+        {
+            image[Cartridge.HEADER_SIZE + bank * Cartridge.PRG_BANK_SIZE + i] = (byte) code[i];
+        }
+    }
+}
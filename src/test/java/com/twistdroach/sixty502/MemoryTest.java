@@ -0,0 +1,109 @@
+package com.twistdroach.sixty502;
+
+/**
+ * MemoryTest.java
+ * Copy-on-write RAM: pages loaded from a shared RomImage or a snapshot
+ * are only copied when written, and the dirty page count tracks the
+ * copies across writes, reloads, snapshots and restores.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class MemoryTest extends TestCase
+{
+    private static RomImage image( int pages, int fill )
+    {
+        byte[] bytes = new byte[pages * 256];
+        Arrays.fill( bytes, (byte) fill );
+        return new RomImage( bytes );
+    }
+
+    public void testWriteCopiesSharedPage()
+    {
+        RomImage image = image( 2, 0x11 );
+        Memory first = new Memory();
+        Memory second = new Memory();
+        first.load( 0x10, image );
+        second.load( 0x10, image );
+
+        first.write( 0x1005, 0x22 );
+
+        assertEquals( 0x22, first.peek( 0x1005 ) );
+        assertEquals( 0x11, second.peek( 0x1005 ) );
+        assertEquals( 0x11, image.read( 0x05 ) );
+        assertEquals( 1, first.getDirtyPageCount() );
+        assertEquals( 0, second.getDirtyPageCount() );
+    }
+
+    public void testReloadForgetsWrittenPage()
+    {
+        RomImage image = image( 1, 0x11 );
+        Memory memory = new Memory();
+        memory.load( 0x20, image );
+        memory.write( 0x2000, 0x33 );
+        assertEquals( 1, memory.getDirtyPageCount() );
+
+        memory.load( 0x20, image );
+
+        assertEquals( 0, memory.getDirtyPageCount() );
+        assertEquals( 0x11, memory.peek( 0x2000 ) );
+        // The reloaded page is shared again, so the next write copies it
+        memory.write( 0x2000, 0x44 );
+        assertEquals( 0x11, image.read( 0 ) );
+        assertEquals( 1, memory.getDirtyPageCount() );
+    }
+
+    public void testWriteReloadLoopKeepsDirtyCount()
+    {
+        RomImage image = image( 4, 0 );
+        Memory memory = new Memory();
+        for ( int i = 0; i < 1000; ++i )
+        {
+            memory.load( 0x40, image );
+            memory.write( 0x4000 + ( i & 0x3ff ), i & 0xff );
+            memory.write( 0x0000, i & 0xff );
+            assertEquals( 2, memory.getDirtyPageCount() );
+        }
+        memory.snapshot();
+        assertEquals( 0, memory.getDirtyPageCount() );
+    }
+
+    public void testReloadKeepsOtherDirtyPages()
+    {
+        RomImage image = image( 2, 0 );
+        Memory memory = new Memory();
+        memory.load( 0x50, image );
+        memory.write( 0x0100, 1 );
+        memory.write( 0x5000, 2 );
+        memory.write( 0x5100, 3 );
+        memory.write( 0x0200, 4 );
+
+        memory.load( 0x50, image );
+        assertEquals( 2, memory.getDirtyPageCount() );
+
+        MemorySnapshot snapshot = memory.snapshot();
+        memory.write( 0x0100, 5 );
+        memory.restore( snapshot );
+        assertEquals( 1, memory.peek( 0x0100 ) );
+        assertEquals( 4, memory.peek( 0x0200 ) );
+        assertEquals( 0, memory.peek( 0x5000 ) );
+        assertEquals( 0, memory.getDirtyPageCount() );
+    }
+
+    public void testLoadUnderRomLeavesRomMapped()
+    {
+        Memory memory = new Memory();
+        memory.mapRom( 0x80, new byte[256] );
+        int generation = memory.getPageGeneration( 0x80 );
+        // RAM page $80 is replaced, but nothing maps it
+        memory.load( 0x80, image( 1, 0x11 ) );
+        assertEquals( generation, memory.getPageGeneration( 0x80 ) );
+        assertEquals( 0, memory.read( 0x8000 ) );
+        memory.mapRam( 0x80, 1 );
+        assertEquals( 0x11, memory.read( 0x8000 ) );
+    }
+}
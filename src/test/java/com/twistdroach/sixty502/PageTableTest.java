@@ -0,0 +1,213 @@
+package com.twistdroach.sixty502;
+
+/**
+ * PageTableTest.java
+ * Memory's page table: mirrors of RAM and devices, ROM that drops writes,
+ * arrays mapped for writing, devices seeing the addresses they expect,
+ * and the aliases the Recompiler uses to find every copy of a byte.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PageTableTest extends TestCase
+{
+    /**
+     * Remembers every access, and reads back the low byte of the address.
+     */
+    private static class RecordingDevice implements MemoryDevice
+    {
+        List<String> accesses = new ArrayList<String>();
+
+        public int read( int addr )
+        {
+            accesses.add( "read $" + Integer.toHexString( addr ) );
+            return addr & 0xff;
+        }
+
+        public void write( int addr, int val )
+        {
+            accesses.add( "write $" + Integer.toHexString( addr ) + " " + val );
+        }
+
+        public int peek( int addr )
+        {
+            return ( addr & 0xff ) ^ 0xff;
+        }
+    }
+
+    private static byte[] filled( int length, int val )
+    {
+        byte[] bytes = new byte[length];
+        Arrays.fill( bytes, (byte) val );
+        return bytes;
+    }
+
+    public void testRamMirror()
+    {
+        Memory memory = new Memory();
+        memory.mirror( 0x08, 8, 0x00 );
+        memory.write( 0x0a01, 0x11 );
+        assertEquals( 0x11, memory.read( 0x0201 ) );
+        memory.write( 0x0702, 0x22 );
+        assertEquals( 0x22, memory.read( 0x0f02 ) );
+        assertEquals( 0x22, memory.peek( 0x0f02 ) );
+        // Only the pages asked for
+        assertEquals( 0, memory.read( 0x1201 ) );
+
+        // Copy-on-write reaches every mirror of a page
+        MemorySnapshot snapshot = memory.snapshot();
+        memory.write( 0x0a01, 0x33 );
+        assertEquals( 0x33, memory.read( 0x0201 ) );
+        assertEquals( 0x11, snapshot.peek( 0x0201 ) );
+        memory.restore( snapshot );
+        assertEquals( 0x11, memory.read( 0x0a01 ) );
+        memory.write( 0x0201, 0x44 );
+        assertEquals( 0x44, memory.read( 0x0a01 ) );
+    }
+
+    public void testRomDropsWrites()
+    {
+        byte[] rom = filled( 0x200, 0x5a );
+        Memory memory = new Memory();
+        memory.mapRom( 0x80, rom );
+        memory.mirror( 0x90, 2, 0x80 );
+        memory.write( 0x8000, 0x01 );
+        memory.write( 0x9101, 0x02 );
+        assertEquals( 0x5a, memory.read( 0x8000 ) );
+        assertEquals( 0x5a, memory.read( 0x8101 ) );
+        assertEquals( 0x5a, memory.read( 0x9000 ) );
+        assertEquals( 0x5a, rom[0] );
+        assertEquals( 0x5a, rom[0x101] );
+        assertNull( memory.getDevice( 0x80 ) );
+
+        // Back to RAM, as it was before the ROM covered it
+        memory.mapRam( 0x80, 2 );
+        assertEquals( 0, memory.read( 0x8000 ) );
+        memory.write( 0x8000, 0x03 );
+        assertEquals( 0x03, memory.read( 0x8000 ) );
+        assertEquals( 0x5a, memory.read( 0x9000 ) );
+    }
+
+    public void testWritableArray()
+    {
+        byte[] bytes = filled( 0x400, 0 );
+        Memory memory = new Memory();
+        memory.map( 0x60, 2, bytes, 0x200, true );
+        memory.write( 0x6003, 0x77 );
+        memory.write( 0x61ff, 0x78 );
+        assertEquals( 0x77, bytes[0x203] );
+        assertEquals( 0x78, bytes[0x3ff] );
+        bytes[0x210] = 0x79;
+        assertEquals( 0x79, memory.read( 0x6010 ) );
+
+        try
+        {
+            memory.map( 0x60, 2, bytes, 0x300, true );
+            fail( "Mapped past the end of the array" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+        try
+        {
+            memory.map( 0x60, 1, bytes, 0x10, true );
+            fail( "Mapped an offset that isn't page-aligned" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+        try
+        {
+            memory.mirror( 0xff, 2, 0x00 );
+            fail( "Mirrored past $FFFF" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+        }
+    }
+
+    public void testDevice()
+    {
+        RecordingDevice device = new RecordingDevice();
+        Memory memory = new Memory();
+        memory.mapDevice( 0x20, 1, device );
+        memory.mirror( 0x28, 1, 0x20 );
+
+        assertEquals( 0x07, memory.read( 0x2007 ) );
+        memory.write( 0x2001, 0x10 );
+        // A mirror reaches the device at the source's addresses
+        assertEquals( 0x05, memory.read( 0x2805 ) );
+        memory.write( 0x28ff, 0x20 );
+        // Peeks go to the device's peek(), and aren't recorded
+        assertEquals( 0xf8, memory.peek( 0x2807 ) );
+        assertEquals( Arrays.asList( "read $2007", "write $2001 16", "read $2005", "write $20ff 32" ),
+                device.accesses );
+        assertSame( device, memory.getDevice( 0x28 ) );
+
+        // Neighbouring pages are still RAM
+        memory.write( 0x2100, 0x42 );
+        assertEquals( 0x42, memory.read( 0x2100 ) );
+        assertEquals( 4, device.accesses.size() );
+    }
+
+    public void testRemapChangesGeneration()
+    {
+        Memory memory = new Memory();
+        int generation = memory.getPageGeneration( 0x80 );
+        int mapGeneration = memory.getMapGeneration();
+        memory.mapRom( 0x80, filled( 0x100, 1 ) );
+        assertTrue( generation != memory.getPageGeneration( 0x80 ) );
+        assertTrue( mapGeneration != memory.getMapGeneration() );
+
+        // Writes don't remap
+        generation = memory.getPageGeneration( 0x00 );
+        memory.write( 0x0000, 1 );
+        assertEquals( generation, memory.getPageGeneration( 0x00 ) );
+    }
+
+    private static List<Integer> aliases( Memory memory, int page )
+    {
+        int[] aliases = memory.getAliases( page );
+        if ( aliases == null )
+            return null;
+        List<Integer> pages = new ArrayList<Integer>();
+        for ( int alias : aliases )
+            pages.add( alias );
+        Collections.sort( pages );
+        return pages;
+    }
+
+    public void testAliases()
+    {
+        Memory memory = new Memory();
+        assertNull( aliases( memory, 0x02 ) );
+
+        for ( int page = 0x08; page < 0x20; page += 0x08 )
+        {
+            memory.mirror( page, 0x08, 0x00 );
+        }
+        assertEquals( Arrays.asList( 0x02, 0x0a, 0x12, 0x1a ), aliases( memory, 0x02 ) );
+        assertEquals( Arrays.asList( 0x02, 0x0a, 0x12, 0x1a ), aliases( memory, 0x1a ) );
+        assertNull( aliases( memory, 0x20 ) );
+
+        // Devices alias by the address they see
+        RecordingDevice device = new RecordingDevice();
+        memory.mapDevice( 0x40, 1, device );
+        memory.mirror( 0x41, 1, 0x40 );
+        assertEquals( Arrays.asList( 0x40, 0x41 ), aliases( memory, 0x41 ) );
+
+        // Mapping over a mirror takes it out
+        memory.mapRom( 0x1a, filled( 0x100, 0 ) );
+        memory.mapRam( 0x12, 1 );
+        assertEquals( Arrays.asList( 0x02, 0x0a ), aliases( memory, 0x02 ) );
+        assertNull( aliases( memory, 0x12 ) );
+        assertNull( aliases( memory, 0x1a ) );
+    }
+}
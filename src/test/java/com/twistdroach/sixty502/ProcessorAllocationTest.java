@@ -0,0 +1,87 @@
+package com.twistdroach.sixty502;
+
+/**
+ * ProcessorAllocationTest.java
+ * Runs the interpreter long enough to see that executing instructions
+ * allocates nothing: registers and flags live in CpuState's int fields
+ * and memory in byte arrays, so a run of a million instructions should
+ * cost no more heap than the run loop's own bookkeeping.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import junit.framework.TestCase;
+
+public class ProcessorAllocationTest extends TestCase
+{
+    private static final long INSTRUCTIONS = 1000000;
+    /* Room for a stray boxed long or two, nowhere near a byte per instruction */
+    private static final long ALLOWED_BYTES = 16 * 1024;
+
+    /* Loads, stores, ALU, shifts, flags and the stack, looping forever */
+    private static final String LOOP =
+            "lda #0\n" +
+            "adc #1\n" +
+            "sta $10\n" +
+            "inx\n" +
+            "sta $0200,x\n" +
+            "rol $10\n" +
+            "cmp #$40\n" +
+            "php\n" +
+            "plp\n" +
+            "jsr #10\n" +
+            "jmp #1\n" +
+            "rts\n";
+
+    public void testRunDoesNotAllocate() throws IOException
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if ( !( threads instanceof com.sun.management.ThreadMXBean ) )
+        {
+            // No allocation counter on this VM
+            return;
+        }
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        if ( !counter.isThreadAllocatedMemorySupported() )
+        {
+            return;
+        }
+        counter.setThreadAllocatedMemoryEnabled( true );
+
+        Processor processor = new Processor();
+        processor.load( new Program( writeProgram().getPath() ) );
+        // Warm up: the first run loads classes and fills the page tables
+        assertEquals( StopReason.BUDGET_EXHAUSTED, processor.run( INSTRUCTIONS ) );
+
+        long thread = Thread.currentThread().getId();
+        long before = counter.getThreadAllocatedBytes( thread );
+        StopReason reason = processor.run( INSTRUCTIONS );
+        long allocated = counter.getThreadAllocatedBytes( thread ) - before;
+
+        assertEquals( StopReason.BUDGET_EXHAUSTED, reason );
+        assertEquals( 2 * INSTRUCTIONS, processor.getState().getInstructions() );
+        assertTrue( allocated + " bytes allocated running " + INSTRUCTIONS + " instructions",
+                allocated < ALLOWED_BYTES );
+    }
+
+    private static File writeProgram() throws IOException
+    {
+        File file = File.createTempFile( "loop", ".asm" );
+        file.deleteOnExit();
+        FileWriter out = new FileWriter( file );
+        try
+        {
+            out.write( LOOP );
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+}
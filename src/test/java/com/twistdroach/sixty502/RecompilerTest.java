@@ -0,0 +1,344 @@
+package com.twistdroach.sixty502;
+
+/**
+ * RecompilerTest.java
+ * Compiled blocks against the interpreter: the same program run both
+ * ways must leave the same registers, flags, cycle count and memory, and
+ * compiled code must be dropped as soon as the bytes it came from change,
+ * whether the program overwrites them or a page is remapped under it.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class RecompilerTest extends TestCase
+{
+    /* Loops 16 times through every branch, the stack, a subroutine in
+       decimal mode, indexed and indirect modes and page crossing reads,
+       then leaves through JMP ( $0060 ) to a BRK */
+    private static final int[] LOOP = {
+        0xa2, 0x00,             // 0600 LDX #$00
+        0xa0, 0x10,             // 0602 LDY #$10
+        0x8a,                   // 0604 TXA
+        0x18,                   // 0605 CLC
+        0x69, 0x35,             // 0606 ADC #$35
+        0x9d, 0xf0, 0x02,       // 0608 STA $02F0,X
+        0xbd, 0xf8, 0x02,       // 060B LDA $02F8,X
+        0x30, 0x02,             // 060E BMI $0612
+        0x49, 0xff,             // 0610 EOR #$FF
+        0x70, 0x00,             // 0612 BVS $0614
+        0x90, 0x00,             // 0614 BCC $0616
+        0xb0, 0x00,             // 0616 BCS $0618
+        0x50, 0x00,             // 0618 BVC $061A
+        0x10, 0x00,             // 061A BPL $061C
+        0xf0, 0x00,             // 061C BEQ $061E
+        0xc9, 0x40,             // 061E CMP #$40
+        0x48,                   // 0620 PHA
+        0x68,                   // 0621 PLA
+        0x08,                   // 0622 PHP
+        0x28,                   // 0623 PLP
+        0x20, 0x40, 0x06,       // 0624 JSR $0640
+        0xe8,                   // 0627 INX
+        0x88,                   // 0628 DEY
+        0xd0, 0xd9,             // 0629 BNE $0604
+        0x6c, 0x60, 0x00,       // 062B JMP ( $0060 )
+    };
+    private static final int[] SUBROUTINE = {
+        0xf8,                   // 0640 SED
+        0x38,                   // 0641 SEC
+        0xe9, 0x07,             // 0642 SBC #$07
+        0x65, 0x20,             // 0644 ADC $20
+        0x85, 0x20,             // 0646 STA $20
+        0xd8,                   // 0648 CLD
+        0x26, 0x21,             // 0649 ROL $21
+        0x46, 0x22,             // 064B LSR $22
+        0x6a,                   // 064D ROR A
+        0x0a,                   // 064E ASL A
+        0xe6, 0x23,             // 064F INC $23
+        0xc6, 0x24,             // 0651 DEC $24
+        0x24, 0x20,             // 0653 BIT $20
+        0xb8,                   // 0655 CLV
+        0xc0, 0x05,             // 0656 CPY #$05
+        0xe0, 0x03,             // 0658 CPX #$03
+        0x81, 0x30,             // 065A STA ( $30,X )
+        0xb1, 0x32,             // 065C LDA ( $32 ),Y
+        0xb5, 0x10,             // 065E LDA $10,X
+        0x96, 0x40,             // 0660 STX $40,Y
+        0x1d, 0xff, 0x03,       // 0662 ORA $03FF,X
+        0x3d, 0x00, 0x03,       // 0665 AND $0300,X
+        0x59, 0xf8, 0x02,       // 0668 EOR $02F8,Y
+        0x60,                   // 066B RTS
+    };
+
+    private static void poke( Memory memory, int addr, int... bytes )
+    {
+        for ( int i = 0; i < bytes.length; ++i )
+        {
+            memory.write( addr + i, bytes[i] );
+        }
+    }
+
+    /**
+     * Random data, the loop, and pointers that keep its stores off the code.
+     */
+    private static Memory loopMemory( long seed )
+    {
+        Memory memory = new Memory();
+        Random random = new Random( seed );
+        for ( int addr = 0; addr < 0x0600; ++addr )
+        {
+            memory.write( addr, random.nextInt( 256 ) );
+        }
+        for ( int addr = 0x30; addr < 0x42; ++addr )
+        {
+            memory.write( addr, 0x03 );
+        }
+        poke( memory, 0x0060, 0x00, 0x07 );
+        poke( memory, 0x0600, LOOP );
+        poke( memory, 0x0640, SUBROUTINE );
+        poke( memory, 0x0700, 0x00 );
+        return memory;
+    }
+
+    /**
+     * Runs from $0600 to a BRK, compiled with a threshold of one or interpreted.
+     *
+     * @return Registers, flags, counters and a digest of memory.
+     */
+    private static String run( Memory memory, boolean compiled )
+    {
+        Cpu cpu = new Cpu( memory );
+        cpu.setPC( 0x0600 );
+        Recompiler jit = compiled ? new Recompiler( cpu, 1 ) : null;
+        int steps = 0;
+        while ( memory.read( cpu.getPC() ) != 0x00 && steps < 100000 )
+        {
+            if ( compiled )
+            {
+                steps += jit.execute();
+            }
+            else
+            {
+                cpu.step();
+                steps++;
+            }
+        }
+        int digest = 0;
+        for ( int addr = 0; addr < Memory.SIZE; ++addr )
+        {
+            digest = digest * 31 + memory.peek( addr );
+        }
+        CpuState state = cpu.getState();
+        return "A=" + cpu.getA() + " X=" + cpu.getX() + " Y=" + cpu.getY() + " SP=" + cpu.getSP()
+                + " P=" + cpu.getP() + " PC=" + cpu.getPC() + " cycles=" + state.getCycles()
+                + " instructions=" + state.getInstructions() + " steps=" + steps + " memory=" + digest;
+    }
+
+    public void testCompiledMatchesInterpreter()
+    {
+        for ( long seed = 0; seed < 32; ++seed )
+        {
+            String interpreted = run( loopMemory( seed ), false );
+            assertTrue( interpreted, interpreted.contains( "PC=1792" ) );
+            assertEquals( "Seed " + seed, interpreted, run( loopMemory( seed ), true ) );
+        }
+    }
+
+    public void testUnofficialOpcodesRunAsNops()
+    {
+        Memory memory = new Memory();
+        poke( memory, 0x0600,
+                0x1a,               // 0600 unofficial
+                0xe8,               // 0601 INX
+                0x3a,               // 0602 unofficial
+                0xe0, 0x20,         // 0603 CPX #$20
+                0xd0, 0xf9 );       // 0605 BNE $0600
+        Cpu cpu = new Cpu( memory );
+        cpu.setPC( 0x0600 );
+        for ( int i = 0; i < 3; ++i )
+        {
+            cpu.step();
+        }
+        assertEquals( 0x0603, cpu.getPC() );
+        assertEquals( 1, cpu.getX() );
+        assertEquals( 6, cpu.getState().getCycles() );
+        assertEquals( 3, cpu.getState().getInstructions() );
+        assertEquals( 2, cpu.getUnofficialCount() );
+
+        Memory copy = new Memory();
+        for ( int addr = 0x0600; addr < 0x0608; ++addr )
+        {
+            copy.write( addr, memory.peek( addr ) );
+        }
+        String interpreted = run( memory, false );
+        assertTrue( interpreted, interpreted.contains( "instructions=160" ) );
+        assertEquals( interpreted, run( copy, true ) );
+    }
+
+    public void testSelfModifyingCode()
+    {
+        Memory memory = new Memory();
+        poke( memory, 0x0600,
+                0xee, 0x05, 0x06,   // 0600 INC $0605
+                0xea,               // 0603 NOP
+                0xa9, 0x00,         // 0604 LDA #$00, its operand counting up
+                0x85, 0x20,         // 0606 STA $20
+                0x4c, 0x00, 0x06 ); // 0608 JMP $0600
+        Cpu cpu = new Cpu( memory );
+        cpu.setPC( 0x0600 );
+        Recompiler jit = new Recompiler( cpu, 2 );
+        for ( int i = 1; i <= 300; ++i )
+        {
+            // Compiled, the INC leaves the block and the rest runs as a block of its own
+            do
+            {
+                jit.execute();
+            }
+            while ( cpu.getPC() != 0x0600 );
+            assertEquals( i & 0xff, memory.read( 0x20 ) );
+        }
+        assertEquals( 300 * 5, cpu.getState().getInstructions() );
+    }
+
+    public void testWriteThroughMirrorDropsBlocks()
+    {
+        Memory memory = new Memory();
+        memory.mirror( 0x08, 8, 0x00 );
+        poke( memory, 0x0200,
+                0xa9, 0x01,         // 0200 LDA #$01
+                0x4c, 0x00, 0x02 ); // 0202 JMP $0200
+        poke( memory, 0x0300,
+                0xa9, 0x07,         // 0300 LDA #$07
+                0x8d, 0x01, 0x0a,   // 0302 STA $0A01, the operand at $0201
+                0x00 );             // 0305 BRK
+        Cpu cpu = new Cpu( memory );
+        cpu.setPC( 0x0200 );
+        Recompiler jit = new Recompiler( cpu, 2 );
+        for ( int i = 0; i < 10; ++i )
+        {
+            jit.execute();
+        }
+        assertEquals( 1, cpu.getA() );
+
+        cpu.setPC( 0x0300 );
+        assertEquals( 2, jit.execute() );
+        cpu.setPC( 0x0200 );
+        jit.execute();
+        assertEquals( 7, cpu.getA() );
+
+        // And the other way round, from code compiled at the mirror
+        cpu.setPC( 0x0a00 );
+        for ( int i = 0; i < 10; ++i )
+        {
+            jit.execute();
+        }
+        poke( memory, 0x0300, 0xa9, 0x09, 0x8d, 0x01, 0x02 );
+        cpu.setPC( 0x0300 );
+        jit.execute();
+        cpu.setPC( 0x0a00 );
+        jit.execute();
+        assertEquals( 9, cpu.getA() );
+    }
+
+    /**
+     * Compiles INX; LDA #$01; JMP $0A00 through a mirror at $0A00, then
+     * restores a snapshot holding LDA #$02 instead.
+     */
+    private static int runAfterRestore( Memory memory )
+    {
+        Cpu cpu = new Cpu( memory );
+        poke( memory, 0x0200,
+                0xe8,               // 0200 INX
+                0xa9, 0x01,         // 0201 LDA #$01
+                0x4c, 0x00, 0x0a ); // 0203 JMP $0A00
+        MemorySnapshot first = memory.snapshot();
+        memory.write( 0x0202, 0x02 );
+        MemorySnapshot second = memory.snapshot();
+
+        memory.restore( first );
+        cpu.setPC( 0x0a00 );
+        Recompiler jit = new Recompiler( cpu, 2 );
+        for ( int i = 0; i < 10; ++i )
+        {
+            jit.execute();
+        }
+        assertEquals( 1, cpu.getA() );
+        assertEquals( 10, cpu.getX() );
+
+        memory.restore( second );
+        assertEquals( 3, jit.execute() );
+        return cpu.getA();
+    }
+
+    public void testRestoreDropsBlocks()
+    {
+        Memory memory = new Memory();
+        memory.mirror( 0x0a, 1, 0x02 );
+        assertEquals( 2, runAfterRestore( memory ) );
+        memory = new BufferMemory();
+        memory.mirror( 0x0a, 1, 0x02 );
+        assertEquals( 2, runAfterRestore( memory ) );
+    }
+
+    /**
+     * Compiles INX; LDA #$01; JMP $0A00 through a mirror at $0A00, then
+     * loads an image holding LDA #$02 instead.
+     */
+    private static int runAfterLoad( Memory memory )
+    {
+        byte[] first = new byte[256];
+        byte[] code = { (byte) 0xe8, (byte) 0xa9, 0x01, 0x4c, 0x00, 0x0a };
+        System.arraycopy( code, 0, first, 0, code.length );
+        byte[] second = first.clone();
+        second[2] = 0x02;
+
+        Cpu cpu = new Cpu( memory );
+        memory.load( 0x02, new RomImage( first ) );
+        cpu.setPC( 0x0a00 );
+        Recompiler jit = new Recompiler( cpu, 2 );
+        for ( int i = 0; i < 10; ++i )
+        {
+            jit.execute();
+        }
+        assertEquals( 1, cpu.getA() );
+
+        memory.load( 0x02, new RomImage( second ) );
+        assertEquals( 3, jit.execute() );
+        return cpu.getA();
+    }
+
+    public void testLoadDropsBlocks()
+    {
+        Memory memory = new Memory();
+        memory.mirror( 0x0a, 1, 0x02 );
+        assertEquals( 2, runAfterLoad( memory ) );
+        memory = new BufferMemory();
+        memory.mirror( 0x0a, 1, 0x02 );
+        assertEquals( 2, runAfterLoad( memory ) );
+    }
+
+    public void testRemapDropsBlocks()
+    {
+        byte[] first = { (byte) 0xa9, 0x01, (byte) 0x85, 0x20, 0x4c, 0x00, (byte) 0x80 };
+        byte[] second = first.clone();
+        second[1] = 0x02;
+        Memory memory = new Memory();
+        memory.mapRom( 0x80, new RomImage( first ) );
+        Cpu cpu = new Cpu( memory );
+        cpu.setPC( 0x8000 );
+        Recompiler jit = new Recompiler( cpu, 2 );
+        for ( int i = 0; i < 10; ++i )
+        {
+            jit.execute();
+        }
+        assertEquals( 1, memory.read( 0x20 ) );
+
+        memory.mapRom( 0x80, new RomImage( second ) );
+        assertEquals( 3, jit.execute() );
+        assertEquals( 2, memory.read( 0x20 ) );
+        assertEquals( 0x8000, cpu.getPC() );
+    }
+}
@@ -0,0 +1,291 @@
+package com.twistdroach.sixty502;
+
+/**
+ * SaveStateTest.java
+ * Save-state chains written by SaveStateWriter and read back by
+ * SaveStateReader: the first state stored against zeroed RAM, later ones
+ * as deltas, states appended by a second writer, and pages stored in
+ * each encoding, all coming back as the registers and RAM that were saved.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+public class SaveStateTest extends TestCase
+{
+    private File file;
+    private Memory memory;
+    private CpuState state;
+
+    protected void setUp() throws IOException
+    {
+        file = File.createTempFile( "states", ".sav" );
+        memory = new Memory();
+        state = new CpuState();
+    }
+
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Changes every register, so no two states saved in a test match.
+     */
+    private MachineSnapshot snapshot( int seed )
+    {
+        state.a = seed & 0xff;
+        state.x = ( seed * 3 ) & 0xff;
+        state.y = ( seed * 7 ) & 0xff;
+        state.sp = 0xff - seed;
+        state.pc = 0x0600 + seed * 0x101;
+        state.setP( CpuState.U | ( seed & 1 ) * CpuState.C | ( seed & 2 ) * CpuState.V / 2 );
+        state.cycles = 1000000007L * seed;
+        state.instructions = 300000001L * seed;
+        state.setDecimalEnabled( ( seed & 1 ) == 0 );
+        return new MachineSnapshot( state, memory.snapshot() );
+    }
+
+    private void fillRandom( int page, long seed )
+    {
+        Random random = new Random( seed );
+        for ( int i = 0; i < 256; ++i )
+        {
+            memory.write( ( page << 8 ) | i, random.nextInt( 256 ) );
+        }
+    }
+
+    /**
+     * Long runs with a few odd bytes between, which PackBits shrinks.
+     */
+    private void fillRuns( int page, int val )
+    {
+        for ( int i = 0; i < 256; ++i )
+        {
+            memory.write( ( page << 8 ) | i, i < 200 ? val : i % 5 == 0 ? i : 0x55 );
+        }
+    }
+
+    private void fillZero( int page )
+    {
+        for ( int i = 0; i < 256; ++i )
+        {
+            memory.write( ( page << 8 ) | i, 0 );
+        }
+    }
+
+    /**
+     * The page number and encoding of every page stored, state by state.
+     */
+    private List<TreeMap<Integer, Integer>> encodings() throws IOException
+    {
+        ByteBuffer data = ByteBuffer.wrap( Files.readAllBytes( file.toPath() ) ).order( ByteOrder.LITTLE_ENDIAN );
+        List<TreeMap<Integer, Integer>> states = new ArrayList<TreeMap<Integer, Integer>>();
+        int start = SaveStateWriter.HEADER_SIZE;
+        while ( start < data.limit() )
+        {
+            TreeMap<Integer, Integer> pages = new TreeMap<Integer, Integer>();
+            int count = data.getShort( start + 30 ) & 0xffff;
+            data.position( start + SaveStateWriter.STATE_SIZE );
+            for ( int i = 0; i < count; ++i )
+            {
+                int page = data.get() & 0xff;
+                int encoding = data.get();
+                pages.put( page, encoding );
+                if ( encoding == SaveStateWriter.RAW )
+                {
+                    data.position( data.position() + 256 );
+                }
+                else if ( encoding == SaveStateWriter.RLE )
+                {
+                    int length = data.getShort() & 0xffff;
+                    data.position( data.position() + length );
+                }
+            }
+            assertEquals( start + data.getInt( start ), data.position() );
+            states.add( pages );
+            start = data.position();
+        }
+        return states;
+    }
+
+    private static TreeMap<Integer, Integer> pages( int... pagesAndEncodings )
+    {
+        TreeMap<Integer, Integer> pages = new TreeMap<Integer, Integer>();
+        for ( int i = 0; i < pagesAndEncodings.length; i += 2 )
+        {
+            pages.put( pagesAndEncodings[i], pagesAndEncodings[i + 1] );
+        }
+        return pages;
+    }
+
+    private static void assertSameMachine( MachineSnapshot expected, MachineSnapshot actual )
+    {
+        CpuState want = expected.getState();
+        CpuState got = actual.getState();
+        assertEquals( want.getA(), got.getA() );
+        assertEquals( want.getX(), got.getX() );
+        assertEquals( want.getY(), got.getY() );
+        assertEquals( want.getSP(), got.getSP() );
+        assertEquals( want.getPC(), got.getPC() );
+        assertEquals( want.getP(), got.getP() );
+        assertEquals( want.getCycles(), got.getCycles() );
+        assertEquals( want.getInstructions(), got.getInstructions() );
+        assertEquals( want.isDecimalEnabled(), got.isDecimalEnabled() );
+        for ( int addr = 0; addr < Memory.SIZE; ++addr )
+        {
+            if ( expected.getMemory().peek( addr ) != actual.getMemory().peek( addr ) )
+            {
+                fail( "RAM differs at $" + Integer.toHexString( addr ) );
+            }
+        }
+    }
+
+    public void testFirstStateAgainstPowerOn() throws IOException
+    {
+        fillRandom( 0x10, 1 );
+        fillRuns( 0x11, 0xaa );
+        // Written, but still zero like at power on, so not stored
+        fillZero( 0x12 );
+        MachineSnapshot saved = snapshot( 1 );
+
+        SaveStateWriter writer = new SaveStateWriter( file.getPath() );
+        writer.append( saved );
+        writer.close();
+
+        List<MachineSnapshot> states = new SaveStateReader( file.getPath() ).getStates();
+        assertEquals( 1, states.size() );
+        assertSameMachine( saved, states.get( 0 ) );
+        assertEquals( pages( 0x10, SaveStateWriter.RAW, 0x11, SaveStateWriter.RLE ), encodings().get( 0 ) );
+    }
+
+    public void testDeltaChain() throws IOException
+    {
+        List<MachineSnapshot> saved = new ArrayList<MachineSnapshot>();
+        SaveStateWriter writer = new SaveStateWriter( file.getPath() );
+
+        fillRandom( 0x10, 1 );
+        fillRuns( 0x11, 0xaa );
+        saved.add( snapshot( 1 ) );
+        // Zeroing a page stores it as ZERO, an untouched one not at all
+        fillZero( 0x11 );
+        fillRuns( 0x20, 0x01 );
+        saved.add( snapshot( 2 ) );
+        // Registers only
+        saved.add( snapshot( 3 ) );
+        // Written back to what the last state had, so compared and skipped
+        memory.write( 0x1000, memory.read( 0x1000 ) );
+        memory.write( 0xff00, 0x42 );
+        saved.add( snapshot( 4 ) );
+        for ( MachineSnapshot snapshot : saved )
+        {
+            writer.append( snapshot );
+        }
+        writer.close();
+
+        List<MachineSnapshot> states = new SaveStateReader( file.getPath() ).getStates();
+        assertEquals( saved.size(), states.size() );
+        for ( int i = 0; i < saved.size(); ++i )
+        {
+            assertSameMachine( saved.get( i ), states.get( i ) );
+        }
+        List<TreeMap<Integer, Integer>> encodings = encodings();
+        assertEquals( pages( 0x10, SaveStateWriter.RAW, 0x11, SaveStateWriter.RLE ), encodings.get( 0 ) );
+        assertEquals( pages( 0x11, SaveStateWriter.ZERO, 0x20, SaveStateWriter.RLE ), encodings.get( 1 ) );
+        assertEquals( pages(), encodings.get( 2 ) );
+        assertEquals( pages( 0xff, SaveStateWriter.RLE ), encodings.get( 3 ) );
+    }
+
+    public void testAppend() throws IOException
+    {
+        fillRandom( 0x10, 1 );
+        MachineSnapshot first = snapshot( 1 );
+        SaveStateWriter writer = new SaveStateWriter( file.getPath() );
+        writer.append( first );
+        writer.close();
+
+        // A new writer carries on from the last state in the file
+        fillRandom( 0x30, 2 );
+        MachineSnapshot second = snapshot( 2 );
+        memory.write( 0x1080, memory.read( 0x1080 ) ^ 0xff );
+        MachineSnapshot third = snapshot( 3 );
+        writer = new SaveStateWriter( file.getPath(), true );
+        writer.append( second );
+        writer.append( third );
+        writer.close();
+
+        List<MachineSnapshot> states = new SaveStateReader( file.getPath() ).getStates();
+        assertEquals( 3, states.size() );
+        assertSameMachine( first, states.get( 0 ) );
+        assertSameMachine( second, states.get( 1 ) );
+        assertSameMachine( third, states.get( 2 ) );
+        List<TreeMap<Integer, Integer>> encodings = encodings();
+        assertEquals( pages( 0x30, SaveStateWriter.RAW ), encodings.get( 1 ) );
+        assertEquals( pages( 0x10, SaveStateWriter.RAW ), encodings.get( 2 ) );
+
+        // Appending to a file that doesn't exist yet starts one
+        file.delete();
+        writer = new SaveStateWriter( file.getPath(), true );
+        writer.append( third );
+        writer.close();
+        states = new SaveStateReader( file.getPath() ).getStates();
+        assertEquals( 1, states.size() );
+        assertSameMachine( third, states.get( 0 ) );
+    }
+
+    public void testPackBitsEdges() throws IOException
+    {
+        // A run of 256 needs two control bytes, literals of 128 and more split
+        for ( int i = 0; i < 256; ++i )
+        {
+            memory.write( 0x4000 | i, 0x77 );
+            memory.write( 0x4100 | i, i < 130 ? i : 0 );
+            memory.write( 0x4200 | i, i % 3 == 0 ? 0x10 : i < 128 ? 0x20 : i );
+        }
+        MachineSnapshot saved = snapshot( 5 );
+        SaveStateWriter writer = new SaveStateWriter( file.getPath() );
+        writer.append( saved );
+        writer.close();
+
+        assertSameMachine( saved, new SaveStateReader( file.getPath() ).getLatest() );
+        assertEquals( SaveStateWriter.RLE, (int) encodings().get( 0 ).get( 0x40 ) );
+        assertEquals( SaveStateWriter.RLE, (int) encodings().get( 0 ).get( 0x41 ) );
+    }
+
+    public void testStateCutShort() throws IOException
+    {
+        fillRandom( 0x10, 1 );
+        MachineSnapshot first = snapshot( 1 );
+        fillRandom( 0x10, 2 );
+        SaveStateWriter writer = new SaveStateWriter( file.getPath() );
+        writer.append( first );
+        writer.append( snapshot( 2 ) );
+        writer.close();
+
+        // As if the machine died while the second state was being written
+        RandomAccessFile out = new RandomAccessFile( file, "rw" );
+        try
+        {
+            out.setLength( out.length() - 10 );
+        }
+        finally
+        {
+            out.close();
+        }
+        List<MachineSnapshot> states = new SaveStateReader( file.getPath() ).getStates();
+        assertEquals( 1, states.size() );
+        assertSameMachine( first, states.get( 0 ) );
+    }
+}
@@ -0,0 +1,237 @@
+package com.twistdroach.sixty502;
+
+/**
+ * WatchpointTest.java
+ * Read, write and execute watchpoints: hits through Memory's slow paths,
+ * the fast tables given back on unwatch, hits from compiled code, and a
+ * Machine stopping with WATCHPOINT and resuming.
+ *
+ * @author Christopher Erickson
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class WatchpointTest extends TestCase
+{
+    private static final int READ = Memory.WATCH_READ;
+    private static final int WRITE = Memory.WATCH_WRITE;
+    private static final int EXECUTE = Memory.WATCH_EXECUTE;
+
+    /**
+     * Remembers every hit as "kind $addr=val".
+     */
+    private static class Recorder implements WatchListener
+    {
+        List<String> hits = new ArrayList<String>();
+
+        public void hit( Watchpoint watchpoint, int addr, int val, int kind )
+        {
+            String name = kind == READ ? "r" : kind == WRITE ? "w" : "x";
+            hits.add( name + " $" + Integer.toHexString( addr ) + "=" + val );
+        }
+    }
+
+    private static void poke( Memory memory, int addr, int... bytes )
+    {
+        for ( int i = 0; i < bytes.length; ++i )
+        {
+            memory.write( addr + i, bytes[i] );
+        }
+    }
+
+    public void testSlowPaths()
+    {
+        Memory memory = new Memory();
+        memory.write( 0x1234, 0x56 );
+        Recorder recorder = new Recorder();
+        Watchpoint watchpoint = memory.watch( 0x1230, 0x1237, READ | WRITE | EXECUTE, recorder );
+
+        assertEquals( 0x56, memory.read( 0x1234 ) );
+        memory.write( 0x1235, 0x78 );
+        assertEquals( 0x56, memory.fetch( 0x1234 ) );
+        // The rest of the page takes the slow path too, without a hit
+        memory.write( 0x1238, 0x01 );
+        assertEquals( 0x01, memory.read( 0x1238 ) );
+        // Peeks and words
+        assertEquals( 0x56, memory.peek( 0x1234 ) );
+        assertEquals( 0x7856, memory.readWord( 0x1234 ) );
+
+        assertEquals( "[r $1234=86, w $1235=120, x $1234=86, r $1234=86, r $1235=120]",
+                recorder.hits.toString() );
+        assertEquals( 5, watchpoint.getHits() );
+        assertEquals( 0x1235, watchpoint.getLastAddress() );
+        assertEquals( 0x78, watchpoint.getLastValue() );
+        assertEquals( READ, watchpoint.getLastKind() );
+        assertEquals( 0x78, memory.read( 0x1235 ) );
+    }
+
+    public void testKindsWatchedSeparately()
+    {
+        Memory memory = new Memory();
+        Watchpoint reads = memory.watch( 0x40, 0x40, READ, null );
+        Watchpoint writes = memory.watch( 0x40, 0x41, WRITE, null );
+        Watchpoint executes = memory.watch( 0x41, 0x41, EXECUTE, null );
+
+        memory.write( 0x40, 1 );
+        memory.write( 0x41, 2 );
+        memory.read( 0x40 );
+        memory.read( 0x41 );
+        memory.fetch( 0x40 );
+        memory.fetch( 0x41 );
+
+        assertEquals( 1, reads.getHits() );
+        assertEquals( 2, writes.getHits() );
+        assertEquals( 1, executes.getHits() );
+        assertTrue( memory.isWatched( 0x00, READ | EXECUTE ) );
+        assertFalse( memory.isWatched( 0x01, READ | WRITE | EXECUTE ) );
+    }
+
+    public void testUnwatchRestoresFastPath()
+    {
+        Memory memory = new Memory();
+        int generation = memory.getWatchGeneration();
+        Watchpoint first = memory.watch( 0x2010, 0x2110, READ, null );
+        Watchpoint second = memory.watch( 0x2020, 0x2020, WRITE, null );
+        assertTrue( generation != memory.getWatchGeneration() );
+        assertNull( memory.readPages[0x20] );
+        assertNull( memory.readPages[0x21] );
+        assertNotNull( memory.readPages[0x22] );
+
+        generation = memory.getWatchGeneration();
+        memory.unwatch( first );
+        assertTrue( generation != memory.getWatchGeneration() );
+        assertNotNull( memory.readPages[0x20] );
+        assertNotNull( memory.readPages[0x21] );
+        // The write watch on $20 stays
+        assertTrue( memory.isWatched( 0x20, WRITE ) );
+        assertFalse( memory.isWatched( 0x20, READ ) );
+        memory.read( 0x2010 );
+        memory.write( 0x2020, 1 );
+        assertEquals( 0, first.getHits() );
+        assertEquals( 1, second.getHits() );
+
+        memory.unwatch( second );
+        assertFalse( memory.isWatched( 0x20, READ | WRITE | EXECUTE ) );
+        memory.write( 0x2020, 2 );
+        assertEquals( 1, second.getHits() );
+        // Unwatching twice is harmless
+        memory.unwatch( second );
+    }
+
+    public void testListenerMayUnwatch()
+    {
+        final Memory memory = new Memory();
+        final Recorder recorder = new Recorder();
+        memory.watch( 0x30, 0x30, WRITE, new WatchListener()
+        {
+            public void hit( Watchpoint watchpoint, int addr, int val, int kind )
+            {
+                memory.unwatch( watchpoint );
+                recorder.hit( watchpoint, addr, val, kind );
+            }
+        } );
+        Watchpoint other = memory.watch( 0x30, 0x30, WRITE, recorder );
+
+        memory.write( 0x30, 1 );
+        memory.write( 0x30, 2 );
+        assertEquals( "[w $30=1, w $30=1, w $30=2]", recorder.hits.toString() );
+        assertEquals( 2, other.getHits() );
+    }
+
+    public void testHitsUnderCompiledCode()
+    {
+        Memory memory = new Memory();
+        poke( memory, 0x0600,
+                0xe8,               // 0600 INX
+                0x8e, 0x00, 0x03,   // 0601 STX $0300
+                0xad, 0x01, 0x03,   // 0604 LDA $0301
+                0x4c, 0x00, 0x06 ); // 0607 JMP $0600
+        memory.write( 0x0301, 0x99 );
+        Cpu cpu = new Cpu( memory );
+        cpu.setPC( 0x0600 );
+        Recompiler jit = new Recompiler( cpu, 1 );
+        for ( int i = 0; i < 10; ++i )
+        {
+            jit.execute();
+        }
+        assertEquals( 10, cpu.getX() );
+
+        // Blocks compiled before the watch was set read and write through it
+        Recorder recorder = new Recorder();
+        Watchpoint watchpoint = memory.watch( 0x0300, 0x0301, READ | WRITE, recorder );
+        for ( int i = 0; i < 3; ++i )
+        {
+            jit.execute();
+        }
+        assertEquals( "[w $300=11, r $301=153, w $300=12, r $301=153, w $300=13, r $301=153]",
+                recorder.hits.toString() );
+        assertEquals( 0x99, cpu.getA() );
+
+        // Watching execution of the block drops it, and the interpreter sees every fetch
+        Watchpoint executes = memory.watch( 0x0604, 0x0604, EXECUTE, null );
+        for ( int i = 0; i < 3; ++i )
+        {
+            jit.execute();
+        }
+        assertEquals( 3, executes.getHits() );
+        assertEquals( 12, watchpoint.getHits() );
+
+        // Unwatched, it compiles again and runs without hits
+        memory.unwatch( executes );
+        memory.unwatch( watchpoint );
+        for ( int i = 0; i < 10; ++i )
+        {
+            jit.execute();
+        }
+        assertEquals( 3, executes.getHits() );
+        assertEquals( 12, watchpoint.getHits() );
+        assertEquals( 26, cpu.getX() );
+        assertEquals( 26, memory.read( 0x0300 ) );
+        assertNotNull( memory.readPages[0x03] );
+    }
+
+    public void testMachineStopsAndResumes() throws IOException
+    {
+        File file = File.createTempFile( "watch", ".asm" );
+        try
+        {
+            Files.write( file.toPath(), ( "lda #1\n" +
+                    "sta $10\n" +
+                    "lda #2\n" +
+                    "sta $11\n" +
+                    "lda $10\n" +
+                    "sta $12\n" ).getBytes( StandardCharsets.US_ASCII ) );
+            Machine machine = new Machine( file.getPath() );
+            Watchpoint writes = machine.watch( 0x11, 0x11, WRITE );
+            Watchpoint reads = machine.watch( 0x10, 0x10, READ );
+
+            // Stops with the instruction that hit it completed
+            assertEquals( StopReason.WATCHPOINT, machine.run() );
+            assertEquals( 4, machine.getState().getPC() );
+            assertEquals( 2, machine.getMemory().peek( 0x11 ) );
+            assertEquals( 2, writes.getLastValue() );
+
+            assertEquals( StopReason.WATCHPOINT, machine.run() );
+            assertEquals( 5, machine.getState().getPC() );
+            assertEquals( 1, machine.getState().getA() );
+            assertEquals( 1, reads.getHits() );
+
+            machine.getMemory().unwatch( writes );
+            machine.getMemory().unwatch( reads );
+            assertEquals( StopReason.END_OF_PROGRAM, machine.run() );
+            assertEquals( 1, machine.getMemory().peek( 0x12 ) );
+            assertEquals( 6, machine.getState().getInstructions() );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}